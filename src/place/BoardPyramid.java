@@ -0,0 +1,193 @@
+package place;
+
+/**
+ * The colors of a board shrunk again and again by half, for drawing it
+ * zoomed out.  Level 0 is the board itself; each cell of level k is the
+ * average color of the 2x2 cells below it on level k - 1, so it stands
+ * for a square of 2^k x 2^k tiles, and the top level is a single cell.
+ * A view showing 2^k tiles per screen pixel reads level k, and costs the
+ * same however large the board is.
+ *
+ * The pyramid follows the board: after a tile changes, update recomputes
+ * the one cell above it on each level, O(log DIM) work.  A region is
+ * updated the same way, level by level.  Colors are kept as 0xAARRGGBB,
+ * about a third of an int per tile above level 0.
+ *
+ * The pyramid is not thread safe; it is read and updated by one thread,
+ * while the board it reads may be changed by another.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class BoardPyramid {
+    /** Colors by number, as 0xAARRGGBB */
+    private static final int[] ARGB = new int[PlaceColor.TOTAL_COLORS];
+
+    static {
+        for (PlaceColor color : PlaceColor.values()) {
+            ARGB[color.getNumber()] = 0xff000000 | color.getRed() << 16 | color.getGreen() << 8 | color.getBlue();
+        }
+    }
+
+    /** The board at level 0 */
+    private final PlaceBoard board;
+    /** Width and height of every level, in cells */
+    private final int[] sides;
+    /** The cells of levels 1 and up, row by row; cells[0] is unused */
+    private final int[][] cells;
+
+    /**
+     * Build the pyramid of a board as it is now.  Takes O(DIM^2) time.
+     *
+     * @param board the board
+     */
+    public BoardPyramid(PlaceBoard board) {
+        this.board = board;
+        int levels = 1;
+        for (int side = board.DIM; side > 1; side = (side + 1) / 2) {
+            levels++;
+        }
+        this.sides = new int[levels];
+        this.cells = new int[levels][];
+        this.sides[0] = board.DIM;
+        for (int level = 1; level < levels; level++) {
+            this.sides[level] = (this.sides[level - 1] + 1) / 2;
+            this.cells[level] = new int[this.sides[level] * this.sides[level]];
+        }
+        update(0, 0, board.DIM, board.DIM);
+    }
+
+    /**
+     * Get the color of a tile as a pixel.
+     *
+     * @param color the color
+     * @return the color as 0xAARRGGBB
+     */
+    public static int argb(PlaceColor color) {
+        return ARGB[color.getNumber()];
+    }
+
+    /**
+     * Get the board at level 0.
+     *
+     * @return the board
+     */
+    public PlaceBoard getBoard() {
+        return this.board;
+    }
+
+    /**
+     * Get the number of levels, the board being the first.
+     *
+     * @return the number of levels
+     */
+    public int getLevels() {
+        return this.sides.length;
+    }
+
+    /**
+     * Get the width and height of a level.
+     *
+     * @param level the level, 0 for the board
+     * @return the width and height, in cells
+     */
+    public int getSide(int level) {
+        return this.sides[level];
+    }
+
+    /**
+     * Get the color of a cell.
+     *
+     * @param level the level, 0 for the board
+     * @param row the row of the cell on its level
+     * @param col the column of the cell on its level
+     * @return the color as 0xAARRGGBB
+     * @rit.pre row and column are within the level
+     */
+    public int getArgb(int level, int row, int col) {
+        if (level == 0) {
+            return tileArgb(row, col);
+        }
+        return this.cells[level][row * this.sides[level] + col];
+    }
+
+    /**
+     * Get the color a tile is shown in.  A client may show tiles other
+     * than as the board has them, such as ones it has placed that the
+     * server has not yet confirmed; it then updates the cells above them
+     * as it would for a change to the board.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the color as 0xAARRGGBB
+     */
+    protected int tileArgb(int row, int col) {
+        return argb(this.board.getColor(row, col));
+    }
+
+    /**
+     * Recompute the cells above a tile that has changed on the board.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    public void update(int row, int col) {
+        for (int level = 1; level < this.sides.length; level++) {
+            row >>= 1;
+            col >>= 1;
+            average(level, row, col);
+        }
+    }
+
+    /**
+     * Recompute the cells above a region of tiles that has changed on the
+     * board.
+     *
+     * @param row the first row of the region
+     * @param col the first column of the region
+     * @param rows the height of the region
+     * @param cols the width of the region
+     */
+    public void update(int row, int col, int rows, int cols) {
+        int lastRow = Math.min(row + rows, this.sides[0]) - 1;
+        int lastCol = Math.min(col + cols, this.sides[0]) - 1;
+        if (row < 0 || col < 0 || lastRow < row || lastCol < col) {
+            return;
+        }
+        for (int level = 1; level < this.sides.length; level++) {
+            row >>= 1;
+            col >>= 1;
+            lastRow >>= 1;
+            lastCol >>= 1;
+            for (int r = row; r <= lastRow; r++) {
+                for (int c = col; c <= lastCol; c++) {
+                    average(level, r, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set a cell to the average color of the cells below it.  A cell on
+     * the right or bottom edge of an odd sized level has fewer below it.
+     *
+     * @param level the level of the cell, 1 or more
+     * @param row the row of the cell
+     * @param col the column of the cell
+     */
+    private void average(int level, int row, int col) {
+        int below = this.sides[level - 1];
+        int red = 0, green = 0, blue = 0, count = 0;
+        for (int r = row * 2; r < row * 2 + 2 && r < below; r++) {
+            for (int c = col * 2; c < col * 2 + 2 && c < below; c++) {
+                int argb = getArgb(level - 1, r, c);
+                red += argb >> 16 & 0xff;
+                green += argb >> 8 & 0xff;
+                blue += argb & 0xff;
+                count++;
+            }
+        }
+        this.cells[level][row * this.sides[level] + col] =
+                0xff000000 | red / count << 16 | green / count << 8 | blue / count;
+    }
+}
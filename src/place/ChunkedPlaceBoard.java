@@ -0,0 +1,238 @@
+package place;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A board for very large canvases that only keeps the parts that have been
+ * painted.  The board is cut into chunks of CHUNK x CHUNK tiles; a chunk's
+ * arrays are allocated by the first write to it, and a chunk never written
+ * reads as white tiles with no owner.  Memory and start up time therefore
+ * grow with the area painted rather than with the size of the canvas: a
+ * new 20k x 20k board is a few kilobytes, each row of chunks holding a
+ * painted tile adds a row of chunk references, and each chunk painted adds
+ * about 52 KB.
+ *
+ * The board can grow while it is in use.  Growing only copies the rows of
+ * chunk references; the new area takes no memory until it is painted.
+ *
+ * Inside a chunk cells are laid out like {@link PackedPlaceBoard}, about
+ * 12.5 bytes per tile.  As there, a returned tile is a copy.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class ChunkedPlaceBoard extends PlaceBoard {
+    /** Width and height of a chunk, in tiles; small enough that scattered
+     *  tiles do not each cost much */
+    public static final int CHUNK = 64;
+    /** Colors by number, so a nibble can be turned back into a color */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+    /** Color number of white, which unwritten chunks read as */
+    private static final int WHITE = PlaceColor.WHITE.getNumber();
+
+    /**
+     * The cells of one chunk, row by row within the chunk.
+     */
+    private static class Chunk implements Serializable {
+        /** Two 4 bit colors per byte; even cells use the low nibble */
+        final byte[] colors;
+        /** Owner id of every cell */
+        final int[] owners;
+        /** Time every cell was last changed */
+        final long[] times;
+
+        /**
+         * Create a chunk of white tiles with no owner.
+         */
+        Chunk() {
+            this.colors = new byte[CHUNK * CHUNK / 2];
+            Arrays.fill(this.colors, (byte) (WHITE << 4 | WHITE));
+            this.owners = new int[CHUNK * CHUNK];
+            this.times = new long[CHUNK * CHUNK];
+        }
+    }
+
+    /** The rows of chunks; null for a row or a chunk never written.
+     *  Replaced whole when the board grows */
+    private volatile Chunk[][] chunks;
+    /** Number of chunks allocated so far */
+    private int allocated;
+    /** Owner names for the ids in the chunks */
+    private OwnerDictionary dictionary;
+
+    /**
+     * Create a new chunked board of all white tiles.  No chunk is allocated
+     * until it is written.
+     *
+     * @param DIM the square dimension of the board
+     */
+    public ChunkedPlaceBoard(int DIM) {
+        super(DIM, null);
+        this.chunks = new Chunk[(DIM + CHUNK - 1) / CHUNK][];
+        this.dictionary = new OwnerDictionary();
+    }
+
+    /**
+     * Get the entire board.  This builds a tile for every cell of the
+     * canvas, painted or not, so it should only be used on small boards.
+     *
+     * @return a copy of the board
+     */
+    @Override
+    public PlaceTile[][] getBoard() {
+        PlaceTile[][] grid = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                grid[row][col] = getTile(row, col);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Get a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return a new tile holding the cell's current values
+     */
+    @Override
+    public PlaceTile getTile(int row, int col) {
+        Chunk chunk = chunkOf(this.chunks, row, col);
+        if (chunk == null) {
+            return new PlaceTile(row, col, this.dictionary.nameOf(OwnerDictionary.NO_OWNER), PlaceColor.WHITE, 0);
+        }
+        int cell = (row % CHUNK) * CHUNK + col % CHUNK;
+        return new PlaceTile(row, col,
+                this.dictionary.nameOf(chunk.owners[cell]),
+                COLORS[nibble(chunk, cell)],
+                chunk.times[cell]);
+    }
+
+    /**
+     * Get the color of a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    @Override
+    public PlaceColor getColor(int row, int col) {
+        Chunk chunk = chunkOf(this.chunks, row, col);
+        if (chunk == null) {
+            return PlaceColor.WHITE;
+        }
+        return COLORS[nibble(chunk, (row % CHUNK) * CHUNK + col % CHUNK)];
+    }
+
+    /**
+     * Change a tile in the board, allocating its chunk if this is the first
+     * write to it.  Two cells share each color byte, so writes are
+     * synchronized to keep a neighbour's nibble from being lost.
+     *
+     * @param tile the new tile
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    @Override
+    public synchronized void setTile(PlaceTile tile) {
+        Chunk[] row = this.chunks[tile.getRow() / CHUNK];
+        if (row == null) {
+            row = new Chunk[this.chunks.length];
+            this.chunks[tile.getRow() / CHUNK] = row;
+        }
+        Chunk chunk = row[tile.getCol() / CHUNK];
+        if (chunk == null) {
+            chunk = new Chunk();
+            row[tile.getCol() / CHUNK] = chunk;
+            this.allocated++;
+        }
+        int cell = (tile.getRow() % CHUNK) * CHUNK + tile.getCol() % CHUNK;
+        int color = tile.getColor().getNumber();
+        int packed = chunk.colors[cell >> 1];
+        if ((cell & 1) == 0) {
+            packed = (packed & 0xF0) | color;
+        } else {
+            packed = (packed & 0x0F) | (color << 4);
+        }
+        chunk.colors[cell >> 1] = (byte) packed;
+        chunk.owners[cell] = this.dictionary.idOf(tile.getOwner());
+        chunk.times[cell] = tile.getTime();
+    }
+
+    /**
+     * Tells whether a rectangle of the board lies wholly in chunks that
+     * have never been written, so every tile in it is white with no owner
+     * and need not be looked at one by one.
+     *
+     * @param row top row of the rectangle
+     * @param col leftmost column of the rectangle
+     * @param rows number of rows
+     * @param cols number of columns
+     * @rit.pre the rectangle lies on the board
+     * @return true if no tile in the rectangle was ever written
+     */
+    public boolean isBlank(int row, int col, int rows, int cols) {
+        Chunk[][] chunks = this.chunks;
+        for (int r = row / CHUNK; r <= (row + rows - 1) / CHUNK; ++r) {
+            for (int c = col / CHUNK; c <= (col + cols - 1) / CHUNK; ++c) {
+                if (chunks[r] != null && chunks[r][c] != null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grow the board to a larger dimension, keeping every tile where it is;
+     * the new tiles are white.  Only the rows of chunk references that
+     * exist are copied, so writes wait for no more than that, and no chunk
+     * is allocated for the new area.
+     *
+     * @param DIM the new square dimension of the board
+     */
+    @Override
+    public synchronized void expand(int DIM) {
+        if (DIM <= this.DIM) {
+            return;
+        }
+        int across = (DIM + CHUNK - 1) / CHUNK;
+        Chunk[][] grown = new Chunk[across][];
+        for (int row = 0; row < this.chunks.length; ++row) {
+            if (this.chunks[row] != null) {
+                grown[row] = Arrays.copyOf(this.chunks[row], across);
+            }
+        }
+        // the chunks go first, so a reader that sees the new size sees them too.
+        this.chunks = grown;
+        this.DIM = DIM;
+    }
+
+    /**
+     * Get the number of chunks that have been written and take memory.
+     *
+     * @return the number of allocated chunks
+     */
+    public synchronized int getAllocatedChunks() {
+        return this.allocated;
+    }
+
+    /**
+     * Finds the chunk holding a cell, or null if it was never written.
+     */
+    private static Chunk chunkOf(Chunk[][] chunks, int row, int col) {
+        Chunk[] chunkRow = chunks[row / CHUNK];
+        return chunkRow == null ? null : chunkRow[col / CHUNK];
+    }
+
+    /**
+     * Reads a cell's color number out of its chunk.
+     */
+    private static int nibble(Chunk chunk, int cell) {
+        int packed = chunk.colors[cell >> 1];
+        return (cell & 1) == 0 ? packed & 0xF : (packed >> 4) & 0xF;
+    }
+}
@@ -0,0 +1,290 @@
+package place;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A board whose cells live in a memory-mapped file rather than on the heap.
+ * The layout matches {@link PackedPlaceBoard}, with a plane each of packed
+ * colors, owner ids and timestamps, so a 16k x 16k board takes about 3.2 GB
+ * of file and next to no heap; the operating system's page cache decides
+ * which parts are resident.
+ *
+ * Colors are stored exclusive-or'd with white and a blank owner has id 0,
+ * so a new file is all zero bytes and can be created sparse, in no time.
+ * Reopening an existing file is just as quick, since nothing is read until
+ * it is used.  Owner names are appended to a small side file, named after
+ * the board file with ".owners" added, as they are first seen.
+ *
+ * Changes reach the file as soon as setTile returns and survive the server
+ * process dying; only a crash of the whole machine can lose pages the
+ * operating system had not yet written back.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class MappedPlaceBoard extends PlaceBoard implements Closeable {
+    /** Identifies a board file */
+    private static final int MAGIC = 0x504C4D42;
+    /** Layout version of the board file */
+    private static final int VERSION = 1;
+    /** Bytes before the first plane, and the alignment of every plane */
+    private static final long ALIGN = 4096;
+    /** Bytes in one mapped region; a single mapping cannot exceed 2 GB */
+    private static final int REGION_SHIFT = 30;
+    /** Mask for the offset within a region */
+    private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+    /** Colors by number, so a nibble can be turned back into a color */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+    /** Stored color nibbles are exclusive-or'd with this */
+    private static final int WHITE = PlaceColor.WHITE.getNumber();
+
+    /** The open board file */
+    private FileChannel channel;
+    /** Two 4 bit colors per byte; even cells use the low nibble */
+    private MappedByteBuffer[] colors;
+    /** Owner id of every cell, 4 bytes each */
+    private MappedByteBuffer[] owners;
+    /** Time every cell was last changed, 8 bytes each */
+    private MappedByteBuffer[] times;
+    /** Owner names for the ids in owners */
+    private OwnerDictionary dictionary;
+    /** Appends newly seen owner names to the side file */
+    private DataOutputStream names;
+
+    /**
+     * Opens a board file, creating it as a board of all white tiles if it
+     * does not exist.
+     *
+     * @param DIM the square dimension of the board
+     * @param file the board file
+     * @throws IOException if the file cannot be opened, or holds a board of
+     *         another size
+     */
+    public MappedPlaceBoard(int DIM, File file) throws IOException {
+        super(DIM, null);
+        long cells = (long) DIM * DIM;
+        long colorsAt = ALIGN;
+        long ownersAt = align(colorsAt + (cells + 1) / 2);
+        long timesAt = align(ownersAt + cells * 4);
+        long length = align(timesAt + cells * 8);
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (this.channel.size() == 0) {
+            MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, ALIGN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(DIM);
+            header.force();
+            // the planes are left as holes, which read back as zeros.
+            this.channel.write(ByteBuffer.allocate(1), length - 1);
+        } else {
+            MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, ALIGN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                this.channel.close();
+                throw new IOException(file + " is not a board file");
+            }
+            int dim = header.getInt();
+            if (dim != DIM || this.channel.size() < length) {
+                this.channel.close();
+                throw new IOException(file + " holds a " + dim + "x" + dim + " board, not " + DIM + "x" + DIM);
+            }
+        }
+        this.colors = map(colorsAt, (cells + 1) / 2);
+        this.owners = map(ownersAt, cells * 4);
+        this.times = map(timesAt, cells * 8);
+
+        this.dictionary = new OwnerDictionary();
+        File sideFile = new File(file.getPath() + ".owners");
+        if (sideFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sideFile)))) {
+                while (true) {
+                    this.dictionary.idOf(in.readUTF());
+                }
+            } catch (EOFException eof) {
+                // a name cut short by a crash is dropped; no cell refers to it yet.
+            }
+        }
+        this.names = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sideFile, true)));
+    }
+
+    /**
+     * Rounds a file offset up to the plane alignment.
+     */
+    private static long align(long offset) {
+        return (offset + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+    /**
+     * Maps a plane of the file as a run of regions of at most 1 GB.
+     */
+    private MappedByteBuffer[] map(long at, long length) throws IOException {
+        MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((length + REGION_MASK) >>> REGION_SHIFT)];
+        for (int i = 0; i < regions.length; ++i) {
+            long start = (long) i << REGION_SHIFT;
+            regions[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, at + start,
+                    Math.min(REGION_MASK + 1, length - start));
+        }
+        return regions;
+    }
+
+    /**
+     * Get the entire board.  This builds a new tile grid on every call, so
+     * it should only be used by code that really needs every tile at once.
+     *
+     * @return a copy of the board
+     */
+    @Override
+    public PlaceTile[][] getBoard() {
+        PlaceTile[][] grid = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                grid[row][col] = getTile(row, col);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Get a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return a new tile holding the cell's current values
+     */
+    @Override
+    public PlaceTile getTile(int row, int col) {
+        long cell = (long) row * DIM + col;
+        long owner = cell * 4;
+        long time = cell * 8;
+        return new PlaceTile(row, col,
+                this.dictionary.nameOf(this.owners[(int) (owner >>> REGION_SHIFT)].getInt((int) (owner & REGION_MASK))),
+                getColor(row, col),
+                this.times[(int) (time >>> REGION_SHIFT)].getLong((int) (time & REGION_MASK)));
+    }
+
+    /**
+     * Get the color of a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    @Override
+    public PlaceColor getColor(int row, int col) {
+        long cell = (long) row * DIM + col;
+        long index = cell >> 1;
+        int packed = this.colors[(int) (index >>> REGION_SHIFT)].get((int) (index & REGION_MASK));
+        return COLORS[((cell & 1) == 0 ? packed & 0xF : (packed >> 4) & 0xF) ^ WHITE];
+    }
+
+    /**
+     * Change a tile in the board.  Two cells share each color byte, so
+     * writes are synchronized to keep a neighbour's nibble from being lost.
+     *
+     * @param tile the new tile
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    @Override
+    public synchronized void setTile(PlaceTile tile) {
+        long cell = (long) tile.getRow() * DIM + tile.getCol();
+        long index = cell >> 1;
+        MappedByteBuffer region = this.colors[(int) (index >>> REGION_SHIFT)];
+        int at = (int) (index & REGION_MASK);
+        int color = tile.getColor().getNumber() ^ WHITE;
+        int packed = region.get(at);
+        if ((cell & 1) == 0) {
+            packed = (packed & 0xF0) | color;
+        } else {
+            packed = (packed & 0x0F) | (color << 4);
+        }
+        region.put(at, (byte) packed);
+
+        long owner = cell * 4;
+        long time = cell * 8;
+        this.owners[(int) (owner >>> REGION_SHIFT)].putInt((int) (owner & REGION_MASK), ownerId(tile.getOwner()));
+        this.times[(int) (time >>> REGION_SHIFT)].putLong((int) (time & REGION_MASK), tile.getTime());
+    }
+
+    /**
+     * Looks up the id of an owner, saving the name to the side file the
+     * first time it is seen so that the id means the same after a restart.
+     * Called with the board lock held.
+     */
+    private int ownerId(String name) {
+        int known = this.dictionary.size();
+        int id = this.dictionary.idOf(name);
+        if (id >= known) {
+            try {
+                this.names.writeUTF(name == null ? "" : name);
+                this.names.flush();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * A mapped board cannot grow; its file is laid out for one dimension.
+     *
+     * @param DIM the new square dimension of the board
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void expand(int DIM) {
+        throw new UnsupportedOperationException("A mapped board cannot grow");
+    }
+
+    /**
+     * Get the dictionary that owner ids on this board refer to.
+     *
+     * @return the owner dictionary
+     */
+    public OwnerDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * Writes every changed page back to the file and closes it.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer[] plane : new MappedByteBuffer[][] { this.colors, this.owners, this.times }) {
+            for (MappedByteBuffer region : plane) {
+                region.force();
+            }
+        }
+        this.names.close();
+        this.channel.close();
+    }
+
+    /**
+     * Serializes the board as a packed copy; the mappings themselves
+     * cannot be sent.
+     *
+     * @return a packed board holding the same cells
+     */
+    private Object writeReplace() {
+        int cells = DIM * DIM;
+        byte[] packed = new byte[(cells + 1) / 2];
+        int[] ids = new int[cells];
+        long[] stamps = new long[cells];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                int cell = row * DIM + col;
+                PlaceTile tile = getTile(row, col);
+                packed[cell >> 1] |= tile.getColor().getNumber() << ((cell & 1) << 2);
+                ids[cell] = this.dictionary.idOf(tile.getOwner());
+                stamps[cell] = tile.getTime();
+            }
+        }
+        return new PackedPlaceBoard(DIM, packed, ids, stamps, this.dictionary);
+    }
+}
@@ -0,0 +1,122 @@
+package place;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps tile owner names to small integer ids so that boards and messages can
+ * store an int per tile instead of a String reference.  Id 0 is always the
+ * empty owner of an untouched tile.  Ids are never reused or removed.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class OwnerDictionary implements Serializable {
+    /** The id of the empty owner "" */
+    public static final int NO_OWNER = 0;
+
+    /** Owner names, indexed by id */
+    private List<String> names;
+    /** Owner ids, keyed by name */
+    private Map<String, Integer> ids;
+
+    /**
+     * Create a dictionary holding only the empty owner.
+     */
+    public OwnerDictionary() {
+        this.names = new ArrayList<>();
+        this.ids = new HashMap<>();
+        idOf("");
+    }
+
+    /**
+     * Get the id of an owner, assigning a new one the first time the name
+     * is seen.
+     *
+     * @param name the owner name
+     * @return the owner id
+     */
+    public synchronized int idOf(String name) {
+        if (name == null) {
+            return NO_OWNER;
+        }
+        Integer id = this.ids.get(name);
+        if (id == null) {
+            id = this.names.size();
+            this.names.add(name);
+            this.ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Tells whether a name already has an id.
+     *
+     * @param name the owner name
+     * @return true if idOf(name) would not assign a new id
+     */
+    public synchronized boolean contains(String name) {
+        return name == null || this.ids.containsKey(name);
+    }
+
+    /**
+     * Record an id that was assigned by another dictionary, such as the
+     * server's, so that this one resolves it to the same name.
+     *
+     * @param id the owner id
+     * @param name the owner name
+     */
+    public synchronized void define(int id, String name) {
+        while (this.names.size() <= id) {
+            this.names.add(null);
+        }
+        this.names.set(id, name);
+        this.ids.put(name, id);
+    }
+
+    /**
+     * Tells whether an id has a name in this dictionary.
+     *
+     * @param id the owner id
+     * @return true if nameOf(id) will succeed
+     */
+    public synchronized boolean isDefined(int id) {
+        return id >= 0 && id < this.names.size() && this.names.get(id) != null;
+    }
+
+    /**
+     * Get the name of an owner.
+     *
+     * @param id the owner id
+     * @rit.pre id was returned by idOf
+     * @return the owner name
+     */
+    public synchronized String nameOf(int id) {
+        return this.names.get(id);
+    }
+
+    /**
+     * Get the number of owners known, including the empty owner.
+     *
+     * @return the number of owners
+     */
+    public synchronized int size() {
+        return this.names.size();
+    }
+
+    /**
+     * Writes the dictionary while holding its lock, so a board being sent
+     * can be serialized while new owners are added.
+     *
+     * @param out the stream
+     * @throws IOException if the stream fails
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+}
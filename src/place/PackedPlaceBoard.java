@@ -0,0 +1,300 @@
+package place;
+
+import java.util.Arrays;
+
+/**
+ * A board that keeps its cells in primitive arrays instead of one PlaceTile
+ * per coordinate.  Colors are packed two per byte, owners are stored as ids
+ * into an {@link OwnerDictionary} and timestamps live in a long array, for
+ * about 12.5 bytes per cell against roughly 44 for the tile grid.
+ *
+ * PlaceTile objects are created on demand by getTile, so callers see the same
+ * API as the plain board.  A returned tile is a copy; changing it does not
+ * change the board until it is passed back to setTile.
+ *
+ * Reads take no lock.  The arrays and the dimension they are laid out for
+ * are kept together in one Cells object, which expand replaces as a whole,
+ * so a reader racing a resize sees either the old board or the new one,
+ * never the new arrays indexed by the old dimension.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class PackedPlaceBoard extends PlaceBoard {
+    /** Colors by number, so a nibble can be turned back into a color */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /** The cells and the dimension they are laid out for; replaced by expand */
+    private volatile Cells cells;
+    /** Owner names for the ids in the cells */
+    private OwnerDictionary dictionary;
+
+    /**
+     * The cell arrays of one size of board.  Cells are changed in place,
+     * but the arrays and their dimension are never changed.
+     */
+    private static class Cells {
+        /** The square dimension the arrays are laid out for */
+        private final int dim;
+        /** Two 4 bit colors per byte; even cells use the low nibble */
+        private final byte[] colors;
+        /** Owner id of every cell */
+        private final int[] owners;
+        /** Time every cell was last changed */
+        private final long[] times;
+
+        /**
+         * Gather the arrays of a board.
+         *
+         * @param dim the square dimension of the board
+         * @param colors two 4 bit colors per byte, even cells in the low nibble
+         * @param owners owner id of every cell, row by row
+         * @param times time every cell was last changed, row by row
+         */
+        private Cells(int dim, byte[] colors, int[] owners, long[] times) {
+            this.dim = dim;
+            this.colors = colors;
+            this.owners = owners;
+            this.times = times;
+        }
+
+        /**
+         * Create the arrays of a board of all white tiles.
+         *
+         * @param dim the square dimension of the board
+         * @return the new cells
+         */
+        private static Cells white(int dim) {
+            int cells = dim * dim;
+            int white = PlaceColor.WHITE.getNumber();
+            byte[] colors = new byte[(cells + 1) / 2];
+            Arrays.fill(colors, (byte) (white << 4 | white));
+            return new Cells(dim, colors, new int[cells], new long[cells]);
+        }
+    }
+
+    /**
+     * Create a new packed board of all white tiles.
+     *
+     * @param DIM the square dimension of the board
+     */
+    public PackedPlaceBoard(int DIM) {
+        this(DIM, new OwnerDictionary());
+    }
+
+    /**
+     * Create a new packed board of all white tiles whose owner ids refer to
+     * an existing dictionary.
+     *
+     * @param DIM the square dimension of the board
+     * @param dictionary names for the owner ids that will be stored
+     */
+    public PackedPlaceBoard(int DIM, OwnerDictionary dictionary) {
+        super(DIM, null);
+        this.cells = Cells.white(DIM);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Create a packed board from cell arrays that were built elsewhere, for
+     * example decoded from the network.  The arrays are used, not copied.
+     *
+     * @param DIM the square dimension of the board
+     * @param colors two 4 bit colors per byte, even cells in the low nibble
+     * @param owners owner id of every cell, row by row
+     * @param times time every cell was last changed, row by row
+     * @param dictionary names for the ids in owners
+     */
+    public PackedPlaceBoard(int DIM, byte[] colors, int[] owners, long[] times,
+                            OwnerDictionary dictionary) {
+        super(DIM, null);
+        this.cells = new Cells(DIM, colors, owners, times);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Get the entire board.  This builds a new tile grid on every call and
+     * is as expensive as the plain board it replaces, so it should only be
+     * used by code that really needs every tile at once.
+     *
+     * @return a copy of the board
+     */
+    @Override
+    public PlaceTile[][] getBoard() {
+        Cells cells = this.cells;
+        PlaceTile[][] grid = new PlaceTile[cells.dim][cells.dim];
+        for (int row=0; row<cells.dim; ++row) {
+            for (int col=0; col<cells.dim; ++col) {
+                grid[row][col] = tile(cells, row, col);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Get a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return a new tile holding the cell's current values
+     */
+    @Override
+    public PlaceTile getTile(int row, int col) {
+        return tile(this.cells, row, col);
+    }
+
+    /**
+     * Build a tile from one set of cells, so that every value in it comes
+     * from the same size of board.
+     *
+     * @param cells the cells to read
+     * @param row row
+     * @param col column
+     * @return a new tile holding the cell's values
+     */
+    private PlaceTile tile(Cells cells, int row, int col) {
+        int cell = row * cells.dim + col;
+        return new PlaceTile(row, col,
+                this.dictionary.nameOf(cells.owners[cell]),
+                color(cells, cell),
+                cells.times[cell]);
+    }
+
+    /**
+     * Get the color of a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    @Override
+    public PlaceColor getColor(int row, int col) {
+        Cells cells = this.cells;
+        return color(cells, row * cells.dim + col);
+    }
+
+    /**
+     * Unpack the color of a cell.
+     *
+     * @param cells the cells to read
+     * @param cell the cell's index, row * dim + col
+     * @return the color
+     */
+    private static PlaceColor color(Cells cells, int cell) {
+        int packed = cells.colors[cell >> 1];
+        return COLORS[(cell & 1) == 0 ? packed & 0xF : (packed >> 4) & 0xF];
+    }
+
+    /**
+     * Change a tile in the board.  Two cells share each color byte, so
+     * writes are synchronized to keep a neighbour's nibble from being lost.
+     *
+     * @param tile the new tile
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    @Override
+    public synchronized void setTile(PlaceTile tile) {
+        Cells cells = this.cells;
+        int cell = tile.getRow() * cells.dim + tile.getCol();
+        int color = tile.getColor().getNumber();
+        int packed = cells.colors[cell >> 1];
+        if ((cell & 1) == 0) {
+            packed = (packed & 0xF0) | color;
+        } else {
+            packed = (packed & 0x0F) | (color << 4);
+        }
+        cells.colors[cell >> 1] = (byte) packed;
+        cells.owners[cell] = this.dictionary.idOf(tile.getOwner());
+        cells.times[cell] = tile.getTime();
+    }
+
+    /**
+     * Grow the board to a larger dimension, keeping every tile where it is;
+     * the new tiles are white.  Every cell moves to a new set of arrays, so
+     * this takes as long as reading the whole board.
+     *
+     * @param DIM the new square dimension of the board
+     */
+    @Override
+    public synchronized void expand(int DIM) {
+        Cells from = this.cells;
+        if (DIM <= from.dim) {
+            return;
+        }
+        Cells to = Cells.white(DIM);
+        for (int row = 0; row < from.dim; ++row) {
+            System.arraycopy(from.owners, row * from.dim, to.owners, row * DIM, from.dim);
+            System.arraycopy(from.times, row * from.dim, to.times, row * DIM, from.dim);
+            for (int col = 0; col < from.dim; ++col) {
+                int src = row * from.dim + col;
+                int dst = row * DIM + col;
+                int color = (from.colors[src >> 1] >> ((src & 1) << 2)) & 0xF;
+                int old = to.colors[dst >> 1];
+                to.colors[dst >> 1] = (byte) ((dst & 1) == 0
+                        ? (old & 0xF0) | color
+                        : (old & 0x0F) | (color << 4));
+            }
+        }
+        // the cells go first, so a reader that sees the new size can use it.
+        this.cells = to;
+        this.DIM = DIM;
+    }
+
+    /**
+     * Set the colors of a rectangle of cells at once, as when a board
+     * arrives in chunks.  Owners and times are left alone.
+     *
+     * @param row top row of the rectangle
+     * @param col leftmost column of the rectangle
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param packed the rectangle's colors row by row, two 4 bit colors
+     *               per byte with even cells in the low nibble
+     * @rit.pre the rectangle lies on the board
+     */
+    public synchronized void setColors(int row, int col, int rows, int cols, byte[] packed) {
+        Cells cells = this.cells;
+        int i = 0;
+        for (int r = row; r < row + rows; ++r) {
+            for (int c = col; c < col + cols; ++c, ++i) {
+                int color = (packed[i >> 1] >> ((i & 1) << 2)) & 0xF;
+                int cell = r * cells.dim + c;
+                int old = cells.colors[cell >> 1];
+                cells.colors[cell >> 1] = (byte) ((cell & 1) == 0
+                        ? (old & 0xF0) | color
+                        : (old & 0x0F) | (color << 4));
+            }
+        }
+    }
+
+    /**
+     * Set the owners and times of a rectangle of cells at once, as when a
+     * board arrives in chunks.  Colors are left alone.
+     *
+     * @param row top row of the rectangle
+     * @param col leftmost column of the rectangle
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param ids the rectangle's owner ids row by row
+     * @param stamps the rectangle's times row by row
+     * @rit.pre the rectangle lies on the board and every id is defined
+     */
+    public synchronized void setOwners(int row, int col, int rows, int cols, int[] ids, long[] stamps) {
+        Cells cells = this.cells;
+        for (int r = 0; r < rows; ++r) {
+            System.arraycopy(ids, r * cols, cells.owners, (row + r) * cells.dim + col, cols);
+            System.arraycopy(stamps, r * cols, cells.times, (row + r) * cells.dim + col, cols);
+        }
+    }
+
+    /**
+     * Get the dictionary that owner ids on this board refer to.
+     *
+     * @return the owner dictionary
+     */
+    public OwnerDictionary getDictionary() {
+        return this.dictionary;
+    }
+}
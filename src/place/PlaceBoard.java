@@ -1,6 +1,7 @@
 package place;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Observable;
 
 /**
@@ -11,8 +12,8 @@ import java.util.Observable;
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
-    /** The square dimension of the board */
-    public final int DIM;
+    /** The square dimension of the board; it only changes when the board is expanded */
+    public volatile int DIM;
     /** The grid of tiles */
     private PlaceTile[][] board;
 
@@ -32,6 +33,19 @@ public class PlaceBoard implements Serializable {
         }
     }
 
+    /**
+     * Create a board that keeps its cells somewhere other than the tile
+     * grid.  Subclasses using this constructor must override every method
+     * that touches the grid.
+     *
+     * @param DIM the square dimension of the board
+     * @param board the tile grid, or null if the subclass stores cells itself
+     */
+    protected PlaceBoard(int DIM, PlaceTile[][] board) {
+        this.DIM = DIM;
+        this.board = board;
+    }
+
     /**
      * Get the entire board.
      *
@@ -53,6 +67,19 @@ public class PlaceBoard implements Serializable {
         return this.board[row][col];
     }
 
+    /**
+     * Get the color of a tile on the board without touching the rest of
+     * the tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return this.board[row][col].getColor();
+    }
+
     /**
      * Change a tile in the board.
      *
@@ -63,6 +90,31 @@ public class PlaceBoard implements Serializable {
         this.board[tile.getRow()][tile.getCol()] = tile;
     }
 
+    /**
+     * Grow the board to a larger dimension, keeping every tile where it is;
+     * the new tiles are white.  A dimension no larger than the current one
+     * changes nothing.  Must not be called while another thread changes the
+     * board.
+     *
+     * @param DIM the new square dimension of the board
+     */
+    public void expand(int DIM) {
+        if (DIM <= this.DIM) {
+            return;
+        }
+        PlaceTile[][] grid = new PlaceTile[DIM][];
+        for (int row=0; row<DIM; ++row) {
+            int kept = row < this.DIM ? this.DIM : 0;
+            grid[row] = kept > 0 ? Arrays.copyOf(this.board[row], DIM) : new PlaceTile[DIM];
+            for (int col=kept; col<DIM; ++col) {
+                grid[row][col] = new PlaceTile(row, col, "", PlaceColor.WHITE);
+            }
+        }
+        // the grid goes first, so a reader that sees the new size sees it too.
+        this.board = grid;
+        this.DIM = DIM;
+    }
+
     /**
      * Tells whether the coordinates of the tile are valid or not
      * @param tile the tile
@@ -87,7 +139,7 @@ public class PlaceBoard implements Serializable {
         for (int row=0; row<DIM; ++row) {
             builder.append("\n");
             for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
+                builder.append(getColor(row, col));
             }
         }
         return builder.toString();
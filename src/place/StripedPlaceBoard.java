@@ -0,0 +1,193 @@
+package place;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A board that many threads can change at once.  The board is cut into
+ * regions of REGION x REGION tiles, each with a lock of its own, so writes
+ * to different regions never wait for each other.  Cells are kept in
+ * primitive arrays like {@link PackedPlaceBoard}, but with a whole byte of
+ * color per cell so that no two regions share a byte.
+ *
+ * A reader never sees half a change: getTile reads a cell without locking,
+ * then checks that no write to its region happened meanwhile, and only
+ * takes the region's lock if one did.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class StripedPlaceBoard extends PlaceBoard {
+    /** Width and height of a locked region, in tiles */
+    public static final int REGION = 64;
+    /** Colors by number, so a byte can be turned back into a color */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /** Color number of every cell */
+    private byte[] colors;
+    /** Owner id of every cell */
+    private int[] owners;
+    /** Time every cell was last changed */
+    private long[] times;
+    /** Owner names for the ids in owners */
+    private OwnerDictionary dictionary;
+    /** Ids already given out by the dictionary, read without its lock */
+    private Map<String, Integer> ids;
+    /** One lock per region, row by row */
+    private StampedLock[] locks;
+    /** Number of regions across the board */
+    private int across;
+
+    /**
+     * Create a new striped board of all white tiles.
+     *
+     * @param DIM the square dimension of the board
+     */
+    public StripedPlaceBoard(int DIM) {
+        super(DIM, null);
+        int cells = DIM * DIM;
+        this.colors = new byte[cells];
+        Arrays.fill(this.colors, (byte) PlaceColor.WHITE.getNumber());
+        this.owners = new int[cells];
+        this.times = new long[cells];
+        this.dictionary = new OwnerDictionary();
+        this.ids = new ConcurrentHashMap<>();
+        this.across = (DIM + REGION - 1) / REGION;
+        this.locks = new StampedLock[this.across * this.across];
+        for (int i = 0; i < this.locks.length; ++i) {
+            this.locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Get the entire board.  This builds a new tile grid on every call, so
+     * it should only be used by code that really needs every tile at once.
+     *
+     * @return a copy of the board
+     */
+    @Override
+    public PlaceTile[][] getBoard() {
+        PlaceTile[][] grid = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                grid[row][col] = getTile(row, col);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Get a tile on the board.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return a new tile holding the cell's current values
+     */
+    @Override
+    public PlaceTile getTile(int row, int col) {
+        int cell = row * DIM + col;
+        StampedLock lock = lockOf(row, col);
+        long stamp = lock.tryOptimisticRead();
+        int color = this.colors[cell];
+        int owner = this.owners[cell];
+        long time = this.times[cell];
+        if (!lock.validate(stamp)) {
+            // a write to the region got in; read again under the lock.
+            stamp = lock.readLock();
+            try {
+                color = this.colors[cell];
+                owner = this.owners[cell];
+                time = this.times[cell];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return new PlaceTile(row, col, this.dictionary.nameOf(owner), COLORS[color], time);
+    }
+
+    /**
+     * Get the color of a tile on the board.  A color is a single byte, so
+     * it is always read whole without locking.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    @Override
+    public PlaceColor getColor(int row, int col) {
+        return COLORS[this.colors[row * DIM + col]];
+    }
+
+    /**
+     * Change a tile in the board, waiting only for other writes to the
+     * same region.
+     *
+     * @param tile the new tile
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    @Override
+    public void setTile(PlaceTile tile) {
+        setTile(tile, null);
+    }
+
+    /**
+     * Change a tile in the board and, before any other write to its region
+     * can happen, run an action; the server numbers each change this way so
+     * that changes to one tile are numbered in the order they were made.
+     *
+     * @param tile the new tile
+     * @param then run with the region still locked, or null
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    public void setTile(PlaceTile tile, Runnable then) {
+        int cell = tile.getRow() * DIM + tile.getCol();
+        // looked up first, as a new name waits for the dictionary's lock.
+        int owner = tile.getOwner() == null ? OwnerDictionary.NO_OWNER
+                : this.ids.computeIfAbsent(tile.getOwner(), this.dictionary::idOf);
+        StampedLock lock = lockOf(tile.getRow(), tile.getCol());
+        long stamp = lock.writeLock();
+        try {
+            this.colors[cell] = (byte) tile.getColor().getNumber();
+            this.owners[cell] = owner;
+            this.times[cell] = tile.getTime();
+            if (then != null) {
+                then.run();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * A striped board cannot grow; its locks and arrays are sized for good
+     * when it is made.
+     *
+     * @param DIM the new square dimension of the board
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void expand(int DIM) {
+        throw new UnsupportedOperationException("A striped board cannot grow");
+    }
+
+    /**
+     * Finds the lock of the region holding a cell.
+     */
+    private StampedLock lockOf(int row, int col) {
+        return this.locks[(row / REGION) * this.across + col / REGION];
+    }
+
+    /**
+     * Sends a plain board in this one's place when it is serialized, so old
+     * clients read a consistent copy of every tile.
+     *
+     * @return a tile grid board holding the same tiles
+     */
+    private Object writeReplace() {
+        return new PlaceBoard(DIM, getBoard());
+    }
+}
@@ -2,13 +2,18 @@ package place.bots;
 
 import place.PlaceBoard;
 import place.PlaceColor;
+import place.PlaceException;
 import place.PlaceTile;
 import place.network.PlaceRequest;
+import place.network.PlaceSession;
+import place.network.PlacementResults;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Fatherbot is the superclass for all bots. It creates the connection to the server as well as manages tile placement.
@@ -18,31 +23,39 @@ import java.net.Socket;
  */
 public class FatherBot {
 
+    /**
+     * Most tiles sent in one CHANGE_TILES request, the most a server takes by default
+     */
+    private static final int BULK_SIZE = 1024;
+
+    /**
+     * How long to wait for the server to answer a CHANGE_TILES request (in milliseconds)
+     */
+    private static final long RESULT_TIMEOUT = 10000;
+
     /**
      * Username of this bot
      */
     private String username;
 
     /**
-     * Server socket connection
+     * Login to the server, which reconnects if the connection drops
      */
-    private Socket serverConn;
+    private PlaceSession session;
 
     /**
-     * Outputstream from the server
+     * The bot's copy of the board, kept up to date by a listener thread
      */
-    private ObjectOutputStream outputStream;
+    private volatile PlaceBoard board;
 
     /**
-     * Inputstream from the server
+     * Answers to CHANGE_TILES requests, handed from the listener thread to placeTiles
      */
-    private ObjectInputStream inputStream;
-
-    private PlaceBoard board;
+    private BlockingQueue<PlacementResults> results = new LinkedBlockingQueue<>();
 
     /**
      * This will connect to a server, provide the server with a username and then see if the server accepts it. If so,
-     * it will also recieve a board.
+     * it will also recieve a board, and start a thread that keeps the board up to date.
      *
      * @param hostname hostname of the server
      * @param port port of the server
@@ -50,38 +63,46 @@ public class FatherBot {
      */
     public FatherBot(String hostname, int port, String username){
         this.username = username;
+        this.session = new PlaceSession(hostname, port, username);
 
-        try{
-            serverConn = new Socket(hostname, port);
-            outputStream = new ObjectOutputStream(serverConn.getOutputStream());
-        } catch(IOException IOE){
-            IOE.printStackTrace();
-        }
-
-
-        PlaceRequest<String> sendUser = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username);
         try {
-            outputStream.writeUnshared(sendUser);
-            outputStream.flush();
+            board = session.login();
+            // bots work from the whole board, so wait for every chunk of it.
+            while (!session.isBoardComplete()) {
+                session.receive();
+            }
+        } catch (PlaceException PE) {
+            System.err.println(PE.getMessage());
+            System.exit(1);
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
 
-        try {
-            inputStream = new ObjectInputStream(serverConn.getInputStream());
-            PlaceRequest<?> confirmConnect = (PlaceRequest<?>) inputStream.readUnshared();
-            if (confirmConnect.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS) {
-                System.out.println("Login Success : " + confirmConnect.getData());
-                PlaceRequest<?> boardRequest = (PlaceRequest<?>) inputStream.readUnshared();
-                if (boardRequest.getType() == PlaceRequest.RequestType.BOARD) {
-                    board = (PlaceBoard) boardRequest.getData();
+        Thread listener = new Thread(this::listen, username + "-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    /**
+     * Applies tile changes from the server to the bot's board, and replaces the board if the server sends a new one
+     * after a reconnect. Runs until the server cannot be reached again
+     */
+    private void listen(){
+        while(true) {
+            try {
+                PlaceRequest<?> serverUpdate = session.receive();
+                if (serverUpdate.getType() == PlaceRequest.RequestType.TILE_CHANGED) {
+                    board.setTile((PlaceTile) serverUpdate.getData());
+                } else if (serverUpdate.getType() == PlaceRequest.RequestType.BOARD) {
+                    board = (PlaceBoard) serverUpdate.getData();
+                } else if (serverUpdate.getType() == PlaceRequest.RequestType.TILES_RESULT) {
+                    results.add((PlacementResults) serverUpdate.getData());
                 }
-            } else if (confirmConnect.getType() == PlaceRequest.RequestType.ERROR) {
-                System.err.println("Login unsuccessful : " + confirmConnect.getData());
-                System.exit(1);
+            } catch (IOException e) {
+                System.err.println("Disconnected from the server : " + e.getMessage());
+                return;
             }
-        } catch(IOException | ClassNotFoundException e){
-                e.printStackTrace();
         }
     }
 
@@ -97,8 +118,75 @@ public class FatherBot {
         PlaceColor placeColor = PlaceColor.values()[colorInt];
         PlaceTile tile = new PlaceTile(row, col, username, placeColor ,System.currentTimeMillis());
         PlaceRequest<PlaceTile> tileRequest = new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile);
-        outputStream.writeUnshared(tileRequest);
-        outputStream.flush();
+        session.send(tileRequest);
+    }
+
+    /**
+     * Places many tiles with as few requests as possible, and waits for the server to say which were placed. Batches
+     * are spaced out by the server's cooldown, and one sent too soon is sent again once it is over. Only
+     * the row, column and color of each tile are used; they are placed under this bot's username. A server that
+     * does not take batches is sent the tiles one at a time instead
+     * @param tiles the tiles to place
+     * @return whether each tile was placed, in the order given, or null if the server does not say
+     * @throws IOException if the server is not connected or does not answer
+     */
+    public PlacementResults placeTiles(List<PlaceTile> tiles) throws IOException {
+        if (!session.canPlaceTiles()) {
+            for (PlaceTile tile : tiles) {
+                placeTile(tile.getRow(), tile.getCol(), tile.getColor().toString());
+            }
+            return null;
+        }
+
+        PlacementResults all = new PlacementResults(tiles.size());
+        // an answer that came too late for an earlier call is of no use now.
+        results.clear();
+        for (int start = 0; start < tiles.size(); start += BULK_SIZE) {
+            ArrayList<PlaceTile> batch = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (PlaceTile tile : tiles.subList(start, Math.min(tiles.size(), start + BULK_SIZE))) {
+                batch.add(new PlaceTile(tile.getRow(), tile.getCol(), username, tile.getColor(), now));
+            }
+            session.send(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILES, batch));
+
+            PlacementResults answer;
+            try {
+                answer = results.poll(RESULT_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (answer == null) {
+                    throw new IOException("The server did not answer a batch of " + batch.size() + " tiles");
+                }
+                boolean refused = isCoolingDown(answer);
+                if (refused || start + BULK_SIZE < tiles.size()) {
+                    Thread.sleep(answer.getWait());
+                }
+                if (refused) {
+                    // sent too soon; send the same batch again.
+                    start -= BULK_SIZE;
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the server");
+            }
+            for (int i = 0; i < answer.size(); i++) {
+                all.set(start + i, answer.get(i));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Checks whether the server refused a batch because this bot placed too recently
+     * @param answer the server's answer to the batch
+     * @return true if the batch must be sent again
+     */
+    private static boolean isCoolingDown(PlacementResults answer) {
+        for (int i = 0; i < answer.size(); i++) {
+            if (answer.get(i) == PlacementResults.Outcome.COOLDOWN) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
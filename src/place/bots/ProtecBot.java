@@ -1,8 +1,11 @@
 package place.bots;
 
 import place.PlaceTile;
+import place.network.PlacementResults;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * He protec
@@ -66,12 +69,19 @@ public class ProtecBot extends FatherBot{
     private void loop(){
         while(true) {
             try {
+                // only tiles that have been changed need placing again, and they all go in one batch.
+                List<PlaceTile> changed = new ArrayList<>();
                 for (PlaceTile[] aProtecArea : protecArea) {
                     for (PlaceTile anAProtecArea : aProtecArea) {
-                        System.out.println(anAProtecArea.getRow() + " " + anAProtecArea.getCol() + " " + anAProtecArea.getColor().toString());
-                        placeTile(anAProtecArea.getRow(), anAProtecArea.getCol(), anAProtecArea.getColor().toString());
+                        if (getBoard().getColor(anAProtecArea.getRow(), anAProtecArea.getCol()) != anAProtecArea.getColor()) {
+                            changed.add(anAProtecArea);
+                        }
                     }
                 }
+                if (!changed.isEmpty()) {
+                    PlacementResults results = placeTiles(changed);
+                    System.out.println("Restored " + (results == null ? changed.size() : results.getAccepted()) + " tiles");
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -1,10 +1,13 @@
 package place.client.gui;
 
+import place.PlaceBoard;
 import place.PlaceTile;
+import place.network.BoardRegion;
 import place.network.PlaceRequest;
+import place.network.PlacementResults;
+import place.network.PlaceSession;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 /**
  * This class creates a separate thread from the GUI to wait for input from the server
@@ -15,9 +18,9 @@ import java.io.ObjectInputStream;
 public class GUIServerListener extends Thread {
 
     /**
-     * Input stream from the server
+     * Login to the server
      */
-    private ObjectInputStream inputStream;
+    private PlaceSession session;
 
     /**
      * The client that is connected to the server
@@ -31,32 +34,57 @@ public class GUIServerListener extends Thread {
 
     /**
      * Create a thread to listen for input from the server
-     * @param inputStream Inputstream from the server
+     * @param session Login to the server
      * @param gui The client that is connected to the server
      */
-    GUIServerListener(ObjectInputStream inputStream, PlaceGUI gui){
-        this.inputStream = inputStream;
+    GUIServerListener(PlaceSession session, PlaceGUI gui){
+        this.session = session;
         this.gui = gui;
         this.running = true;
     }
 
     /**
      * This is the core loop of the GUIServerListener class. While running, it will listen for tile changes or errors
-     * from the server and update its specific client
+     * from the server and queue them for the GUI to draw with its next frame, never waiting for the GUI. Tiles the
+     * user placed are confirmed by their tile change, or rolled back if the server refuses them. A new board
+     * replaces the old one if the server could not catch the client up after a reconnect, and the board is drawn
+     * again when the server grows it
      */
     public void run(){
         while(running){
             try {
-                PlaceRequest<?> serverUpdate = (PlaceRequest<?>) inputStream.readUnshared();
+                PlaceRequest<?> serverUpdate = session.receive();
                 if(serverUpdate.getType() == PlaceRequest.RequestType.TILE_CHANGED){
                     PlaceTile updatedTile = (PlaceTile) serverUpdate.getData();
-                    System.out.println(updatedTile);
                     gui.board.setTile(updatedTile);
-                    gui.updateBoardColors(updatedTile);
+                    gui.placements.tileChanged(updatedTile);
+                    gui.tileChanged(updatedTile);
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.BOARD){
+                    gui.replaceBoard((PlaceBoard) serverUpdate.getData());
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.BOARD_REGION){
+                    gui.drawRegion((BoardRegion) serverUpdate.getData());
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.BOARD_EXPANDED){
+                    // the board has already grown; only the drawing has to catch up.
+                    gui.resizeBoard();
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.TILES_RESULT){
+                    PlacementResults results = (PlacementResults) serverUpdate.getData();
+                    PlaceTile refused = gui.placements.resultsReceived(results);
+                    if(refused != null){
+                        System.out.println("Tile not placed : " + results.get(0) + ", wait " + results.getWait() + " ms");
+                        gui.tileChanged(refused);
+                    }
                 } else if(serverUpdate.getType() == PlaceRequest.RequestType.ERROR){
                     System.out.println("Error in game loop : " + serverUpdate.getData());
+                    PlaceTile refused = gui.placements.errorReceived();
+                    if(refused != null){
+                        gui.tileChanged(refused);
+                    }
+                }
+            } catch(IOException IOE) {
+                if(running){
+                    System.out.println("Disconnected from the server : " + IOE.getMessage());
+                    running = false;
                 }
-            } catch(IOException | ClassNotFoundException IOE) {
             }
         }
     }
@@ -1,29 +1,32 @@
 package place.client.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.Tooltip;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
-import javafx.scene.shape.Rectangle;
-import javafx.stage.Stage;
 import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import place.BoardPyramid;
 import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceException;
 import place.PlaceTile;
-import place.network.PlaceRequest;
+import place.network.BoardRegion;
+import place.network.PendingPlacements;
+import place.network.PlaceSession;
 
 import javax.swing.*;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.Calendar;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * The GUI_client class creates a graphical user interface for the user to view and change a board provided by a server.
@@ -38,6 +41,36 @@ public class PlaceGUI extends Application {
      */
     private static final int SCALE = 2;
 
+    /**
+     * The most queued changes drawn in one frame, so that a flood of them cannot hold up the FX thread
+     */
+    private static final int MAX_CHANGES_PER_FRAME = 65536;
+
+    /**
+     * The most screen pixels one tile is drawn with when zoomed in
+     */
+    private static final double MAX_ZOOM = 64;
+
+    /**
+     * How much one notch of the mouse wheel zooms in or out
+     */
+    private static final double ZOOM_STEP = 1.25;
+
+    /**
+     * The color of the canvas around the board, where the board does not fill it
+     */
+    private static final Color BACKGROUND = Color.GRAY;
+
+    /**
+     * The width and height of the overview of the whole board shown in a corner while zoomed in, in screen pixels
+     */
+    private static final int OVERVIEW_SIZE = 160;
+
+    /**
+     * The gap between the overview and the edges of the canvas, in screen pixels
+     */
+    private static final int OVERVIEW_MARGIN = 10;
+
     /**
      * An integer to hold which color is currently selected. Default is black
      */
@@ -46,17 +79,86 @@ public class PlaceGUI extends Application {
     /**
      * A clientside board that is only changed with permission from the server
      */
-    PlaceBoard board;
+    volatile PlaceBoard board;
+
+    /**
+     * The colors of the board shrunk by half again and again, which the view and the overview are drawn from when
+     * zoomed out. Kept up to date on the FX thread as changes are drawn
+     */
+    private BoardPyramid pyramid;
+
+    /**
+     * The part of the board in view, the row across and the column down, with one pixel per cell of the pyramid
+     * level being shown. It is scaled onto the canvas every frame that something in view has changed
+     */
+    private WritableImage image;
+
+    /**
+     * The tile at the top left corner of the top left pixel of the image
+     */
+    private int imageRow, imageCol;
+
+    /**
+     * The pyramid level the image is drawn from; each pixel stands for a square of 2^level tiles
+     */
+    private int level;
+
+    /**
+     * The whole board, one pixel per cell of the pyramid level that fits in OVERVIEW_SIZE
+     */
+    private WritableImage overview;
+
+    /**
+     * The pyramid level the overview is drawn from
+     */
+    private int overviewLevel;
+
+    /**
+     * Screen pixels per tile
+     */
+    private double zoom;
+
+    /**
+     * The tile, in fractions of a tile, at the top left corner of the canvas; negative when the board is smaller
+     * than the canvas and centered in it
+     */
+    private double viewRow, viewCol;
+
+    /**
+     * The size of the board the view was last fitted to
+     */
+    private int viewDim;
+
+    /**
+     * Set when the view has moved or zoomed, so the image is filled again with the next frame
+     */
+    private boolean viewChanged;
+
+    /**
+     * Set when the image has changed, so it is drawn onto the canvas with the next frame
+     */
+    private boolean dirty;
+
+    /**
+     * The tiles the server sends changes for, a margin around the view, or null for the whole board
+     */
+    private BoardRegion subscribed;
 
     /**
-     * A 2D array of rectangles used to display the client side board in the GUI
+     * Where the mouse was when it last dragged the view
      */
-    private Rectangle[][] GUI_board;
+    private double dragX, dragY;
 
     /**
-     * The dimensions of the board (length * width)
+     * Changes from the server waiting to be drawn, in the order they arrived: a PlaceTile to draw in its color, or
+     * a BoardRegion to draw again from the board. The listener thread adds to it without waiting for the GUI
      */
-    private int dim;
+    private final ConcurrentLinkedQueue<Object> changes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Draws the queued changes once per frame on the FX thread
+     */
+    private AnimationTimer frames;
 
     /**
      * The canvas that the board is drawn onto
@@ -74,19 +176,15 @@ public class PlaceGUI extends Application {
     private Button[] colorButton;
 
     /**
-     * The connection to the server on the provided hostname and port
-     */
-    private Socket serverConn;
-
-    /**
-     * The output stream to the server
+     * The login to the server on the provided hostname and port, which
+     * reconnects if the connection drops
      */
-    private ObjectOutputStream outputStream;
+    private PlaceSession session;
 
     /**
-     * The input stream from the server
+     * Tiles this user has placed that the server has not yet confirmed, drawn over the board straight away
      */
-    private ObjectInputStream inputStream;
+    PendingPlacements placements;
 
     /**
      * A thread that handles input from the server
@@ -116,7 +214,22 @@ public class PlaceGUI extends Application {
         colorButton = new Button[PlaceColor.TOTAL_COLORS];
 
         canvas = new Canvas(400 * SCALE, 400 * SCALE);
-        canvas.setOnMouseClicked(event -> canvasClicked(event.getScreenX(), event.getScreenY(), event.getX(), event.getY()));
+        canvas.setOnMouseClicked(event -> {
+            // a click that ends a drag only moves the view, and one on the overview moves it there
+            if (!event.isStillSincePress()) {
+                return;
+            }
+            if (isOverviewShown() && overviewClicked(event.getX(), event.getY())) {
+                return;
+            }
+            canvasClicked(event.getScreenX(), event.getScreenY(), event.getX(), event.getY());
+        });
+        canvas.setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        canvas.setOnMouseDragged(event -> drag(event.getX(), event.getY()));
+        canvas.setOnScroll(event -> zoom(event.getX(), event.getY(), event.getDeltaY()));
 
         tooltip = new Tooltip("");
         tooltip.setHideOnEscape(true);
@@ -125,14 +238,15 @@ public class PlaceGUI extends Application {
         canvas.setOnMouseEntered(event -> tooltip.setOpacity(1));
         canvas.setOnMouseExited(event -> tooltip.setOpacity(0));
 
-        GUI_board = new Rectangle[(int) Math.sqrt(dim)][(int) Math.sqrt(dim)];
-        selected = 3;
-        for (int r = 0; r < Math.sqrt(dim); r++) {
-            for (int c = 0; c < Math.sqrt(dim); c++) {
-                updateBoardColors(board.getTile(r, c));
+        newPyramid();
+        fitView();
+        frames = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drawChanges();
             }
-        }
-        selected = 0;
+        };
+        frames.start();
 
         PlaceColor[] colors = PlaceColor.values();
         for (int i = 0; i < PlaceColor.TOTAL_COLORS; i++) {
@@ -155,7 +269,7 @@ public class PlaceGUI extends Application {
         mainStage.setResizable(false);
         mainStage.show();
 
-        listener = new GUIServerListener(inputStream, this);
+        listener = new GUIServerListener(session, this);
         listener.start();
     }
 
@@ -173,8 +287,12 @@ public class PlaceGUI extends Application {
      * @param y y-coordinate of the mouse on the canvas
      */
     private void setTooltip(double screenX, double screenY, double x, double y){
-        int r = (int) (x / (canvas.getWidth() / Math.sqrt(dim)));
-        int c = (int) (y / (canvas.getWidth() / Math.sqrt(dim)));
+        int r = rowAt(x);
+        int c = colAt(y);
+        if (r < 0 || c < 0 || r >= board.DIM || c >= board.DIM) {
+            tooltip.hide();
+            return;
+        }
 
         String tileName = board.getTile(r, c).getOwner();
         String tileColor = board.getTile(r, c).getColor().toString();
@@ -190,6 +308,10 @@ public class PlaceGUI extends Application {
                 "owner: " + tileName + "\n" +
                 "color: " + tileColor + "\n" +
                 "time: " + tileTime;
+        PlaceColor pending = placements.getColor(r, c);
+        if (pending != null) {
+            tooltipMsg += "\n" + "placing: " + pending;
+        }
         tooltip.setText(tooltipMsg);
         tooltip.show(canvas, screenX + 25, screenY + 25);
     }
@@ -199,12 +321,10 @@ public class PlaceGUI extends Application {
      * Then end the program
      */
     private void close(){
+        frames.stop();
         listener.kill();
-        try {
-            serverConn.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        session.close();
+        System.out.println(placements);
         System.exit(0);
     }
 
@@ -220,39 +340,19 @@ public class PlaceGUI extends Application {
         } catch(PlaceException PE){
             PE.printStackTrace();
         }
+        // the canvas is optional; without it the server's default is used.
+        session = new PlaceSession(host, Integer.parseInt(port), username,
+                super.getParameters().getNamed().getOrDefault("canvas", ""));
+        placements = new PendingPlacements(session);
         try {
-            serverConn = new Socket(host, Integer.parseInt(port));
-            outputStream = new ObjectOutputStream(serverConn.getOutputStream());
-            outputStream.flush();
+            board = session.login();
+        } catch(PlaceException PE){
+            System.err.println(PE.getMessage());
+            JOptionPane.showMessageDialog(null, PE.getMessage());
+            System.exit(1);
         } catch(IOException IOE){
             IOE.printStackTrace();
         }
-        PlaceRequest<String> sendUser = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username);
-        try {
-            outputStream.writeUnshared(sendUser);
-            outputStream.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            inputStream = new ObjectInputStream(serverConn.getInputStream());
-            PlaceRequest<?> confirmConnect = (PlaceRequest<?>) inputStream.readUnshared();
-            if(confirmConnect.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS){
-                System.out.println("Login Success : " + confirmConnect.getData());
-                PlaceRequest<?> boardRequest = (PlaceRequest<?>) inputStream.readUnshared();
-                if(boardRequest.getType() == PlaceRequest.RequestType.BOARD){
-                    board = (PlaceBoard)boardRequest.getData();
-                    dim = board.getBoard().length * board.getBoard().length;
-                }
-            } else if(confirmConnect.getType() == PlaceRequest.RequestType.ERROR){
-                System.err.println("Login unsuccessful : " + confirmConnect.getData());
-                JOptionPane.showMessageDialog(null,"Login unsuccessful : " + confirmConnect.getData());
-                System.exit(1);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
     }
 
     /**
@@ -272,17 +372,20 @@ public class PlaceGUI extends Application {
      * @param y y-coordinate of the click
      */
     private void canvasClicked(double screenX, double screenY, double x, double y){
-        int r = (int) (x / (canvas.getWidth() / Math.sqrt(dim)));
-        int c = (int) (y / (canvas.getWidth() / Math.sqrt(dim)));
+        int r = rowAt(x);
+        int c = colAt(y);
         PlaceColor[] colors = PlaceColor.values();
         PlaceColor currColor = colors[selected];
         long time = System.currentTimeMillis();
         PlaceTile tile = new PlaceTile(r, c,username, currColor, time);
+        if (!board.isValid(tile)) {
+            return;
+        }
 
-        PlaceRequest<PlaceTile> tileRequest = new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile);
+        // the tile is drawn with the next frame, without waiting for the server
         try {
-            outputStream.writeUnshared(tileRequest);
-            outputStream.flush();
+            placements.place(tile);
+            changes.add(tile);
         }catch(IOException ioe){
             ioe.printStackTrace();
         }
@@ -291,18 +394,372 @@ public class PlaceGUI extends Application {
     }
 
     /**
-     * Updates a single tile on the GUI
-     * @param tile which tile to update
+     * Finds the row of the tile under a point of the canvas
+     * @param x x-coordinate on the canvas
+     * @return the row, which may be off the board
+     */
+    private int rowAt(double x){
+        return (int) Math.floor(viewRow + x / zoom);
+    }
+
+    /**
+     * Finds the column of the tile under a point of the canvas
+     * @param y y-coordinate on the canvas
+     * @return the column, which may be off the board
+     */
+    private int colAt(double y){
+        return (int) Math.floor(viewCol + y / zoom);
+    }
+
+    /**
+     * Moves the view with the mouse as it is dragged
+     * @param x x-coordinate of the mouse on the canvas
+     * @param y y-coordinate of the mouse on the canvas
+     */
+    private void drag(double x, double y){
+        viewRow -= (x - dragX) / zoom;
+        viewCol -= (y - dragY) / zoom;
+        dragX = x;
+        dragY = y;
+        clampView();
+    }
+
+    /**
+     * Zooms in or out by a notch, keeping the tile under the mouse where it is
+     * @param x x-coordinate of the mouse on the canvas
+     * @param y y-coordinate of the mouse on the canvas
+     * @param delta how far the wheel turned; positive zooms in
+     */
+    private void zoom(double x, double y, double delta){
+        if (delta == 0) {
+            return;
+        }
+        double row = viewRow + x / zoom;
+        double col = viewCol + y / zoom;
+        zoom = Math.max(minZoom(), Math.min(MAX_ZOOM, delta > 0 ? zoom * ZOOM_STEP : zoom / ZOOM_STEP));
+        viewRow = row - x / zoom;
+        viewCol = col - y / zoom;
+        clampView();
+    }
+
+    /**
+     * Get the zoom at which the whole board fits the canvas, the furthest out the view goes
+     * @return screen pixels per tile
      */
-    void updateBoardColors(PlaceTile tile){
-        PlaceColor currColor = tile.getColor();
-        Color color = new Color(currColor.getRed() / 255., currColor.getGreen() / 255., currColor.getBlue() / 255., 1);
-        GUI_board[tile.getRow()][tile.getCol()] = new Rectangle(canvas.getWidth() / Math.sqrt(dim) * tile.getRow(),canvas.getWidth() / Math.sqrt(dim) * tile.getCol(),
-                Math.floor(canvas.getWidth() / Math.sqrt(dim)), Math.floor(canvas.getHeight() / Math.sqrt(dim)));
+    private double minZoom(){
+        return Math.min(MAX_ZOOM, Math.min(canvas.getWidth(), canvas.getHeight()) / viewDim);
+    }
+
+    /**
+     * Zooms out to show the whole board, as when the GUI starts
+     */
+    private void fitView(){
+        zoom = minZoom();
+        clampView();
+    }
+
+    /**
+     * Keeps the board on the canvas: an axis the board does not fill is centered, and any other shows no more than
+     * the board. The image is filled again with the next frame
+     */
+    private void clampView(){
+        viewRow = clampAxis(viewRow, canvas.getWidth() / zoom);
+        viewCol = clampAxis(viewCol, canvas.getHeight() / zoom);
+        viewChanged = true;
+    }
+
+    /**
+     * Keeps one axis of the view on the board
+     * @param start the first tile in view, in fractions of a tile
+     * @param span how many tiles the canvas shows along the axis
+     * @return the first tile to show
+     */
+    private double clampAxis(double start, double span){
+        if (span >= viewDim) {
+            return (viewDim - span) / 2;
+        }
+        return Math.max(0, Math.min(viewDim - span, start));
+    }
+
+    /**
+     * Draws a tile again, such as one the server has changed or one whose placement was rolled back. Called from the
+     * listener thread; the tile is drawn with the next frame, in its pending color if it has one
+     * @param tile the changed tile, already set on the board
+     */
+    void tileChanged(PlaceTile tile){
+        changes.add(tile);
+    }
+
+    /**
+     * Replaces the board with a new one from the server. Called from the listener thread; every tile is drawn with
+     * the next frame
+     * @param newBoard the board sent by the server
+     */
+    void replaceBoard(PlaceBoard newBoard){
+        board = newBoard;
+        resizeBoard();
+    }
+
+    /**
+     * Fits the board to the canvas again after it has changed size, such as when the server grows it. Called from
+     * the listener thread; every tile is drawn with the next frame
+     */
+    void resizeBoard(){
+        drawRegion(new BoardRegion(0, 0, board.DIM, board.DIM));
+    }
+
+    /**
+     * Draws the tiles of one region of the board, such as a chunk that has just arrived from the server. Called from
+     * the listener thread; the region is drawn with the next frame
+     * @param region the region to draw
+     */
+    void drawRegion(BoardRegion region){
+        changes.add(region);
+    }
+
+    /**
+     * Draws the changes queued since the last frame into the pyramid and the images, then the images onto the canvas
+     * if anything shown has changed. Changes to tiles out of view only update the pyramid. Runs on the FX thread
+     */
+    private void drawChanges(){
+        PlaceBoard current = board;
+        if (pyramid.getBoard() != current || pyramid.getSide(0) != current.DIM) {
+            boolean grown = current.DIM != viewDim;
+            newPyramid();
+            if (grown) {
+                // keep the view where it was, zoomed out no further than the whole board
+                zoom = Math.max(zoom, minZoom());
+                clampView();
+            }
+            viewChanged = true;
+        }
+        if (viewChanged) {
+            newImage();
+        }
+        for (PlaceTile expired : placements.expire()) {
+            tileDrawn(expired);
+        }
+        Object change;
+        int drawn = 0;
+        while (drawn < MAX_CHANGES_PER_FRAME && (change = changes.poll()) != null) {
+            if (change instanceof PlaceTile) {
+                tileDrawn((PlaceTile) change);
+            } else {
+                BoardRegion region = (BoardRegion) change;
+                pyramid.update(region.getRow(), region.getCol(), region.getRows(), region.getCols());
+                writeRegion(region);
+                writeOverview(region);
+            }
+            drawn++;
+        }
+        if (dirty) {
+            drawImage();
+            dirty = false;
+            placements.shown();
+        }
+    }
+
+    /**
+     * Draws one changed tile into the pyramid, and into the images where they show it
+     * @param tile the tile
+     */
+    private void tileDrawn(PlaceTile tile){
+        int r = tile.getRow();
+        int c = tile.getCol();
+        if (r >= viewDim || c >= viewDim) {
+            // the board has grown since this frame began; the next one builds the pyramid again
+            return;
+        }
+        pyramid.update(r, c);
+        int x = (r >> level) - (imageRow >> level);
+        int y = (c >> level) - (imageCol >> level);
+        if (x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()) {
+            image.getPixelWriter().setArgb(x, y, pyramid.getArgb(level, r >> level, c >> level));
+            dirty = true;
+        }
+        overview.getPixelWriter().setArgb(r >> overviewLevel, c >> overviewLevel,
+                pyramid.getArgb(overviewLevel, r >> overviewLevel, c >> overviewLevel));
+        dirty |= isOverviewShown();
+    }
+
+    /**
+     * Builds the pyramid of the board as it is now, and the overview from it
+     */
+    private void newPyramid(){
+        pyramid = new BoardPyramid(board) {
+            @Override
+            protected int tileArgb(int row, int col) {
+                // tiles placed here and not yet confirmed show over the board
+                PlaceColor pending = placements.getColor(row, col);
+                return pending != null ? argb(pending) : super.tileArgb(row, col);
+            }
+        };
+        viewDim = pyramid.getSide(0);
+        overviewLevel = 0;
+        while (pyramid.getSide(overviewLevel) > OVERVIEW_SIZE) {
+            overviewLevel++;
+        }
+        int side = pyramid.getSide(overviewLevel);
+        overview = new WritableImage(side, side);
+        writeOverview(new BoardRegion(0, 0, viewDim, viewDim));
+    }
+
+    /**
+     * Fills the image with the tiles now in view from the pyramid level that suits the zoom, and subscribes to the
+     * changes around them
+     */
+    private void newImage(){
+        viewChanged = false;
+        level = 0;
+        while (level < pyramid.getLevels() - 1 && 1 << level + 1 <= 1 / zoom) {
+            level++;
+        }
+        int step = 1 << level;
+        imageRow = Math.max(0, (int) Math.floor(viewRow / step) * step);
+        imageCol = Math.max(0, (int) Math.floor(viewCol / step) * step);
+        int endRow = Math.min(viewDim, (int) Math.ceil(viewRow + canvas.getWidth() / zoom));
+        int endCol = Math.min(viewDim, (int) Math.ceil(viewCol + canvas.getHeight() / zoom));
+        int width = Math.max(1, (endRow - imageRow + step - 1) / step);
+        int height = Math.max(1, (endCol - imageCol + step - 1) / step);
+        if (image == null || (int) image.getWidth() != width || (int) image.getHeight() != height) {
+            image = new WritableImage(width, height);
+        }
+        writeRegion(new BoardRegion(imageRow, imageCol, width * step, height * step));
+        dirty = true;
+        subscribe(new BoardRegion(imageRow, imageCol, width * step, height * step));
+    }
+    /**
+     * Asks the server for changes only around the tiles in view, once the view has left the part already asked
+     * for. The margin of half a view on each side lets the view pan a while without asking again
+     * @param inView the tiles in view
+     */
+    private void subscribe(BoardRegion inView){
+        if (!session.canSubscribe() || (subscribed == null ? inView.getRows() >= viewDim && inView.getCols() >= viewDim
+                : contains(subscribed, inView))) {
+            return;
+        }
+        int row = Math.max(0, inView.getRow() - inView.getRows() / 2);
+        int col = Math.max(0, inView.getCol() - inView.getCols() / 2);
+        int rows = Math.min(viewDim, inView.getRow() + inView.getRows() + inView.getRows() / 2) - row;
+        int cols = Math.min(viewDim, inView.getCol() + inView.getCols() + inView.getCols() / 2) - col;
+        BoardRegion wanted = rows >= viewDim && cols >= viewDim ? null : new BoardRegion(row, col, rows, cols);
+        try {
+            session.subscribe(wanted);
+            subscribed = wanted;
+        } catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Tells whether one region of the board holds all of another
+     * @param outer the larger region
+     * @param inner the smaller region
+     * @return true if every tile of inner is in outer
+     */
+    private static boolean contains(BoardRegion outer, BoardRegion inner){
+        return inner.getRow() >= outer.getRow() && inner.getCol() >= outer.getCol()
+                && inner.getRow() + inner.getRows() <= outer.getRow() + outer.getRows()
+                && inner.getCol() + inner.getCols() <= outer.getCol() + outer.getCols();
+    }
+
+    /**
+     * Copies the cells above one region of the board that are in the image into it with a single pixel write
+     * @param region the region to copy
+     */
+    private void writeRegion(BoardRegion region){
+        writeCells(image, level, imageRow >> level, imageCol >> level, region);
+    }
+
+    /**
+     * Copies the cells above one region of the board into the overview with a single pixel write
+     * @param region the region to copy
+     */
+    private void writeOverview(BoardRegion region){
+        writeCells(overview, overviewLevel, 0, 0, region);
+        dirty |= isOverviewShown();
+    }
+
+    /**
+     * Copies the cells of one pyramid level that lie above a region of the board into an image
+     * @param target the image, whose top left pixel shows cell (row, col)
+     * @param cellLevel the pyramid level the image shows
+     * @param row the row of the cell shown by the top left pixel
+     * @param col the column of the cell shown by the top left pixel
+     * @param region the region of the board, in tiles
+     */
+    private void writeCells(WritableImage target, int cellLevel, int row, int col, BoardRegion region){
+        int lastRow = Math.min(region.getRow() + region.getRows(), viewDim) - 1;
+        int lastCol = Math.min(region.getCol() + region.getCols(), viewDim) - 1;
+        int x0 = Math.max(0, (region.getRow() >> cellLevel) - row);
+        int y0 = Math.max(0, (region.getCol() >> cellLevel) - col);
+        int x1 = Math.min((int) target.getWidth(), (lastRow >> cellLevel) - row + 1);
+        int y1 = Math.min((int) target.getHeight(), (lastCol >> cellLevel) - col + 1);
+        if (region.getRow() < 0 || region.getCol() < 0 || x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        int width = x1 - x0;
+        int height = y1 - y0;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = pyramid.getArgb(cellLevel, row + x0 + x, col + y0 + y);
+            }
+        }
+        target.getPixelWriter().setPixels(x0, y0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        dirty = true;
+    }
+
+    /**
+     * Tells whether the overview is drawn, which it is while the view shows only part of the board
+     * @return true if the overview is drawn
+     */
+    private boolean isOverviewShown(){
+        return canvas.getWidth() / zoom < viewDim || canvas.getHeight() / zoom < viewDim;
+    }
+
+    /**
+     * Moves the view to a point of the overview that was clicked, centering it there
+     * @param x x-coordinate of the click on the canvas
+     * @param y y-coordinate of the click on the canvas
+     * @return true if the click was on the overview
+     */
+    private boolean overviewClicked(double x, double y){
+        double left = canvas.getWidth() - OVERVIEW_MARGIN - OVERVIEW_SIZE;
+        if (x < left || x >= left + OVERVIEW_SIZE || y < OVERVIEW_MARGIN || y >= OVERVIEW_MARGIN + OVERVIEW_SIZE) {
+            return false;
+        }
+        double tiles = (double) viewDim / OVERVIEW_SIZE;
+        viewRow = (x - left) * tiles - canvas.getWidth() / zoom / 2;
+        viewCol = (y - OVERVIEW_MARGIN) * tiles - canvas.getHeight() / zoom / 2;
+        clampView();
+        return true;
+    }
+
+    /**
+     * Draws the image onto the canvas where the view puts it, each tile a sharp square, with the background around
+     * the board, and the overview with the part in view marked while zoomed in
+     */
+    private void drawImage(){
         GraphicsContext gfx = canvas.getGraphicsContext2D();
-        gfx.setFill(color);
-        gfx.fillRect(GUI_board[tile.getRow()][tile.getCol()].getX(), GUI_board[tile.getRow()][tile.getCol()].getY(),
-                GUI_board[tile.getRow()][tile.getCol()].getWidth(), GUI_board[tile.getRow()][tile.getCol()].getHeight());
+        gfx.setFill(BACKGROUND);
+        gfx.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gfx.setImageSmoothing(false);
+        double pixel = (1 << level) * zoom;
+        gfx.drawImage(image, (imageRow - viewRow) * zoom, (imageCol - viewCol) * zoom,
+                image.getWidth() * pixel, image.getHeight() * pixel);
+        if (isOverviewShown()) {
+            double left = canvas.getWidth() - OVERVIEW_MARGIN - OVERVIEW_SIZE;
+            double scale = (double) OVERVIEW_SIZE / viewDim;
+            double cell = (1 << overviewLevel) * scale;
+            gfx.drawImage(overview, left, OVERVIEW_MARGIN, overview.getWidth() * cell, overview.getHeight() * cell);
+            gfx.setLineWidth(1);
+            gfx.setStroke(Color.BLACK);
+            gfx.strokeRect(left, OVERVIEW_MARGIN, OVERVIEW_SIZE, OVERVIEW_SIZE);
+            gfx.setStroke(Color.RED);
+            gfx.strokeRect(left + Math.max(0, viewRow) * scale, OVERVIEW_MARGIN + Math.max(0, viewCol) * scale,
+                    Math.min(viewDim, canvas.getWidth() / zoom) * scale, Math.min(viewDim, canvas.getHeight() / zoom) * scale);
+        }
     }
 
     /**
@@ -0,0 +1,268 @@
+package place.client.ptui;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.PrintStream;
+import java.util.BitSet;
+
+/**
+ * This class draws the board of a PlacePTUI on the terminal at most once per refresh interval, however fast changes
+ * arrive. In the plain mode the whole board is printed again whenever it has changed. In the ANSI mode the board is
+ * printed once at the top of the screen and afterwards only the changed cells are redrawn in place, by moving the
+ * cursor with ANSI escape codes; the lines below the board scroll on their own, for input and messages
+ *
+ * @author Ethan Cantor
+ * @author Ket-Meng Cheng
+ */
+public class PTUIRenderer extends Thread {
+
+    /**
+     * The escape that starts an ANSI control sequence
+     */
+    private static final String CSI = "\033[";
+
+    /**
+     * Saves the cursor position, so typing carries on where it was after cells are redrawn
+     */
+    private static final String SAVE_CURSOR = "\0337";
+
+    /**
+     * Moves the cursor back to where it was saved
+     */
+    private static final String RESTORE_CURSOR = "\0338";
+
+    /**
+     * The character of each color, by color number, as PlaceColor.toString gives it
+     */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The connected PTUI, whose board is drawn
+     */
+    private PlacePTUI ptui;
+
+    /**
+     * Where the board is drawn
+     */
+    private PrintStream out;
+
+    /**
+     * Redraw only the changed cells with ANSI cursor movement, instead of printing the whole board again
+     */
+    private boolean ansi;
+
+    /**
+     * Least time between two redraws, in milliseconds
+     */
+    private long refreshMs;
+
+    /**
+     * The cells changed since the last redraw, by row * DIM + col; guarded by its own lock
+     */
+    private BitSet changed = new BitSet();
+
+    /**
+     * The board size the changed cells are numbered for; guarded by the lock of changed
+     */
+    private int changedDim;
+
+    /**
+     * Set when the whole board must be drawn again, such as when it is replaced or grows; guarded by the lock of
+     * changed
+     */
+    private boolean whole;
+
+    /**
+     * Should it keep drawing
+     */
+    private volatile boolean running;
+
+    /**
+     * Create a thread that draws the board of a PTUI
+     * @param ptui the connected PTUI
+     * @param ansi redraw only the changed cells with ANSI cursor movement
+     * @param refreshMs least time between two redraws, in milliseconds
+     */
+    PTUIRenderer(PlacePTUI ptui, boolean ansi, long refreshMs){
+        this.ptui = ptui;
+        this.out = System.out;
+        this.ansi = ansi;
+        this.refreshMs = refreshMs;
+        this.running = true;
+        setDaemon(true);
+    }
+
+    /**
+     * Marks a tile as changed. Called from the listener thread after the tile is set on the board; it is drawn with
+     * the next redraw
+     * @param tile the changed tile
+     */
+    void tileChanged(PlaceTile tile){
+        synchronized (changed) {
+            if (whole) {
+                return;
+            }
+            if (changedDim != ptui.board.DIM) {
+                whole = true;
+                return;
+            }
+            changed.set(tile.getRow() * changedDim + tile.getCol());
+            changed.notify();
+        }
+    }
+
+    /**
+     * Marks the whole board as changed, such as when it is replaced, grows or has finished arriving; it is drawn
+     * with the next redraw
+     */
+    void boardChanged(){
+        synchronized (changed) {
+            whole = true;
+            changed.notify();
+        }
+    }
+
+    /**
+     * The core loop of the PTUIRenderer class. It waits for something to change, draws it, then waits out the refresh
+     * interval, so a change is drawn straight away unless another was drawn less than an interval before
+     */
+    public void run(){
+        while(running){
+            try {
+                synchronized (changed) {
+                    // wake now and then to roll back placements the server never answered
+                    if (!whole && changed.isEmpty()) {
+                        changed.wait(1000);
+                    }
+                }
+                for (PlaceTile expired : ptui.placements.expire()) {
+                    tileChanged(expired);
+                }
+                if (redraw()) {
+                    Thread.sleep(refreshMs);
+                }
+            } catch(InterruptedException IE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Draws the changes marked since the last redraw
+     * @return true if anything was drawn
+     * @throws InterruptedException if the thread was stopped while waiting for the board
+     */
+    private boolean redraw() throws InterruptedException {
+        if (!ptui.isBoardComplete()) {
+            // the board is drawn once its last chunk is in
+            Thread.sleep(refreshMs);
+            return false;
+        }
+        BitSet cells;
+        boolean redrawWhole;
+        int dim;
+        synchronized (changed) {
+            redrawWhole = whole;
+            dim = changedDim;
+            if (!redrawWhole && changed.isEmpty()) {
+                return false;
+            }
+            cells = (BitSet) changed.clone();
+            changed.clear();
+            whole = false;
+            changedDim = ptui.board.DIM;
+        }
+        PlaceBoard board = ptui.board;
+        // other threads print whole lines; keep them out of the middle of a redraw
+        synchronized (out) {
+            if (!ansi) {
+                printBoard(board);
+            } else if (redrawWhole) {
+                printScreen(board);
+            } else {
+                printCells(board, cells, dim);
+            }
+            out.flush();
+        }
+        ptui.placements.shown();
+        return true;
+    }
+
+    /**
+     * Prints the whole board a row at a time, each tile as a single hex character, as PlaceBoard.toString does
+     * without building the whole board as one string first
+     * @param board the board
+     */
+    private void printBoard(PlaceBoard board){
+        int dim = board.DIM;
+        char[] line = new char[dim + 1];
+        line[0] = '\n';
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                line[col + 1] = HEX[colorAt(board, row, col).getNumber()];
+            }
+            out.print(line);
+        }
+        out.println();
+    }
+
+    /**
+     * Clears the screen and prints the whole board at the top of it, then leaves the lines below the board to scroll
+     * with the cursor on the first of them
+     * @param board the board
+     */
+    private void printScreen(PlaceBoard board){
+        // the scrolling region is reset first, so that the whole screen is cleared
+        out.print(CSI + "r" + CSI + "2J" + CSI + "H");
+        printBoard(board);
+        out.print(CSI + (board.DIM + 2) + "r" + CSI + (board.DIM + 2) + ";1H");
+    }
+
+    /**
+     * Redraws only the given cells where they are on the screen, then puts the cursor back. The cursor is moved only
+     * between cells that are not next to each other
+     * @param board the board
+     * @param cells the cells to redraw, by row * dim + col
+     * @param dim the size of the board the cells were numbered for
+     */
+    private void printCells(PlaceBoard board, BitSet cells, int dim){
+        StringBuilder builder = new StringBuilder(SAVE_CURSOR);
+        int next = -1;
+        for (int cell = cells.nextSetBit(0); cell >= 0; cell = cells.nextSetBit(cell + 1)) {
+            int row = cell / dim;
+            int col = cell % dim;
+            if (cell != next) {
+                // the board starts on the second line of the screen, below the blank line printBoard begins with
+                builder.append(CSI).append(row + 2).append(';').append(col + 1).append('H');
+            }
+            builder.append(HEX[colorAt(board, row, col).getNumber()]);
+            next = col + 1 < dim ? cell + 1 : -1;
+        }
+        builder.append(RESTORE_CURSOR);
+        out.print(builder);
+    }
+
+    /**
+     * Get the color a tile is drawn in: the color this user placed it in while that is not yet confirmed, else the
+     * board's
+     * @param board the board
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the color to draw
+     */
+    private PlaceColor colorAt(PlaceBoard board, int row, int col){
+        PlaceColor pending = ptui.placements.getColor(row, col);
+        return pending != null ? pending : board.getColor(row, col);
+    }
+
+    /**
+     * Stop drawing the board
+     */
+    public void kill(){
+        running = false;
+        interrupt();
+    }
+
+}
@@ -1,10 +1,12 @@
 package place.client.ptui;
 
+import place.PlaceBoard;
 import place.PlaceTile;
 import place.network.PlaceRequest;
+import place.network.PlacementResults;
+import place.network.PlaceSession;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 /**
  * This class is connected to a specific PlacePTUI and listens for messages from the server
@@ -15,9 +17,9 @@ import java.io.ObjectInputStream;
 public class PTUIServerListener extends Thread {
 
     /**
-     * Input stream from the server
+     * Login to the server
      */
-    private ObjectInputStream inputStream;
+    private PlaceSession session;
 
     /**
      * The connected PTUI
@@ -31,30 +33,61 @@ public class PTUIServerListener extends Thread {
 
     /**
      * A separate thread to listen for server input for a PTUI
-     * @param inputStream input stream from the server
+     * @param session login to the server
      * @param ptui the connected PTUI
      */
-    PTUIServerListener(ObjectInputStream inputStream, PlacePTUI ptui){
-        this.inputStream = inputStream;
+    PTUIServerListener(PlaceSession session, PlacePTUI ptui){
+        this.session = session;
         this.ptui = ptui;
         this.running = true;
     }
 
     /**
-     * The core loop of the PTUIServerListener class. This looks for tile changes and error messages from the server
+     * The core loop of the PTUIServerListener class. This looks for tile changes and error messages from the server,
+     * a new board if the server could not catch it up after a reconnect, and the board growing, and hands what has
+     * changed to the renderer to draw. Tiles the user placed are confirmed by their tile change, or rolled back if the
+     * server refuses them
      */
     public void run(){
         while(running){
             try {
-                PlaceRequest<?> serverUpdate = (PlaceRequest<?>) inputStream.readUnshared();
+                PlaceRequest<?> serverUpdate = session.receive();
                 if(serverUpdate.getType() == PlaceRequest.RequestType.TILE_CHANGED){
                     PlaceTile updatedTile = (PlaceTile) serverUpdate.getData();
                     ptui.board.setTile(updatedTile);
-                    System.out.println(ptui.board);
+                    ptui.placements.tileChanged(updatedTile);
+                    ptui.renderer.tileChanged(updatedTile);
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.BOARD){
+                    ptui.board = (PlaceBoard) serverUpdate.getData();
+                    ptui.renderer.boardChanged();
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.BOARD_REGION){
+                    // the renderer waits for the last chunk of the board before drawing it.
+                    if(ptui.isBoardComplete()){
+                        System.out.println("Board recieved:");
+                        ptui.renderer.boardChanged();
+                    }
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.BOARD_EXPANDED){
+                    System.out.println("The board has grown to " + ptui.board.DIM + "x" + ptui.board.DIM + ":");
+                    ptui.renderer.boardChanged();
+                } else if(serverUpdate.getType() == PlaceRequest.RequestType.TILES_RESULT){
+                    PlacementResults results = (PlacementResults) serverUpdate.getData();
+                    PlaceTile refused = ptui.placements.resultsReceived(results);
+                    if(refused != null){
+                        System.out.println("Tile not placed : " + results.get(0) + ", wait " + results.getWait() + " ms");
+                        ptui.renderer.tileChanged(refused);
+                    }
                 } else if(serverUpdate.getType() == PlaceRequest.RequestType.ERROR){
                     System.out.println("Error in game loop : " + serverUpdate.getData());
+                    PlaceTile refused = ptui.placements.errorReceived();
+                    if(refused != null){
+                        ptui.renderer.tileChanged(refused);
+                    }
+                }
+            } catch(IOException IOE) {
+                if(running){
+                    System.out.println("Disconnected from the server : " + IOE.getMessage());
+                    running = false;
                 }
-            } catch(IOException | ClassNotFoundException IOE) {
             }
         }
 
@@ -2,13 +2,14 @@ package place.client.ptui;
 
 import place.PlaceBoard;
 import place.PlaceColor;
+import place.PlaceException;
 import place.PlaceTile;
-import place.network.PlaceRequest;
+import place.network.PendingPlacements;
+import place.network.PlaceSession;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -20,6 +21,11 @@ import java.util.Scanner;
  */
 public class PlacePTUI {
 
+    /**
+     * Least time between two redraws of the board unless --refresh is given, in milliseconds
+     */
+    private static final long REFRESH_MS = 100;
+
     /**
      * The client side board that is manipulated by commands from the server
      */
@@ -31,64 +37,71 @@ public class PlacePTUI {
     private String username;
 
     /**
-     * The server socket connection
+     * The login to the server, which reconnects if the connection drops
      */
-    private Socket serverConn;
+    private PlaceSession session;
 
     /**
-     * The output stream to the server
+     * Tiles this user has placed that the server has not yet confirmed, drawn over the board straight away
      */
-    private ObjectOutputStream outputStream;
+    PendingPlacements placements;
 
     /**
-     * The input stream from the server
+     * A separate thread to listen from commands from the server
      */
-    private ObjectInputStream inputStream;
+    private PTUIServerListener serverListener;
 
     /**
-     * A separate thread to listen from commands from the server
+     * A separate thread that draws the board as it changes, at most once per refresh interval
      */
-    private PTUIServerListener serverListener;
+    PTUIRenderer renderer;
+
+    /**
+     * The PlacePTUI provides a connection to the server and client using plain text
+     * @param host hostname of the server
+     * @param port port of the server
+     * @param username username of the client
+     * @param canvas canvas to play on, or empty for the server's default
+     */
+    public PlacePTUI(String host, int port, String username, String canvas){
+        this(host, port, username, canvas, false, REFRESH_MS);
+    }
 
     /**
      * The PlacePTUI provides a connection to the server and client using plain text
      * @param host hostname of the server
      * @param port port of the server
      * @param username username of the client
+     * @param canvas canvas to play on, or empty for the server's default
+     * @param ansi redraw only the changed tiles in place with ANSI escape codes, instead of printing the whole board
+     *             again
+     * @param refreshMs least time between two redraws of the board, in milliseconds
      */
-    public PlacePTUI(String host, int port, String username){
+    public PlacePTUI(String host, int port, String username, String canvas, boolean ansi, long refreshMs){
         this.username = username;
-        try{
-            serverConn = new Socket(host, port);
-            outputStream = new ObjectOutputStream(serverConn.getOutputStream());
-        } catch(IOException IOE){
+        session = new PlaceSession(host, port, username, canvas);
+        placements = new PendingPlacements(session);
+        try {
+            board = session.login();
+        } catch (PlaceException PE) {
+            System.err.println(PE.getMessage());
+            System.exit(1);
+        } catch (IOException IOE) {
             IOE.printStackTrace();
+            System.exit(1);
         }
-        PlaceRequest<String> sendUser = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username);
-        try {
-            outputStream.writeUnshared(sendUser);
-            outputStream.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        renderer = new PTUIRenderer(this, ansi, refreshMs);
+        renderer.boardChanged();
+        renderer.start();
+        serverListener = new PTUIServerListener(session, this);
+        serverListener.start();
+        if (session.isBoardComplete()) {
+            System.out.println("Board recieved:");
+        } else {
+            System.out.println("Receiving a " + board.DIM + "x" + board.DIM + " board...");
         }
         try {
-            inputStream = new ObjectInputStream(serverConn.getInputStream());
-            PlaceRequest<?> confirmConnect = (PlaceRequest<?>) inputStream.readUnshared();
-            if(confirmConnect.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS){
-                System.out.println("Login Success : " + confirmConnect.getData());
-                PlaceRequest<?> boardRequest = (PlaceRequest<?>) inputStream.readUnshared();
-                if(boardRequest.getType() == PlaceRequest.RequestType.BOARD){
-                    board = (PlaceBoard)boardRequest.getData();
-                    serverListener = new PTUIServerListener(inputStream, this);
-                    serverListener.start();
-                    System.out.println("Board recieved:");
-                    System.out.println(board);
-                    loop();
-                }
-            } else if(confirmConnect.getType() == PlaceRequest.RequestType.ERROR){
-                System.err.println("Login unsuccessful : " + confirmConnect.getData());
-                System.exit(1);
-            }
+            loop();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -111,40 +124,64 @@ public class PlacePTUI {
                 int colorInt = Integer.parseInt(color, 16);
                 PlaceColor placeColor = PlaceColor.values()[colorInt];
                 PlaceTile tile = new PlaceTile(row, col, username, placeColor ,System.currentTimeMillis());
-                PlaceRequest<PlaceTile> tileRequest = new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile);
+                if (!board.isValid(tile)) {
+                    System.out.println("That tile is not on the board.");
+                    continue;
+                }
 
-                outputStream.writeUnshared(tileRequest);
-                outputStream.flush();
+                // the tile is drawn with the next redraw, without waiting for the server
+                placements.place(tile);
+                renderer.tileChanged(tile);
             } catch(NumberFormatException nfe){
                 System.out.println("That command was not valid. Format: row col color");
+            } catch(IOException IOE){
+                System.out.println("Not connected, the tile was not placed : " + IOE.getMessage());
             }
         }
         close();
     }
 
+    /**
+     * Tells whether every chunk of the board has arrived from the server
+     * @return true unless chunks of the board are still to come
+     */
+    boolean isBoardComplete(){
+        return session.isBoardComplete();
+    }
+
     /**
      * Closes the connection to server and stop the server listener thread
      */
     private void close(){
+        renderer.kill();
         serverListener.kill();
-        try {
-            serverConn.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        session.close();
+        System.out.println(placements);
         System.exit(0);
     }
 
     /**
      * The user provides some arguemnts for the PTUI client
-     * @param args hostname, port, username
+     * @param args hostname, port, username, optionally a canvas, and the options --ansi and --refresh=ms anywhere
      */
     public static void main(String[] args){
         try {
-            String host = args[0];
-            int port = Integer.parseInt(args[1]);
-            String username = args[2];
-            new PlacePTUI(host, port, username);
+            boolean ansi = false;
+            long refreshMs = REFRESH_MS;
+            List<String> positional = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.equals("--ansi")) {
+                    ansi = true;
+                } else if (arg.startsWith("--refresh=")) {
+                    refreshMs = Long.parseLong(arg.substring("--refresh=".length()));
+                } else {
+                    positional.add(arg);
+                }
+            }
+            String host = positional.get(0);
+            int port = Integer.parseInt(positional.get(1));
+            String username = positional.get(2);
+            new PlacePTUI(host, port, username, positional.size() > 3 ? positional.get(3) : "", ansi, refreshMs);
         } catch (Exception e){
             System.err.println("There was an error inputting arguements : ");
             e.printStackTrace();
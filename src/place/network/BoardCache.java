@@ -0,0 +1,200 @@
+package place.network;
+
+import place.OwnerDictionary;
+import place.PlaceBoard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The board already encoded for clients that are logging in, one copy per
+ * wire format.  Every client that joins while a copy is fresh is sent the
+ * same frames, followed by the changes made since the copy was taken, so a
+ * crowd joining at once costs one encoding instead of one each.
+ *
+ * A copy is taken without stopping tile changes.  Every change up to the
+ * copy's sequence number is on it; a tile changed while it was being read
+ * may be in either state, but that change comes after the sequence number
+ * and so is sent again on top of the copy.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class BoardCache {
+
+    /**
+     * An encoded copy of the board.
+     */
+    static class Snapshot {
+
+        /**
+         * Sequence number of the last change certainly on the copy.
+         */
+        final long seq;
+
+        /**
+         * Dimension of the board on the copy.
+         */
+        final int dim;
+
+        /**
+         * Number of owner ids the copy is known to define; later ids must
+         * be sent to the client separately.
+         */
+        final int owners;
+
+        /**
+         * The frames holding the copy, in the order they must be sent.
+         * Senders share them through duplicates.
+         */
+        final List< ByteBuffer > frames;
+
+        /**
+         * When the copy was taken.
+         */
+        final long taken;
+
+        Snapshot( long seq, int dim, int owners, List< ByteBuffer > frames, long taken ) {
+            this.seq = seq;
+            this.dim = dim;
+            this.owners = owners;
+            this.frames = frames;
+            this.taken = taken;
+        }
+    }
+
+    /**
+     * The live board.
+     */
+    private PlaceBoard board;
+
+    /**
+     * Owner ids used on the wire.
+     */
+    private OwnerDictionary owners;
+
+    /**
+     * The game's change history; its sequence number dates each copy.
+     */
+    private ChangeHistory history;
+
+    /**
+     * The newest copy in each format, indexed by protocol version.
+     */
+    private Snapshot[] snapshots;
+
+    /**
+     * One lock per format, so clients of one version wait for a copy
+     * being taken for that version only.
+     */
+    private Object[] locks;
+
+    /**
+     * Milliseconds a copy may be used for once the board has changed.
+     */
+    private long interval;
+
+    /**
+     * Number of changes a copy may fall behind before it is replaced.
+     */
+    private long maxChanges;
+
+    /**
+     * Create an empty cache; copies are taken when first asked for.
+     *
+     * @param board the live board.
+     * @param owners owner ids used on the wire.
+     * @param history the game's change history.
+     * @param interval milliseconds a copy is used for once the board has
+     *                 changed.
+     * @param maxChanges changes a copy may fall behind; kept below the
+     *                   history's capacity so they can still be looked up.
+     */
+    BoardCache( PlaceBoard board, OwnerDictionary owners, ChangeHistory history, long interval, long maxChanges ) {
+        this.board = board;
+        this.owners = owners;
+        this.history = history;
+        this.snapshots = new Snapshot[PlaceCodec.MAX_VERSION + 1];
+        this.locks = new Object[PlaceCodec.MAX_VERSION + 1];
+        for ( int format = 0; format < this.locks.length; format++ ) {
+            this.locks[format] = new Object();
+        }
+        this.interval = interval;
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * Gets a copy of the board for a client, taking a new one if the
+     * newest is too old.
+     *
+     * @param version the client's protocol version.
+     * @return the copy.
+     * @throws IOException if the board cannot be encoded.
+     */
+    Snapshot get( int version ) throws IOException {
+        int format = format( version );
+        synchronized ( this.locks[format] ) {
+            Snapshot newest = this.snapshots[format];
+            // a copy from before the board grew is no use at any age.
+            if ( newest != null && newest.dim == this.board.DIM ) {
+                long behind = this.history.getLastSeq() - newest.seq;
+                long age = System.currentTimeMillis() - newest.taken;
+                if ( behind == 0 || ( behind < this.maxChanges && age < this.interval ) ) {
+                    return newest;
+                }
+            }
+            return take( format );
+        }
+    }
+
+    /**
+     * Takes a new copy of the board whatever the age of the newest, for a
+     * client whose changes since the newest are no longer kept.
+     *
+     * @param version the client's protocol version.
+     * @return the copy.
+     * @throws IOException if the board cannot be encoded.
+     */
+    Snapshot refresh( int version ) throws IOException {
+        int format = format( version );
+        synchronized ( this.locks[format] ) {
+            return take( format );
+        }
+    }
+
+    /**
+     * Encodes the board and keeps the result as the newest copy.  Must be
+     * called with the format's lock held.
+     */
+    private Snapshot take( int format ) throws IOException {
+        // every change up to here is already on the board.
+        long seq = this.history.getLastSeq();
+        // read first; the board can only be as big or bigger when encoded.
+        int dim = this.board.DIM;
+        int known = this.owners.size();
+        List< ByteBuffer > frames;
+        if ( format == PlaceCodec.VERSION_CHUNKED ) {
+            frames = PlaceCodec.encodeChunkedBoard( this.board, this.owners );
+        }
+        else {
+            PlaceRequest< PlaceBoard > req = new PlaceRequest<>( PlaceRequest.RequestType.BOARD, this.board );
+            frames = Collections.singletonList( PlaceCodec.encode( req, format, this.owners ) );
+        }
+        Snapshot snapshot = new Snapshot( seq, dim, known, frames, System.currentTimeMillis() );
+        this.snapshots[format] = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Finds the format a protocol version reads its board in; versions 2
+     * and 3 share one.
+     */
+    private static int format( int version ) {
+        if ( version >= PlaceCodec.VERSION_CHUNKED ) {
+            return PlaceCodec.VERSION_CHUNKED;
+        }
+        return Math.min( version, PlaceCodec.VERSION_BINARY );
+    }
+}
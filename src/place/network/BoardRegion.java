@@ -0,0 +1,93 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * A rectangle of board cells.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class BoardRegion implements Serializable {
+
+    /**
+     * Top row of the region.
+     */
+    private int row;
+
+    /**
+     * Leftmost column of the region.
+     */
+    private int col;
+
+    /**
+     * Number of rows in the region.
+     */
+    private int rows;
+
+    /**
+     * Number of columns in the region.
+     */
+    private int cols;
+
+    /**
+     * Create a region.
+     *
+     * @param row top row
+     * @param col leftmost column
+     * @param rows number of rows
+     * @param cols number of columns
+     */
+    public BoardRegion( int row, int col, int rows, int cols ) {
+        this.row = row;
+        this.col = col;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public int getRow() {
+        return this.row;
+    }
+
+    public int getCol() {
+        return this.col;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    public int getCols() {
+        return this.cols;
+    }
+
+    /**
+     * Tells whether a cell lies inside the region.
+     *
+     * @param row the cell's row
+     * @param col the cell's column
+     * @return true if the cell is inside
+     */
+    public boolean contains( int row, int col ) {
+        return row >= this.row && row < this.row + this.rows && col >= this.col && col < this.col + this.cols;
+    }
+
+    @Override
+    public boolean equals( Object other ) {
+        if ( !( other instanceof BoardRegion ) ) {
+            return false;
+        }
+        BoardRegion region = ( BoardRegion ) other;
+        return this.row == region.row && this.col == region.col && this.rows == region.rows && this.cols == region.cols;
+    }
+
+    @Override
+    public int hashCode() {
+        return ( ( this.row * 31 + this.col ) * 31 + this.rows ) * 31 + this.cols;
+    }
+
+    @Override
+    public String toString() {
+        return "Region{row=" + this.row + ", col=" + this.col + ", rows=" + this.rows + ", cols=" + this.cols + "}";
+    }
+}
@@ -0,0 +1,156 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The broadcast stage of the server.  Each accepted tile change is handed
+ * over once; this thread encodes it and places it on every client's
+ * outbound queue, so the player who placed the tile never waits on anyone
+ * else's connection.
+ *
+ * With a tick set, changes are collected for one tick and only the last
+ * write to each tile is kept.  At the end of the tick every client is sent
+ * a single batch, which saves a frame and a write for every overwrite of a
+ * busy tile.  The board itself is still changed straight away.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class Broadcaster extends Thread {
+
+    /**
+     * How often the per-client queue counters are logged, in milliseconds.
+     */
+    private static final long STATS_INTERVAL = 10000;
+
+    /**
+     * Accepted changes that have not been broadcast yet, in the order they
+     * were applied to the board.
+     */
+    private BlockingQueue< TileChange > changes;
+
+    /**
+     * The game whose clients receive the changes.
+     */
+    private PlaceGame game;
+
+    /**
+     * Length of a coalescing tick in milliseconds; 0 sends every change
+     * as it arrives.
+     */
+    private long tick;
+
+    Broadcaster( PlaceGame game, long tick ) {
+        super( "place-broadcaster" );
+        this.changes = new LinkedBlockingQueue<>();
+        this.game = game;
+        this.tick = tick;
+        setDaemon( true );
+    }
+
+    /**
+     * Hands an accepted change to the broadcast stage.  Changes must be
+     * published in sequence order.
+     *
+     * @param change the change and its sequence number.
+     */
+    void publish( TileChange change ) {
+        this.changes.add( change );
+    }
+
+    /**
+     * Get the number of changes waiting to be broadcast.
+     *
+     * @return the backlog.
+     */
+    int getBacklog() {
+        return this.changes.size();
+    }
+
+    /**
+     * Broadcasts changes as they arrive, or once per tick.
+     */
+    public void run() {
+        try {
+            if ( this.tick > 0 ) {
+                runTicks();
+            } else {
+                runEach();
+            }
+        } catch ( InterruptedException ie ) {
+            // server is shutting down.
+        }
+    }
+
+    /**
+     * Sends every change on its own as soon as it is published.
+     */
+    private void runEach() throws InterruptedException {
+        long nextStats = System.currentTimeMillis() + STATS_INTERVAL;
+        while ( true ) {
+            TileChange change = this.changes.poll( STATS_INTERVAL, TimeUnit.MILLISECONDS );
+            if ( change != null ) {
+                this.game.sendUpdates( change );
+            }
+            if ( System.currentTimeMillis() >= nextStats ) {
+                this.game.logQueueStats();
+                nextStats = System.currentTimeMillis() + STATS_INTERVAL;
+            }
+        }
+    }
+
+    /**
+     * Collects changes for a tick, keeping the last write per tile, then
+     * sends them as one batch.
+     */
+    private void runTicks() throws InterruptedException {
+        // keyed by row and column, as the board may grow during a tick.
+        Map< Long, TileChange > latest = new LinkedHashMap<>();
+        List< TileChange > drained = new ArrayList<>();
+        long nextStats = System.currentTimeMillis() + STATS_INTERVAL;
+        long end = System.currentTimeMillis() + this.tick;
+
+        while ( true ) {
+            long wait = end - System.currentTimeMillis();
+            if ( wait > 0 ) {
+                TileChange change = this.changes.poll( wait, TimeUnit.MILLISECONDS );
+                if ( change != null ) {
+                    latest.put( cellOf( change.tile ), change );
+                    this.changes.drainTo( drained );
+                    for ( TileChange next : drained ) {
+                        latest.put( cellOf( next.tile ), next );
+                    }
+                    drained.clear();
+                }
+                continue;
+            }
+
+            if ( !latest.isEmpty() ) {
+                this.game.sendBatch( latest.values() );
+                latest.clear();
+            }
+            if ( System.currentTimeMillis() >= nextStats ) {
+                this.game.logQueueStats();
+                nextStats = System.currentTimeMillis() + STATS_INTERVAL;
+            }
+            end += this.tick;
+            // don't try to catch up on ticks missed while sending.
+            end = Math.max( end, System.currentTimeMillis() );
+        }
+    }
+
+    /**
+     * Gives a tile's cell a number that does not depend on the board's size.
+     */
+    private static long cellOf( PlaceTile tile ) {
+        return ( ( long ) tile.getRow() << 32 ) | tile.getCol();
+    }
+}
\ No newline at end of file
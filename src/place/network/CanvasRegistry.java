@@ -0,0 +1,148 @@
+package place.network;
+
+import place.server.ServerConfig;
+import place.server.ServerLog;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Every canvas a server hosts, by name.  Each canvas is a PlaceGame with
+ * its own board, clients, broadcast stage and persistence; what they share
+ * is the server engine that carries the connections, its threads, and the
+ * server log.  A client names its canvas in LOGIN, and one that names none,
+ * or speaks a protocol version too old to, plays on the default canvas.
+ *
+ * The canvases are fixed when the server starts, so they are looked up
+ * without a lock.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class CanvasRegistry {
+
+    /**
+     * The canvases by name, the default first.
+     */
+    private Map< String, PlaceGame > canvases;
+
+    /**
+     * The canvas of clients that name none.
+     */
+    private PlaceGame fallback;
+
+    /**
+     * The server log, log.txt.
+     */
+    private ServerLog log;
+
+    /**
+     * Settings chosen at startup.
+     */
+    private ServerConfig config;
+
+    public CanvasRegistry( ServerConfig config ) throws IOException {
+        this.config = config;
+        this.log = new ServerLog( config );
+        this.canvases = new LinkedHashMap<>();
+        for ( String name : config.getCanvases() ) {
+            this.canvases.put( name, new PlaceGame( name, config.forCanvas( name ), this.log ) );
+        }
+        this.fallback = this.canvases.get( config.getDefaultCanvas() );
+    }
+
+    /**
+     * Starts the background stages of every canvas.  Called by the server
+     * engine before it accepts connections.
+     */
+    public void start() {
+        for ( PlaceGame game : this.canvases.values() ) {
+            game.start();
+        }
+    }
+
+    /**
+     * Finds the canvas a client asked for.
+     *
+     * @param name the canvas name, or empty for the default canvas.
+     * @return the canvas, or null if there is none by that name.
+     */
+    public PlaceGame find( String name ) {
+        return name.isEmpty() ? this.fallback : this.canvases.get( name );
+    }
+
+    /**
+     * Logs and builds the answer to a client that asked for a canvas there
+     * is none of.
+     *
+     * @param name the canvas name.
+     * @return the ERROR to send the client.
+     */
+    PlaceRequest< String > unknownCanvas( String name ) {
+        String errorMsg = "There is no canvas named " + name + " on this server.";
+        logEntry( ServerLog.Level.WARN, errorMsg );
+        return new PlaceRequest<>( PlaceRequest.RequestType.ERROR, errorMsg );
+    }
+
+    /**
+     * Get the canvas of clients that name none.
+     *
+     * @return the default canvas.
+     */
+    public PlaceGame getDefault() {
+        return this.fallback;
+    }
+
+    /**
+     * Get every canvas.
+     *
+     * @return the canvases, the default first.
+     */
+    public Collection< PlaceGame > getAll() {
+        return Collections.unmodifiableCollection( this.canvases.values() );
+    }
+
+    /**
+     * Creates an empty outbound queue for a connection that has not yet
+     * logged in to a canvas; every canvas sizes its queues alike.
+     *
+     * @return the queue.
+     */
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue( this.config.getQueueCapacity(), this.config.getOverflowPolicy() );
+    }
+
+    public ServerLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * Disconnects the clients of every canvas and saves every board that
+     * is kept across restarts.
+     */
+    public void shutdown() {
+        for ( PlaceGame game : this.canvases.values() ) {
+            game.shutdown();
+        }
+    }
+
+    /**
+     * Adds an entry to the server log.  Returns without waiting for it to
+     * be written.
+     *
+     * @param msg the message to be added to the log.
+     */
+    public void logEntry( String msg ) {
+        this.log.log( ServerLog.Level.INFO, msg );
+    }
+
+    /**
+     * Adds an entry of a given level to the server log.  Returns without
+     * waiting for it to be written.
+     *
+     * @param level how important the entry is.
+     * @param msg the message to be added to the log.
+     */
+    public void logEntry( ServerLog.Level level, String msg ) {
+        this.log.log( level, msg );
+    }
+}
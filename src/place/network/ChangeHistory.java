@@ -0,0 +1,87 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded ring of the most recent tile changes, by sequence number.  A
+ * client that reconnects after a short outage is sent the changes it
+ * missed from here instead of the whole board.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class ChangeHistory {
+
+    /**
+     * The changes, each at its sequence number modulo the capacity.
+     */
+    private TileChange[] ring;
+
+    /**
+     * Sequence number of the newest change recorded.
+     */
+    private long lastSeq;
+
+    /**
+     * Sequence number of the first change recorded here.
+     */
+    private long firstSeq;
+
+    /**
+     * Create an empty history.
+     *
+     * @param capacity the number of changes kept.
+     * @param lastSeq sequence number of the last change made before this
+     *                history starts; the next change is lastSeq + 1.
+     */
+    ChangeHistory( int capacity, long lastSeq ) {
+        this.ring = new TileChange[capacity];
+        this.lastSeq = lastSeq;
+        this.firstSeq = lastSeq + 1;
+    }
+
+    /**
+     * Records the next change, pushing out the oldest once full.
+     *
+     * @param tile the tile as it now is on the board.
+     * @return the change with its sequence number.
+     */
+    synchronized TileChange record( PlaceTile tile ) {
+        TileChange change = new TileChange( ++this.lastSeq, tile );
+        this.ring[( int ) ( change.seq % this.ring.length )] = change;
+        return change;
+    }
+
+    /**
+     * Get the sequence number of the newest change recorded.
+     *
+     * @return the sequence number.
+     */
+    synchronized long getLastSeq() {
+        return this.lastSeq;
+    }
+
+    /**
+     * Gets the changes after one sequence number up to another.
+     *
+     * @param after the last change the caller already has.
+     * @param through the last change wanted.
+     * @return the changes, oldest first, or null if some of them are no
+     *         longer kept or after is not a sequence number this history
+     *         has reached.
+     */
+    synchronized List< TileChange > since( long after, long through ) {
+        long oldest = Math.max( this.firstSeq, this.lastSeq - this.ring.length + 1 );
+        if ( after < oldest - 1 || after > through || through > this.lastSeq ) {
+            return null;
+        }
+        List< TileChange > missed = new ArrayList<>( ( int ) ( through - after ) );
+        for ( long seq = after + 1; seq <= through; seq++ ) {
+            missed.add( this.ring[( int ) ( seq % this.ring.length )] );
+        }
+        return missed;
+    }
+}
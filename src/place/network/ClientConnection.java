@@ -0,0 +1,95 @@
+package place.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The server's view of one logged in client, whichever server engine is
+ * carrying it.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public interface ClientConnection {
+
+    /**
+     * Queues a request for the client.  It is never dropped.
+     *
+     * @param req the request.
+     * @throws IOException if the client can no longer be reached.
+     */
+    void send( PlaceRequest< ? > req ) throws IOException;
+
+    /**
+     * Queues a frame that was encoded once for this connection's protocol
+     * version and may be shared with other clients.  It is never dropped.
+     * The buffer's position is not changed.
+     *
+     * @param frame the encoded frame.
+     * @throws IOException if the client can no longer be reached.
+     */
+    void sendFrame( ByteBuffer frame ) throws IOException;
+
+    /**
+     * Queues a shared frame that updates one cell.  If the client has
+     * fallen behind it may be dropped, replaced by a newer update for the
+     * same cell, or cause the client to be disconnected, as the server's
+     * overflow policy says.
+     *
+     * @param frame the encoded frame.
+     * @param cell the cell's index, row * DIM + col, OutboundQueue.BATCH
+     *             for a frame that updates many cells, or
+     *             OutboundQueue.LOGIN for a frame of the client's login.
+     * @throws IOException if the client can no longer be reached.
+     */
+    void sendUpdate( ByteBuffer frame, int cell ) throws IOException;
+
+    /**
+     * Get the queue of frames waiting to be written to the client, for its
+     * depth and drop counters.
+     *
+     * @return the outbound queue.
+     */
+    OutboundQueue getOutbound();
+
+    /**
+     * Get the name the client logged in with.
+     *
+     * @return the username.
+     */
+    String getUsername();
+
+    /**
+     * Get the protocol version agreed with the client at login.
+     *
+     * @return the protocol version.
+     */
+    int getVersion();
+
+    /**
+     * Get what the client said at login it already has from an earlier
+     * connection.
+     *
+     * @return the resume point, or null if it wants the whole board.
+     */
+    ResumePoint getResume();
+
+    /**
+     * Get the secret token the server gave this session at login, which a
+     * reconnect of the same client shows to take over its name.
+     *
+     * @return the token, or 0 if the client's version has none.
+     */
+    long getToken();
+
+    /**
+     * Disconnects the client as soon as the frames already queued for it
+     * have been written, so a refusal can be delivered before hanging up.
+     */
+    void closeWhenFlushed();
+
+    /**
+     * Disconnects the client.
+     */
+    void close();
+}
@@ -1,10 +1,9 @@
 package place.network;
 
-import place.PlaceBoard;
 import place.PlaceTile;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import place.server.ServerLog;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.net.*;
 import java.io.*;
 
@@ -15,7 +14,7 @@ import java.io.*;
  * @author Ket-Meng Cheng
  * @author Ethan Cantor
  */
-public class ClientServerThread extends Thread{
+public class ClientServerThread extends Thread implements ClientConnection {
     
     /**
      * Socket connection for each client.
@@ -23,19 +22,9 @@ public class ClientServerThread extends Thread{
     private Socket sock;
 
     /**
-     * Input stream that handles incoming protocol messages.
+     * Framed connection that handles incoming and outgoing protocol messages.
      */
-    private ObjectInputStream in;
-
-    /**
-     * Output stream that handles outcoming protocol messages.
-     */
-    private ObjectOutputStream out;
-
-    /**
-     * PrintWriter for writing to log.
-     */
-    private PrintWriter pw;
+    private PlaceExchange exchange;
 
     /**
      * Name of each of the clients.
@@ -43,137 +32,152 @@ public class ClientServerThread extends Thread{
     private String name;
 
     /**
-     * Server-side board instance used to ensure valid moves.
+     * Game the client is playing; validates moves and distributes updates.
      */
-    private PlaceBoard board; 
+    private PlaceGame game;
 
     /**
-     * Map used to ensure unique clients and handle distribution
-     * of board updates.
+     * Frames waiting to be written to the client.
      */
-    private Map< String, ObjectOutputStream > clients; 
+    private OutboundQueue outbound;
 
     /**
      * Determinant on whether or not to continue playing.
      */
-    private boolean go;
+    private volatile boolean go;
     
-    public ClientServerThread( String name, Socket sock, ObjectInputStream in, ObjectOutputStream out, PrintWriter pw, PlaceBoard board, Map< String, ObjectOutputStream > clients, boolean go ) throws IOException, ClassNotFoundException { 
+    public ClientServerThread( String name, Socket sock, PlaceExchange exchange, PlaceGame game ) {
         this.sock = sock; 
         this.name = name;
-        this.in = in;
-        this.out = out;
-        this.pw = pw;
-        this.board = board;
-        this.clients = clients;
-        this.go = go;
+        this.exchange = exchange;
+        this.game = game;
+        this.outbound = game.newOutboundQueue();
+        this.go = true;
+        // the writer runs from the start, so the login reply goes out even
+        // if this thread never does.
+        ( new ClientWriter( name, this.outbound, exchange ) ).start();
     }
 
     /**
-     * Main run method for the thread, used to communicate a login
-     * confimation and a representation of a board.
+     * Main run method for the thread.  The login confirmation and board
+     * have already been sent by PlaceGame.login.  However the game loop
+     * ends, the client is logged out, so its name is free again and no
+     * more updates are encoded for it.
      */
-    public synchronized void run() {
+    public void run() {
         System.out.println( "Player " + this.name + " (" + this.sock.getRemoteSocketAddress() + ") has connected!" );
-        PlaceRequest<String> loginSuccess = new PlaceRequest<>( PlaceRequest.RequestType.LOGIN_SUCCESS, "You have connected to the server, you are now playing on a " + this.board.DIM + "x" + this.board.DIM + " board." );
-        PlaceRequest<PlaceBoard> boardReq = new PlaceRequest<>( PlaceRequest.RequestType.BOARD, this.board );
 
         try {
-            logEntry( "Login successful for " + name );
-            this.out.writeUnshared( loginSuccess );
-            this.out.flush();
-            this.out.writeUnshared( boardReq );
-            this.out.flush();
-
             playGame();
-            
-        } catch ( InterruptedException | ClassNotFoundException | IOException ioe ) {
+        } catch ( ClassNotFoundException | IOException ioe ) {
             System.out.println( ioe );
-        } 
+        } finally {
+            this.game.logout( this.name, this );
+            close();
+        }
     }
 
     /**
      * Main game loop that continually reads in client messages.
      */
-    private void playGame() throws IOException, ClassNotFoundException, InterruptedException {
+    private void playGame() throws IOException, ClassNotFoundException {
         try {
             while ( go ) {
-                PlaceRequest< ? > req = ( PlaceRequest< ? > ) this.in.readUnshared();
+                PlaceRequest< ? > req = this.exchange.receive();
 
                 if ( req.getType() == PlaceRequest.RequestType.CHANGE_TILE ) {
-                    PlaceTile tile = (PlaceTile) req.getData();
-                    if ( this.board.isValid( tile ) ) {
-                        System.out.println( tile );
-                        this.board.setTile( tile );
-                        sendUpdates( tile, this.clients );
-                    }
-                    else {
-                        sendError( "Invalid tile placement." );
-                    }
-                } 
-                // cooldown between moves.
-                sleep( 50 );
+                    this.game.changeTile( this, (PlaceTile) req.getData() );
+                }
+                else if ( req.getType() == PlaceRequest.RequestType.CHANGE_TILES ) {
+                    this.game.changeTiles( this, (List< ? >) req.getData() );
+                }
+                else if ( req.getType() == PlaceRequest.RequestType.SUBSCRIBE ) {
+                    this.game.subscribe( this, (BoardRegion) req.getData() );
+                }
             }
-            this.in.close();
-            this.out.close();
-            this.sock.close();
         } catch ( EOFException | SocketException se ) {
             System.out.println( "Player " + name + " disconnected." );
-            removePlayer( this.name, this.clients );
         }
     }
 
     /**
-     * Removes the specified player from the map of clients.
-     * 
-     * @param name client name to be deleted.
-     * @param clients map of clients.
+     * Queues a request for this thread's client.
+     *
+     * @param req the request.
      */
-    private synchronized static void removePlayer( String name, Map< String, ObjectOutputStream > clients ) {
-        clients.remove( name );
+    @Override
+    public void send( PlaceRequest< ? > req ) throws IOException {
+        sendFrame( this.exchange.encode( req ) );
     }
 
     /**
-     * Sends updates to every client within the map.
+     * Queues an encoded frame for this thread's client.  If the queue is
+     * full and the overflow policy is to disconnect, the client is logged
+     * out and disconnected rather than left to miss the frame.
      *
-     * @param tile the tile to be updated.
-     * @param clients the map of clients to be updated.
+     * @param frame the encoded frame.
      */
-    private synchronized void sendUpdates( PlaceTile tile, Map< String, ObjectOutputStream > clients ) throws IOException, InterruptedException {
-        PlaceRequest<PlaceTile> tileChange = new PlaceRequest<>( PlaceRequest.RequestType.TILE_CHANGED, tile );
-        logEntry( "Sending tiles to players: \n" + tile.toString() );
-
-        // for every client, send them a changed tile.
-        for ( String name : clients.keySet() ) {
-            ObjectOutputStream out = clients.get( name );
-            out.writeUnshared( tileChange );
-            out.flush();
+    @Override
+    public void sendFrame( ByteBuffer frame ) throws IOException {
+        if ( !this.outbound.offer( frame, OutboundQueue.ESSENTIAL ) ) {
+            this.game.logEntry( ServerLog.Level.WARN, "Disconnecting " + this.name + ", who fell " + this.outbound.getDepth() + " frames behind." );
+            this.game.logout( this.name, this );
+            close();
         }
     }
 
     /**
-     * Sends an error message back to the client.
-     * 
-     * @param string error message.
+     * Queues a tile update for this thread's client.
+     *
+     * @param frame the encoded frame.
+     * @param cell the updated cell.
      */
-    private void sendError( String string ) throws IOException {
-        logEntry( string );
-        PlaceRequest< String > error = new PlaceRequest( PlaceRequest.RequestType.ERROR, string );
-        this.out.writeUnshared( error );
-        this.out.flush();
+    @Override
+    public void sendUpdate( ByteBuffer frame, int cell ) throws IOException {
+        if ( !this.outbound.offer( frame, cell ) ) {
+            this.game.logEntry( ServerLog.Level.WARN, "Disconnecting " + this.name + ", who fell " + this.outbound.getDepth() + " updates behind." );
+            close();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return this.outbound;
+    }
+
+    @Override
+    public String getUsername() {
+        return this.name;
+    }
+
+    @Override
+    public int getVersion() {
+        return this.exchange.getVersion();
+    }
+
+    @Override
+    public ResumePoint getResume() {
+        return this.exchange.getResume();
+    }
+
+    @Override
+    public long getToken() {
+        return this.exchange.getToken();
+    }
+
+    @Override
+    public void closeWhenFlushed() {
+        this.go = false;
+        this.outbound.finish();
     }
 
     /**
-     * Generates a log entry with timestamps.
-     * 
-     * @param msg the message to be added to the log.
+     * Stops the game loop and closes the socket, which wakes the loop up.
      */
-    public void logEntry( String msg ) {
-        // generates timestamps.
-        DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        Calendar cal = Calendar.getInstance();
-        this.pw.println( "[" + df.format( cal.getTime() ) + "]" );
-        this.pw.println( msg );
-        this.pw.println();
+    @Override
+    public void close() {
+        this.go = false;
+        this.outbound.finish();
+        this.exchange.close();
     }
 }
@@ -0,0 +1,51 @@
+package place.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes one client's outbound queue to its socket for the thread-per-client
+ * engine.  Frames that are already waiting are written together and flushed
+ * once.  A client that stops reading blocks only this thread.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class ClientWriter extends Thread {
+
+    /**
+     * Frames waiting for the client.
+     */
+    private OutboundQueue queue;
+
+    /**
+     * The client's framed connection.
+     */
+    private PlaceExchange exchange;
+
+    ClientWriter( String name, OutboundQueue queue, PlaceExchange exchange ) {
+        super( "place-writer-" + name );
+        this.queue = queue;
+        this.exchange = exchange;
+        setDaemon( true );
+    }
+
+    /**
+     * Writes frames until the queue is finished, then closes the connection.
+     */
+    public void run() {
+        try {
+            ByteBuffer frame;
+            while ( ( frame = this.queue.take() ) != null ) {
+                this.exchange.writeFrame( frame );
+                while ( ( frame = this.queue.poll() ) != null ) {
+                    this.exchange.writeFrame( frame );
+                }
+                this.exchange.flush();
+            }
+        } catch ( IOException | InterruptedException e ) {
+            // the client's reading thread notices and logs it out.
+        }
+        this.exchange.close();
+    }
+}
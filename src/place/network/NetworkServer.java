@@ -1,18 +1,25 @@
 package place.network;
 
 import place.PlaceException;
-import place.PlaceBoard;
 import place.server.PlaceExitListener;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.time.*;
+import place.server.ServerConfig;
+import place.server.ServerLog;
 import java.io.*;
-import java.util.*;
 import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Continually spawns ClientServerThreads for every new socket connection. 
- * Creates, but does not maintain Map of clients and PlaceBoard.
+ * Creates, but does not maintain, the canvases they play on.
+ *
+ * The accepting thread only accepts.  Each new socket is handed to a small
+ * pool of login threads, which wait for its LOGIN for at most the login
+ * timeout, so a client that connects and says nothing holds up no one but
+ * one login thread for a while.  Sockets arriving faster than the pool
+ * logs them in wait in a bounded queue; past that they are closed.  Each
+ * silent client still ties up a thread until it times out; NioNetworkServer
+ * waits for LOGIN without one.
  * 
  * @author Ket-Meng Cheng
  * @author Ethan Cantor
@@ -20,43 +27,55 @@ import java.net.*;
 public class NetworkServer {
 
     /**
-     * Server-side socket, opens specified port for incoming connections.
+     * Connections the operating system may hold before they are accepted.
      */
-    private ServerSocket server;
+    private static final int ACCEPT_BACKLOG = 4096;
 
     /**
-     * Server-side PlaceBoard used to store a copy to deliver to clients,
-     * and ensure valid moves.
+     * Accepted connections that may wait for a login thread.
      */
-    private PlaceBoard board;
+    private static final int LOGIN_BACKLOG = 4096;
 
     /**
-     * Map of connected clients and their ObjectOutputStreams; used to update
-     * all player boards. Additionally used to check for unique names.
+     * Server-side socket, opens specified port for incoming connections.
      */
-    private Map< String, ObjectOutputStream > clients;
+    private ServerSocket server;
 
     /**
-     * Map for maintaining client input streams; used to gracefully close all streams
-     * when exiting.
+     * The canvases the client threads play on.
      */
-    private Map< String, ObjectInputStream > clientsIn;
+    private CanvasRegistry canvases;
 
     /**
-     * PrintWriter for writing to server logs.
+     * Threads that read the LOGIN of new connections.
      */
-    private PrintWriter pw;
+    private ThreadPoolExecutor logins;
+
+    /**
+     * Milliseconds a new connection has to send LOGIN.
+     */
+    private int loginTimeout;
 
     public NetworkServer( int port, int dim ) throws PlaceException {
+        this( new ServerConfig( dim, port ) );
+    }
+
+    public NetworkServer( ServerConfig config ) throws PlaceException {
         try {
-            this.server = new ServerSocket( port );
+            this.server = new ServerSocket( config.getPort(), ACCEPT_BACKLOG );
             // timeout added as to refresh, looking for a changed while(go).
             this.server.setSoTimeout( 1000 );
-            this.clients = new HashMap<>();
-            this.clientsIn = new HashMap<>();
-            this.board = new PlaceBoard( dim );
-            // stores log information in log.txt.
-            this.pw = new PrintWriter( new FileWriter( "log.txt" ) );
+            this.canvases = new CanvasRegistry( config );
+            this.loginTimeout = config.getLoginTimeout();
+            AtomicInteger threads = new AtomicInteger();
+            this.logins = new ThreadPoolExecutor( config.getLoginThreads(), config.getLoginThreads(), 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>( LOGIN_BACKLOG ), task -> {
+                        Thread thread = new Thread( task, "place-login-" + threads.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    } );
+            // threads only exist while logins are coming in.
+            this.logins.allowCoreThreadTimeOut( true );
         } catch ( IOException ioe ) {
             throw new PlaceException( ioe );
         }
@@ -68,12 +87,7 @@ public class NetworkServer {
      * @param msg the message to be added to the log.
      */
     public void logEntry( String msg ) {
-        // generates timestamps.
-        DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        Calendar cal = Calendar.getInstance();
-        this.pw.println( "[" + df.format( cal.getTime() ) + "]" );
-        this.pw.println( msg );
-        this.pw.println();
+        this.canvases.logEntry( msg );
     }
 
     /**
@@ -82,50 +96,100 @@ public class NetworkServer {
      */
     public void run() throws PlaceException, IOException {
         try {
+            this.canvases.start();
             logEntry( "Server started." );
 
             // starts the exit listener that polls for Enter.
-            PlaceExitListener listener = new PlaceExitListener( this.pw, true, clientsIn );
+            PlaceExitListener listener = new PlaceExitListener( this.canvases.getLog(), true, this.canvases );
             listener.start();
 
             // will stop looping upon pressing the Enter key.
+            System.out.println( "Listening for new players..." );
             while( listener.getGo() ) {
-                System.out.println( "Listening for new players..." );
                 try {
                     // .accept() will stop when .close() is called in the PlaceExitListener, 
                     // exiting out of the lock.
                     Socket sock = this.server.accept();
-                    ObjectInputStream in = new ObjectInputStream( sock.getInputStream() );
-                    ObjectOutputStream out = new ObjectOutputStream( sock.getOutputStream() );
-
-                    PlaceRequest< ? > req = ( PlaceRequest< ? > ) in.readUnshared();
-                    String name = (String) req.getData();
-
-                    logEntry( name + " has connected." );
-
-                    // if there is no person with that name, continue as planned.
-                    if ( !this.clients.containsKey( name ) ) {
-                        ( new ClientServerThread( name, sock, in, out, pw, board, clients, listener.getGo() ) ).start();
-                        // associates client names with both their output streams (for sending)
-                        // and input streams (for closing when done).
-                        clients.put( name, out );
-                        clientsIn.put( name, in );
-                    }
-                    // if name exists, reject connection.
-                    else {
-                        String errorMsg = "Someone has already logged onto the server with the username " + name;
-                        PlaceRequest<String> usernameErr = new PlaceRequest<>(PlaceRequest.RequestType.ERROR, errorMsg);
-                        out.writeUnshared(usernameErr);
-                        out.flush();
-                        in.close();
-                        out.close();
+                    try {
+                        this.logins.execute( () -> login( sock ) );
+                    } catch ( RejectedExecutionException ree ) {
+                        this.canvases.logEntry( ServerLog.Level.WARN, "Too many logins waiting; closing a new connection." );
                         sock.close();
                     }
                 } catch ( SocketTimeoutException ste ) {
                 }
             }
-        } catch ( IOException | ClassNotFoundException e ) {
+            this.logins.shutdownNow();
+            this.server.close();
+        } catch ( IOException e ) {
             System.out.println( e + "ERROR!" );
         }
     }
+
+    /**
+     * Reads a new connection's LOGIN and logs it in to the canvas it names,
+     * starting its ClientServerThread.  Runs on a login thread.  The
+     * connection is closed if LOGIN does not arrive within the login
+     * timeout, or the login is refused.
+     *
+     * @param sock the new connection.
+     */
+    private void login( Socket sock ) {
+        PlaceGame game = null;
+        ClientServerThread client = null;
+        try {
+            sock.setSoTimeout( this.loginTimeout );
+            PlaceExchange exchange = new PlaceExchange( sock, this.canvases.getDefault().getOwners() );
+
+            PlaceRequest< ? > req = exchange.receive();
+            if ( req.getType() != PlaceRequest.RequestType.LOGIN ) {
+                throw new StreamCorruptedException( "Expected LOGIN, got " + req.getType() );
+            }
+            String name = (String) req.getData();
+            // from now on the client may stay quiet as long as it likes.
+            sock.setSoTimeout( 0 );
+
+            game = this.canvases.find( exchange.getCanvas() );
+            if ( game == null ) {
+                exchange.send( this.canvases.unknownCanvas( exchange.getCanvas() ) );
+                exchange.close();
+                return;
+            }
+            exchange.setOwners( game.getOwners() );
+            client = new ClientServerThread( name, sock, exchange, game );
+            // if there is no person with that name, continue as planned.
+            if ( game.login( name, client ) ) {
+                client.start();
+            }
+            // if name exists, the login was rejected.
+            else {
+                client.closeWhenFlushed();
+            }
+        } catch ( SocketTimeoutException ste ) {
+            this.canvases.logEntry( ServerLog.Level.WARN, "No LOGIN from " + sock.getRemoteSocketAddress() + " within " + this.loginTimeout + " ms; closing." );
+            close( sock );
+        } catch ( IOException | ClassNotFoundException | RuntimeException e ) {
+            System.out.println( "Login from " + sock.getRemoteSocketAddress() + " failed: " + e );
+            if ( client != null ) {
+                // the login may have got as far as taking the name; closing
+                // also stops the writer, which would otherwise wait forever.
+                game.logout( client.getUsername(), client );
+                client.close();
+            }
+            close( sock );
+        }
+    }
+
+    /**
+     * Closes a connection that never logged in.
+     *
+     * @param sock the connection.
+     */
+    private static void close( Socket sock ) {
+        try {
+            sock.close();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
 }
@@ -0,0 +1,417 @@
+package place.network;
+
+import place.PlaceTile;
+import place.server.ServerLog;
+import java.io.*;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One client of the non-blocking server.  Incoming bytes are collected until
+ * a whole frame has arrived; outgoing frames are queued by any thread and
+ * written by the owning NioEventLoop when the socket has room.  LOGIN is
+ * carried out on a login thread; until it is done the connection is not
+ * read, and requests that arrived after LOGIN wait their turn.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class NioClientConnection implements ClientConnection {
+
+    /**
+     * Largest frame a client may send; clients only send small requests.
+     */
+    private static final int MAX_INBOUND = PlaceExchange.MAX_INBOUND;
+
+    /**
+     * The client's channel.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The channel's registration with its loop's selector.
+     */
+    private SelectionKey key;
+
+    /**
+     * Loop that owns the channel.
+     */
+    private NioEventLoop loop;
+
+    /**
+     * The canvases the client may log in to.
+     */
+    private CanvasRegistry canvases;
+
+    /**
+     * The game of the canvas the client plays on; null until LOGIN
+     * arrives, and nothing is queued before then but one ERROR.
+     */
+    private PlaceGame game;
+
+    /**
+     * Encodes and decodes this connection's frames.
+     */
+    private PlaceCodec codec;
+
+    /**
+     * Requests decoded from the current frame, waiting to be handled.
+     */
+    private Queue< PlaceRequest< ? > > decoded;
+
+    /**
+     * Bytes read but not yet decoded, in write mode.
+     */
+    private ByteBuffer in;
+
+    /**
+     * Frames waiting to be written, oldest first.
+     */
+    private OutboundQueue out;
+
+    /**
+     * Frame being written; the socket has taken only part of it.
+     */
+    private ByteBuffer current;
+
+    /**
+     * Whether the loop has been asked to write, or is writing, this
+     * connection's output.
+     */
+    private AtomicBoolean writing;
+
+    /**
+     * Name the client logged in as; null until its login has succeeded.
+     */
+    private String name;
+
+    /**
+     * Name the client asked for in its LOGIN; null until LOGIN arrives.
+     * It may be claimed before the login has finished, so it is the one
+     * logged out.
+     */
+    private volatile String requested;
+
+    /**
+     * Whether a login thread is logging the client in.  Only used by the
+     * owning loop.
+     */
+    private boolean loggingIn;
+
+    /**
+     * When the client must have sent LOGIN by, in System.nanoTime.
+     */
+    private long loginDeadline;
+
+    NioClientConnection( SocketChannel channel, SelectionKey key, NioEventLoop loop, CanvasRegistry canvases, long loginDeadline ) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.canvases = canvases;
+        this.codec = new PlaceCodec( canvases.getDefault().getOwners(), true, PlaceCodec.MAX_VERSION );
+        this.decoded = new ArrayDeque<>();
+        this.in = ByteBuffer.allocate( 4096 );
+        this.out = canvases.newOutboundQueue();
+        this.writing = new AtomicBoolean();
+        this.loginDeadline = loginDeadline;
+    }
+
+    long getLoginDeadline() {
+        return this.loginDeadline;
+    }
+
+    /**
+     * Tells whether the client is still open and has not logged in.  Only
+     * called by the owning loop.
+     *
+     * @return true if LOGIN is still awaited.
+     */
+    boolean isWaitingForLogin() {
+        return this.requested == null && this.channel.isOpen();
+    }
+
+    /**
+     * Get the client's address, for the log.
+     *
+     * @return the address, or null if it cannot be found.
+     */
+    SocketAddress getRemoteAddress() {
+        try {
+            return this.channel.getRemoteAddress();
+        } catch ( IOException ioe ) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads what the socket has and handles every complete frame.  Only
+     * called by the owning loop.
+     */
+    void read() throws IOException, ClassNotFoundException {
+        if ( this.channel.read( this.in ) < 0 ) {
+            throw new EOFException();
+        }
+        this.in.flip();
+        if ( !handleFrames() ) {
+            return;
+        }
+        this.in.compact();
+
+        // make room for a frame larger than the buffer.
+        if ( this.in.position() >= 4 ) {
+            int needed = 4 + this.in.getInt( 0 );
+            if ( needed > this.in.capacity() ) {
+                ByteBuffer bigger = ByteBuffer.allocate( needed );
+                this.in.flip();
+                bigger.put( this.in );
+                this.in = bigger;
+            }
+        }
+    }
+
+    /**
+     * Handles the requests waiting to be handled and every complete frame
+     * read, until a LOGIN is handed to a login thread.  Requests and bytes
+     * not handled are kept for when the login has finished.
+     *
+     * @return false if the connection was closed.
+     */
+    private boolean handleFrames() throws IOException, ClassNotFoundException {
+        PlaceRequest< ? > req;
+        while ( !this.loggingIn && ( req = this.decoded.poll() ) != null ) {
+            handle( req );
+        }
+        while ( !this.loggingIn && this.in.remaining() >= 4 ) {
+            int length = this.in.getInt( this.in.position() );
+            if ( length <= 0 || length > MAX_INBOUND ) {
+                throw new StreamCorruptedException( "Bad frame length " + length );
+            }
+            if ( this.in.remaining() < 4 + length ) {
+                break;
+            }
+            ByteBuffer body = this.in.duplicate();
+            body.position( this.in.position() + 4 );
+            body.limit( body.position() + length );
+            this.in.position( body.limit() );
+            this.codec.decode( body, this.decoded );
+            while ( !this.loggingIn && ( req = this.decoded.poll() ) != null ) {
+                handle( req );
+            }
+            if ( !this.channel.isOpen() ) {
+                return false;
+            }
+        }
+        return this.channel.isOpen();
+    }
+
+    /**
+     * Carries on with the client once its login thread is done: closes it
+     * if the login was refused, or else handles whatever it sent after
+     * LOGIN and starts reading it again.  Only called by the owning loop.
+     */
+    void resume() throws IOException, ClassNotFoundException {
+        this.loggingIn = false;
+        if ( this.name == null ) {
+            closeWhenFlushed();
+            return;
+        }
+        System.out.println( "Player " + this.name + " (" + this.channel.getRemoteAddress() + ") has connected!" );
+        this.in.flip();
+        boolean open = handleFrames();
+        this.in.compact();
+        if ( open ) {
+            interest( this.writing.get() );
+        }
+    }
+
+    /**
+     * Acts on one request from the client.
+     *
+     * @param req the request.
+     */
+    private void handle( PlaceRequest< ? > req ) throws IOException {
+        if ( this.name == null ) {
+            if ( req.getType() != PlaceRequest.RequestType.LOGIN ) {
+                throw new StreamCorruptedException( "Expected LOGIN, got " + req.getType() );
+            }
+            PlaceGame game = this.canvases.find( this.codec.getCanvas() );
+            if ( game == null ) {
+                send( this.canvases.unknownCanvas( this.codec.getCanvas() ) );
+                closeWhenFlushed();
+                return;
+            }
+            this.game = game;
+            this.codec.setOwners( game.getOwners() );
+            this.requested = (String) req.getData();
+            this.loggingIn = true;
+            interest( this.writing.get() );
+            try {
+                this.loop.login( this::login );
+            } catch ( RejectedExecutionException ree ) {
+                this.canvases.logEntry( ServerLog.Level.WARN, "Too many logins waiting; closing a new connection." );
+                close();
+            }
+        }
+        else if ( req.getType() == PlaceRequest.RequestType.CHANGE_TILE ) {
+            this.game.changeTile( this, (PlaceTile) req.getData() );
+        }
+        else if ( req.getType() == PlaceRequest.RequestType.CHANGE_TILES ) {
+            this.game.changeTiles( this, (List< ? >) req.getData() );
+        }
+        else if ( req.getType() == PlaceRequest.RequestType.SUBSCRIBE ) {
+            this.game.subscribe( this, (BoardRegion) req.getData() );
+        }
+    }
+
+    /**
+     * Logs the client in and sends it the board.  Runs on a login thread,
+     * then hands the connection back to the loop.
+     */
+    private void login() {
+        try {
+            if ( this.game.login( this.requested, this ) ) {
+                this.name = this.requested;
+            }
+        } catch ( IOException | RuntimeException e ) {
+            System.out.println( "Login of " + this.requested + " failed: " + e );
+            close();
+        }
+        this.loop.loginFinished( this );
+    }
+
+    /**
+     * Writes as much queued output as the socket takes.  Only called by the
+     * owning loop.
+     */
+    void write() throws IOException {
+        while ( this.current != null || ( this.current = this.out.poll() ) != null ) {
+            this.channel.write( this.current );
+            if ( this.current.hasRemaining() ) {
+                // socket is full; OP_WRITE stays on.
+                return;
+            }
+            this.current = null;
+        }
+        interest( false );
+        this.writing.set( false );
+
+        // a frame queued after the last poll would otherwise sit unsent.
+        if ( !this.out.isEmpty() && this.writing.compareAndSet( false, true ) ) {
+            enableWrite();
+        }
+        if ( this.out.isFinished() && this.out.isEmpty() ) {
+            close();
+        }
+    }
+
+    /**
+     * Starts watching for the socket to accept output.  Only called by the
+     * owning loop.
+     */
+    void enableWrite() {
+        interest( true );
+    }
+
+    /**
+     * Sets what the loop watches the socket for: reading, unless a login
+     * is under way, and writing if asked.  Only called by the owning loop.
+     *
+     * @param write whether to watch for the socket accepting output.
+     */
+    private void interest( boolean write ) {
+        if ( this.key.isValid() ) {
+            this.key.interestOps( ( this.loggingIn ? 0 : SelectionKey.OP_READ ) | ( write ? SelectionKey.OP_WRITE : 0 ) );
+        }
+    }
+
+    @Override
+    public void send( PlaceRequest< ? > req ) throws IOException {
+        sendFrame( this.codec.encode( req ) );
+    }
+
+    @Override
+    public void sendFrame( ByteBuffer frame ) throws IOException {
+        sendUpdate( frame, OutboundQueue.ESSENTIAL );
+    }
+
+    @Override
+    public void sendUpdate( ByteBuffer frame, int cell ) throws IOException {
+        if ( !this.channel.isOpen() ) {
+            throw new ClosedChannelException();
+        }
+        if ( !this.out.offer( frame.duplicate(), cell ) ) {
+            this.game.logEntry( ServerLog.Level.WARN, "Disconnecting " + this.requested + ", who fell " + this.out.getDepth() + " updates behind." );
+            close();
+            return;
+        }
+        requestWrite();
+    }
+
+    /**
+     * Makes sure the owning loop will write the queued output.
+     */
+    private void requestWrite() {
+        if ( this.writing.compareAndSet( false, true ) ) {
+            this.loop.requestWrite( this );
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return this.out;
+    }
+
+    @Override
+    public void closeWhenFlushed() {
+        this.out.finish();
+        // an empty queue still needs a write pass to notice and close.
+        this.writing.set( false );
+        requestWrite();
+    }
+
+    /**
+     * Get the name the client asked for; the game knows it by that name
+     * from the moment its login starts, before the login thread is done.
+     *
+     * @return the name, or null until LOGIN arrives.
+     */
+    @Override
+    public String getUsername() {
+        return this.requested;
+    }
+
+    @Override
+    public int getVersion() {
+        return this.codec.getVersion();
+    }
+
+    @Override
+    public ResumePoint getResume() {
+        return this.codec.getResume();
+    }
+
+    @Override
+    public long getToken() {
+        return this.codec.getToken();
+    }
+
+    @Override
+    public void close() {
+        this.out.finish();
+        if ( this.requested != null ) {
+            this.game.logout( this.requested, this );
+        }
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+}
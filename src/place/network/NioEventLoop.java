@@ -0,0 +1,238 @@
+package place.network;
+
+import place.server.ServerLog;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread of the non-blocking server.  It owns a selector and every
+ * connection registered with it, and is the only thread that reads from or
+ * writes to those channels.  Other threads hand it work through queues and
+ * wake the selector up.
+ *
+ * A connection that has not sent LOGIN within the login timeout is closed,
+ * so clients that connect and say nothing cannot pile up.  A LOGIN that
+ * has arrived is carried out by a login thread, since sending the board
+ * may take seconds; the connection is not read again until it is done.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class NioEventLoop extends Thread {
+
+    /**
+     * Selector for this loop's connections.
+     */
+    private Selector selector;
+
+    /**
+     * The canvases the connections play on.
+     */
+    private CanvasRegistry canvases;
+
+    /**
+     * Newly accepted channels waiting to be registered.
+     */
+    private Queue< SocketChannel > accepted;
+
+    /**
+     * Connections with output waiting for OP_WRITE to be enabled.
+     */
+    private Queue< NioClientConnection > writers;
+
+    /**
+     * Connections whose login thread has finished with them.
+     */
+    private Queue< NioClientConnection > loggedIn;
+
+    /**
+     * Threads that carry out logins.
+     */
+    private Executor logins;
+
+    /**
+     * Connections registered by this loop that may not have logged in yet,
+     * oldest first, so the first is always the next to time out.  Only
+     * used by the loop.
+     */
+    private Queue< NioClientConnection > unnamed;
+
+    /**
+     * Nanoseconds a connection has to send LOGIN.
+     */
+    private long loginTimeout;
+
+    /**
+     * Whether the loop should keep running.
+     */
+    private volatile boolean running;
+
+    NioEventLoop( int id, CanvasRegistry canvases, int loginTimeout, Executor logins ) throws IOException {
+        super( "place-loop-" + id );
+        this.selector = Selector.open();
+        this.canvases = canvases;
+        this.accepted = new ConcurrentLinkedQueue<>();
+        this.writers = new ConcurrentLinkedQueue<>();
+        this.loggedIn = new ConcurrentLinkedQueue<>();
+        this.logins = logins;
+        this.unnamed = new ArrayDeque<>();
+        this.loginTimeout = TimeUnit.MILLISECONDS.toNanos( loginTimeout );
+        this.running = true;
+        setDaemon( true );
+    }
+
+    /**
+     * Hands a freshly accepted channel to this loop.
+     *
+     * @param channel a non-blocking channel.
+     */
+    void register( SocketChannel channel ) {
+        this.accepted.add( channel );
+        this.selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to start writing a connection's pending output.
+     *
+     * @param conn a connection owned by this loop.
+     */
+    void requestWrite( NioClientConnection conn ) {
+        this.writers.add( conn );
+        this.selector.wakeup();
+    }
+
+    /**
+     * Runs a login on a login thread.
+     *
+     * @param login the login.
+     * @throws java.util.concurrent.RejectedExecutionException if too many
+     *         logins are waiting.
+     */
+    void login( Runnable login ) {
+        this.logins.execute( login );
+    }
+
+    /**
+     * Hands a connection back to the loop once its login thread is done
+     * with it.
+     *
+     * @param conn a connection owned by this loop.
+     */
+    void loginFinished( NioClientConnection conn ) {
+        this.loggedIn.add( conn );
+        this.selector.wakeup();
+    }
+
+    /**
+     * Stops the loop and closes its connections.
+     */
+    void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Waits for ready connections and services them until shut down.
+     */
+    public void run() {
+        while ( this.running ) {
+            try {
+                NioClientConnection oldest = this.unnamed.peek();
+                this.selector.select( oldest == null ? 0 : Math.max( 1, TimeUnit.NANOSECONDS.toMillis( oldest.getLoginDeadline() - System.nanoTime() ) ) );
+                registerAccepted();
+                enableWrites();
+                resumeLoggedIn();
+
+                Iterator< SelectionKey > keys = this.selector.selectedKeys().iterator();
+                while ( keys.hasNext() ) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientConnection conn = ( NioClientConnection ) key.attachment();
+                    try {
+                        if ( key.isValid() && key.isReadable() ) {
+                            conn.read();
+                        }
+                        if ( key.isValid() && key.isWritable() ) {
+                            conn.write();
+                        }
+                    } catch ( IOException | ClassNotFoundException | ClassCastException | CancelledKeyException e ) {
+                        System.out.println( "Player " + conn.getUsername() + " disconnected." );
+                        conn.close();
+                    }
+                }
+                closeSilent();
+            } catch ( IOException ioe ) {
+                System.out.println( ioe );
+            }
+        }
+
+        for ( SelectionKey key : this.selector.keys() ) {
+            ( ( NioClientConnection ) key.attachment() ).close();
+        }
+        try {
+            this.selector.close();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+
+    /**
+     * Registers channels accepted since the last pass.
+     */
+    private void registerAccepted() throws IOException {
+        SocketChannel channel;
+        while ( ( channel = this.accepted.poll() ) != null ) {
+            SelectionKey key = channel.register( this.selector, SelectionKey.OP_READ );
+            NioClientConnection conn = new NioClientConnection( channel, key, this, this.canvases, System.nanoTime() + this.loginTimeout );
+            key.attach( conn );
+            this.unnamed.add( conn );
+        }
+    }
+
+    /**
+     * Closes connections whose time to send LOGIN is up, and forgets those
+     * that have logged in or gone.
+     */
+    private void closeSilent() {
+        long now = System.nanoTime();
+        NioClientConnection conn;
+        while ( ( conn = this.unnamed.peek() ) != null && ( !conn.isWaitingForLogin() || conn.getLoginDeadline() - now <= 0 ) ) {
+            this.unnamed.poll();
+            if ( conn.isWaitingForLogin() ) {
+                this.canvases.logEntry( ServerLog.Level.WARN, "No LOGIN from " + conn.getRemoteAddress() + " in time; closing." );
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Carries on reading connections whose login has finished.
+     */
+    private void resumeLoggedIn() {
+        NioClientConnection conn;
+        while ( ( conn = this.loggedIn.poll() ) != null ) {
+            try {
+                conn.resume();
+            } catch ( IOException | ClassNotFoundException | ClassCastException | CancelledKeyException e ) {
+                System.out.println( "Player " + conn.getUsername() + " disconnected." );
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Turns on OP_WRITE for connections that have output queued.
+     */
+    private void enableWrites() {
+        NioClientConnection conn;
+        while ( ( conn = this.writers.poll() ) != null ) {
+            conn.enableWrite();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package place.network;
+
+import place.PlaceException;
+import place.server.PlaceExitListener;
+import place.server.ServerConfig;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking alternative to NetworkServer.  Instead of a thread per
+ * client, a small fixed pool of NioEventLoops share every connection, each
+ * loop reading and writing its connections as they become ready.  This
+ * thread only accepts sockets and deals them out to the loops.
+ *
+ * Logging a client in means handing it the board, which for a large board
+ * takes long enough to hold up every other connection of its loop.  The
+ * loops hand each LOGIN to a small pool of login threads instead, and
+ * carry on with the connection once it is logged in.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class NioNetworkServer {
+
+    /**
+     * Connections the operating system may hold before they are accepted.
+     */
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    /**
+     * Logins that may wait for a login thread.
+     */
+    private static final int LOGIN_BACKLOG = 4096;
+
+    /**
+     * Server-side channel, opens specified port for incoming connections.
+     */
+    private ServerSocketChannel server;
+
+    /**
+     * Selector that wakes up when a connection can be accepted.
+     */
+    private Selector acceptor;
+
+    /**
+     * Event loops that own the accepted connections.
+     */
+    private NioEventLoop[] loops;
+
+    /**
+     * The canvases the connections play on; every canvas shares the loops.
+     */
+    private CanvasRegistry canvases;
+
+    /**
+     * Threads that log clients in and send them the board.
+     */
+    private ThreadPoolExecutor logins;
+
+    public NioNetworkServer( ServerConfig config ) throws PlaceException {
+        try {
+            this.canvases = new CanvasRegistry( config );
+            this.server = ServerSocketChannel.open();
+            this.server.bind( new InetSocketAddress( config.getPort() ), ACCEPT_BACKLOG );
+            this.server.configureBlocking( false );
+            this.acceptor = Selector.open();
+            this.server.register( this.acceptor, SelectionKey.OP_ACCEPT );
+            AtomicInteger threads = new AtomicInteger();
+            this.logins = new ThreadPoolExecutor( config.getLoginThreads(), config.getLoginThreads(), 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>( LOGIN_BACKLOG ), task -> {
+                        Thread thread = new Thread( task, "place-login-" + threads.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    } );
+            // threads only exist while logins are coming in.
+            this.logins.allowCoreThreadTimeOut( true );
+            this.loops = new NioEventLoop[config.getEventLoops()];
+            for ( int i = 0; i < this.loops.length; i++ ) {
+                this.loops[i] = new NioEventLoop( i, this.canvases, config.getLoginTimeout(), this.logins );
+            }
+        } catch ( IOException ioe ) {
+            throw new PlaceException( ioe );
+        }
+    }
+
+    /**
+     * Main routine; accepts connections until Enter is pressed.
+     */
+    public void run() throws PlaceException, IOException {
+        this.canvases.start();
+        this.canvases.logEntry( "Server started." );
+
+        // starts the exit listener that polls for Enter.
+        PlaceExitListener listener = new PlaceExitListener( this.canvases.getLog(), true, this.canvases );
+        listener.start();
+        for ( NioEventLoop loop : this.loops ) {
+            loop.start();
+        }
+
+        System.out.println( "Listening for new players..." );
+        int next = 0;
+        // will stop looping upon pressing the Enter key.
+        while ( listener.getGo() ) {
+            // timeout added as to refresh, looking for a changed getGo().
+            if ( this.acceptor.select( 1000 ) == 0 ) {
+                continue;
+            }
+            this.acceptor.selectedKeys().clear();
+            SocketChannel channel;
+            while ( ( channel = this.server.accept() ) != null ) {
+                channel.configureBlocking( false );
+                channel.setOption( StandardSocketOptions.TCP_NODELAY, true );
+                this.loops[next].register( channel );
+                next = ( next + 1 ) % this.loops.length;
+            }
+        }
+
+        for ( NioEventLoop loop : this.loops ) {
+            loop.shutdown();
+        }
+        this.logins.shutdownNow();
+        this.acceptor.close();
+        this.server.close();
+    }
+}
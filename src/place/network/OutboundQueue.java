@@ -0,0 +1,256 @@
+package place.network;
+
+import place.server.ServerConfig;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Bounded queue of frames waiting to be written to one client.  The thread
+ * that accepts a tile change only ever adds to these queues; a writer
+ * drains each one at whatever speed its client reads, so a slow client
+ * backs up nobody but itself.
+ *
+ * Tile updates are tagged with their cell and may be thrown away when the
+ * queue is full, as the overflow policy says.  Every other frame, such as
+ * an owner name, is essential: it is never dropped, and it is accepted
+ * even over capacity unless the policy is to disconnect.  The frames of a
+ * login, the welcome and the board, are always accepted and do not count
+ * against the capacity: a large board alone is sent in many times more
+ * chunks than the queue holds, and a client only logs in once.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class OutboundQueue {
+
+    /**
+     * Cell value for frames that must never be dropped.
+     */
+    static final int ESSENTIAL = -1;
+
+    /**
+     * Cell value for a batch of updates to many cells.  It may be dropped
+     * but never coalesced.
+     */
+    static final int BATCH = -2;
+
+    /**
+     * Cell value for the frames a client is sent as it logs in.  They are
+     * never dropped and are not counted against the capacity.
+     */
+    static final int LOGIN = -3;
+
+    /**
+     * A queued frame and the cell it updates.
+     */
+    private static class Entry {
+        private ByteBuffer frame;
+        private int cell;
+
+        private Entry( ByteBuffer frame, int cell ) {
+            this.frame = frame;
+            this.cell = cell;
+        }
+    }
+
+    /**
+     * Number of frames held before the overflow policy applies.
+     */
+    private int capacity;
+
+    /**
+     * What to do when the queue is full.
+     */
+    private ServerConfig.OverflowPolicy policy;
+
+    /**
+     * Queued frames, oldest first.
+     */
+    private ArrayDeque< Entry > entries;
+
+    /**
+     * Newest queued update for each cell; only kept when coalescing.
+     */
+    private Map< Integer, Entry > newest;
+
+    /**
+     * Number of queued frames counted against the capacity: all but the
+     * login frames.
+     */
+    private int counted;
+
+    /**
+     * Number of updates dropped or replaced because the queue was full.
+     */
+    private long drops;
+
+    /**
+     * Largest depth the queue has reached.
+     */
+    private int highWater;
+
+    /**
+     * No more frames will be added; the writer closes the connection once
+     * the queue is empty.
+     */
+    private boolean finished;
+
+    OutboundQueue( int capacity, ServerConfig.OverflowPolicy policy ) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.entries = new ArrayDeque<>();
+        this.newest = new HashMap<>();
+    }
+
+    /**
+     * Adds a frame, applying the overflow policy if the queue is full.
+     *
+     * @param frame the encoded frame; it is not copied.
+     * @param cell the cell a tile update is for, or ESSENTIAL, BATCH or
+     *             LOGIN.
+     * @return false if the client should be disconnected instead.
+     */
+    synchronized boolean offer( ByteBuffer frame, int cell ) {
+        if ( this.finished ) {
+            return true;
+        }
+        if ( cell != LOGIN && this.counted >= this.capacity ) {
+            if ( this.policy == ServerConfig.OverflowPolicy.DISCONNECT ) {
+                return false;
+            }
+            if ( cell != ESSENTIAL ) {
+                this.drops++;
+                Entry same = cell >= 0 ? this.newest.get( cell ) : null;
+                if ( same != null ) {
+                    // the client only needs the cell's latest state.
+                    same.frame = frame;
+                    return true;
+                }
+                dropOldest();
+            }
+        }
+
+        Entry entry = new Entry( frame, cell );
+        this.entries.add( entry );
+        if ( cell != LOGIN ) {
+            this.counted++;
+        }
+        if ( cell >= 0 && this.policy == ServerConfig.OverflowPolicy.COALESCE ) {
+            this.newest.put( cell, entry );
+        }
+        this.highWater = Math.max( this.highWater, this.entries.size() );
+        notify();
+        return true;
+    }
+
+    /**
+     * Throws away the oldest tile update to make room.
+     */
+    private void dropOldest() {
+        Iterator< Entry > it = this.entries.iterator();
+        while ( it.hasNext() ) {
+            Entry entry = it.next();
+            if ( entry.cell != ESSENTIAL && entry.cell != LOGIN ) {
+                it.remove();
+                this.counted--;
+                forget( entry );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the coalescing index if it is still there.
+     */
+    private void forget( Entry entry ) {
+        if ( entry.cell >= 0 && this.newest.get( entry.cell ) == entry ) {
+            this.newest.remove( entry.cell );
+        }
+    }
+
+    /**
+     * Stops coalescing the updates already queued with later ones.  Cells
+     * are numbered across the board, so once the board has grown the same
+     * number can mean another cell.
+     */
+    synchronized void forgetCells() {
+        this.newest.clear();
+    }
+
+    /**
+     * Takes the oldest frame without waiting.
+     *
+     * @return the frame, or null if the queue is empty.
+     */
+    synchronized ByteBuffer poll() {
+        Entry entry = this.entries.poll();
+        if ( entry == null ) {
+            return null;
+        }
+        if ( entry.cell != LOGIN ) {
+            this.counted--;
+        }
+        forget( entry );
+        return entry.frame;
+    }
+
+    /**
+     * Waits for the oldest frame.
+     *
+     * @return the frame, or null once the queue is finished and empty.
+     * @throws InterruptedException if the writer is interrupted.
+     */
+    synchronized ByteBuffer take() throws InterruptedException {
+        while ( this.entries.isEmpty() && !this.finished ) {
+            wait();
+        }
+        return poll();
+    }
+
+    /**
+     * Stops accepting frames; the ones already queued are still written.
+     */
+    synchronized void finish() {
+        this.finished = true;
+        notifyAll();
+    }
+
+    synchronized boolean isFinished() {
+        return this.finished;
+    }
+
+    synchronized boolean isEmpty() {
+        return this.entries.isEmpty();
+    }
+
+    /**
+     * Get the number of frames waiting.
+     *
+     * @return the queue depth.
+     */
+    public synchronized int getDepth() {
+        return this.entries.size();
+    }
+
+    /**
+     * Get the largest number of frames that have waited at once.
+     *
+     * @return the high water mark.
+     */
+    public synchronized int getHighWater() {
+        return this.highWater;
+    }
+
+    /**
+     * Get the number of tile updates dropped or replaced because the queue
+     * was full.
+     *
+     * @return the drop count.
+     */
+    public synchronized long getDrops() {
+        return this.drops;
+    }
+}
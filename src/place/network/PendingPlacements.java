@@ -0,0 +1,402 @@
+package place.network;
+
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tiles a client has placed that the server has not yet confirmed,
+ * so that they can be shown straight away instead of after the round
+ * trip.  A client draws a tile in its pending color while it is here, and
+ * from its board once it is gone: when the server's TILE_CHANGED for it
+ * arrives, when the server refuses it, or when no answer has come for too
+ * long.
+ *
+ * Where the server takes CHANGE_TILES each tile is sent as a batch of
+ * one, so that the server answers every placement, in order, and a
+ * refusal is matched to its tile exactly.  A tile the server accepted is
+ * confirmed by that answer; it is still shown until the next TILE_CHANGED
+ * of its cell reaches the board, which with --tick or a quick overwrite by
+ * someone else may not be its own.  An older server only sends an ERROR,
+ * which does not say which tile it refers to; it is taken to be about the
+ * oldest unanswered tile, and if that was wrong the tile's own
+ * TILE_CHANGED draws it again.
+ *
+ * Also measures how long tiles take to be shown locally, which is what
+ * the user sees, against how long they take to be confirmed.
+ *
+ * Used from the thread that places tiles, the thread that receives from
+ * the server and the thread that draws, so every method locks the
+ * placements.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class PendingPlacements {
+
+    /**
+     * Milliseconds a placement may go unconfirmed before it is rolled
+     * back, as if its request had been lost.
+     */
+    private static final long TIMEOUT_MS = 10000;
+
+    /**
+     * One tile placed and not yet confirmed.
+     */
+    private static class Pending {
+        /** The tile as placed */
+        final PlaceTile tile;
+        /** When it was placed, by System.nanoTime */
+        final long placedNanos;
+        /** Whether the server has accepted it */
+        boolean accepted;
+
+        Pending( PlaceTile tile ) {
+            this.tile = tile;
+            this.placedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * The login the tiles are sent with.
+     */
+    private PlaceSession session;
+
+    /**
+     * Every placement still shown: not yet refused or timed out, and not
+     * yet replaced on the board by a TILE_CHANGED.  Oldest first.
+     */
+    private List< Pending > pending;
+
+    /**
+     * The newest pending placement of every tile that has one, by
+     * row and column.
+     */
+    private Map< Long, Pending > shownTiles;
+
+    /**
+     * Placements still waiting for the server's answer to their request,
+     * oldest first; the server answers in the order they were sent.
+     */
+    private Deque< Pending > unanswered;
+
+    /**
+     * Placements not yet drawn, whether or not they are still pending.
+     */
+    private List< Pending > unshown;
+
+    /**
+     * Number of tiles in the pending layer, read without the lock so
+     * drawing a board with nothing pending costs nothing.
+     */
+    private volatile int size;
+
+    /**
+     * Tiles placed, confirmed and rolled back so far.
+     */
+    private long placed, confirmed, rolledBack;
+
+    /**
+     * Number of pending placements the server has not accepted yet.
+     */
+    private int inFlight;
+
+    /**
+     * Total and longest nanoseconds from placing a tile to showing it.
+     */
+    private long shownTotal, shownMax;
+
+    /**
+     * Number of tiles shown so far.
+     */
+    private long shownCount;
+
+    /**
+     * Total and longest nanoseconds from placing a tile to the server's
+     * acceptance or TILE_CHANGED, whichever came first.
+     */
+    private long confirmedTotal, confirmedMax;
+
+    /**
+     * Create an empty set of placements.
+     *
+     * @param session the login the tiles are sent with.
+     */
+    public PendingPlacements( PlaceSession session ) {
+        this.session = session;
+        this.pending = new ArrayList<>();
+        this.shownTiles = new HashMap<>();
+        this.unanswered = new ArrayDeque<>();
+        this.unshown = new ArrayList<>();
+    }
+
+    /**
+     * Sends a tile to the server and adds it to the pending layer.  The
+     * caller then draws it.
+     *
+     * @param tile the tile, owned by the session's user.
+     * @throws IOException if the connection is down; the tile is then not
+     *         pending.
+     */
+    public synchronized void place( PlaceTile tile ) throws IOException {
+        if ( this.session.canPlaceTiles() ) {
+            ArrayList< PlaceTile > batch = new ArrayList<>();
+            batch.add( tile );
+            this.session.send( new PlaceRequest<>( PlaceRequest.RequestType.CHANGE_TILES, batch ) );
+        }
+        else {
+            this.session.send( new PlaceRequest<>( PlaceRequest.RequestType.CHANGE_TILE, tile ) );
+        }
+        Pending p = new Pending( tile );
+        this.pending.add( p );
+        this.unanswered.add( p );
+        this.unshown.add( p );
+        this.shownTiles.put( key( tile.getRow(), tile.getCol() ), p );
+        this.size = this.shownTiles.size();
+        this.placed++;
+        this.inFlight++;
+    }
+
+    /**
+     * Get the color a tile is shown in while a placement of it is
+     * pending.
+     *
+     * @param row the row of the tile.
+     * @param col the column of the tile.
+     * @return the pending color, or null to show the board's.
+     */
+    public PlaceColor getColor( int row, int col ) {
+        if ( this.size == 0 ) {
+            return null;
+        }
+        synchronized ( this ) {
+            Pending p = this.shownTiles.get( key( row, col ) );
+            return p == null ? null : p.tile.getColor();
+        }
+    }
+
+    /**
+     * Notes that every tile placed so far has now been drawn, for the time
+     * to show a tile.  A tile the server answered before it was drawn
+     * counts too, as the user saw it no sooner.
+     */
+    public synchronized void shown() {
+        long now = System.nanoTime();
+        for ( Pending p : this.unshown ) {
+            long nanos = now - p.placedNanos;
+            this.shownTotal += nanos;
+            this.shownMax = Math.max( this.shownMax, nanos );
+            this.shownCount++;
+        }
+        this.unshown.clear();
+    }
+
+    /**
+     * Takes a tile change from the server, once it is on the board.  If it
+     * is this user's oldest pending placement of that tile, the placement
+     * is confirmed and leaves the pending layer.  A placement the server
+     * has already accepted leaves it on any change of its cell, since the
+     * board now holds what the server has; any other change is shown
+     * under the pending tile until its own change arrives.
+     *
+     * @param tile the changed tile.
+     * @return true if it confirmed a placement.
+     */
+    public synchronized boolean tileChanged( PlaceTile tile ) {
+        if ( this.pending.isEmpty() ) {
+            return false;
+        }
+        boolean mine = tile.getOwner().equals( this.session.getUsername() );
+        List< Pending > replaced = new ArrayList<>();
+        Pending match = null;
+        for ( Pending p : this.pending ) {
+            if ( p.tile.getRow() != tile.getRow() || p.tile.getCol() != tile.getCol() ) {
+                continue;
+            }
+            if ( p.accepted ) {
+                replaced.add( p );
+            }
+            else if ( match == null && mine && p.tile.getColor() == tile.getColor() ) {
+                match = p;
+            }
+        }
+        for ( Pending p : replaced ) {
+            remove( p );
+        }
+        if ( match == null ) {
+            return false;
+        }
+        confirm( match );
+        // a server that does not take CHANGE_TILES sends no other answer;
+        // one that does still sends its results.
+        if ( !this.session.canPlaceTiles() ) {
+            this.unanswered.remove( match );
+        }
+        remove( match );
+        return true;
+    }
+
+    /**
+     * Takes the server's answer to the oldest unanswered placement.  A
+     * tile placed is confirmed, and stays shown until a TILE_CHANGED of
+     * its cell arrives; a tile refused is rolled back.
+     *
+     * @param results the answer to a batch of one tile.
+     * @return the tile rolled back, to be drawn again from the board, or
+     *         null.
+     */
+    public synchronized PlaceTile resultsReceived( PlacementResults results ) {
+        Pending p = this.unanswered.poll();
+        if ( p == null || !this.pending.contains( p ) ) {
+            return null;
+        }
+        if ( results.isAccepted( 0 ) ) {
+            confirm( p );
+            return null;
+        }
+        this.rolledBack++;
+        remove( p );
+        return p.tile;
+    }
+
+    /**
+     * Takes an ERROR from the server.  Only a server that does not take
+     * CHANGE_TILES refuses tiles this way; its refusal is taken to be
+     * about the oldest unanswered tile.
+     *
+     * @return the tile rolled back, to be drawn again from the board, or
+     *         null.
+     */
+    public synchronized PlaceTile errorReceived() {
+        if ( this.session.canPlaceTiles() ) {
+            return null;
+        }
+        Pending p = this.unanswered.poll();
+        if ( p == null ) {
+            return null;
+        }
+        this.rolledBack++;
+        remove( p );
+        return p.tile;
+    }
+
+    /**
+     * Rolls back the placements that have gone unconfirmed for too long,
+     * such as ones sent just before the connection was lost.  Accepted
+     * placements whose cell has not changed since, as when it is outside
+     * the part of the board subscribed to, stop being shown then too.
+     *
+     * @return the tiles rolled back, to be drawn again from the board.
+     */
+    public List< PlaceTile > expire() {
+        if ( this.size == 0 ) {
+            return Collections.emptyList();
+        }
+        synchronized ( this ) {
+            List< PlaceTile > expired = new ArrayList<>();
+            long oldest = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( TIMEOUT_MS );
+            while ( !this.pending.isEmpty() && this.pending.get( 0 ).placedNanos - oldest < 0 ) {
+                Pending p = this.pending.get( 0 );
+                this.unanswered.remove( p );
+                remove( p );
+                if ( !p.accepted ) {
+                    this.rolledBack++;
+                }
+                expired.add( p.tile );
+            }
+            return expired;
+        }
+    }
+
+    /**
+     * Get the number of placements not yet confirmed.
+     *
+     * @return the number of placements in flight.
+     */
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * Describes how many tiles were placed, and how quickly they were
+     * shown compared with how quickly they were confirmed.
+     *
+     * @return a line of statistics.
+     */
+    @Override
+    public synchronized String toString() {
+        return "Tiles placed: " + this.placed
+                + ", shown after " + millis( this.shownTotal, this.shownCount )
+                + " ms on average (longest " + millis( this.shownMax, 1 ) + " ms)"
+                + ", confirmed after " + millis( this.confirmedTotal, this.confirmed )
+                + " ms on average (longest " + millis( this.confirmedMax, 1 ) + " ms)"
+                + ", rolled back: " + this.rolledBack
+                + ", in flight: " + this.inFlight;
+    }
+
+    /**
+     * Counts a placement as confirmed, the first time the server says it
+     * was placed.
+     *
+     * @param p the placement.
+     */
+    private void confirm( Pending p ) {
+        long nanos = System.nanoTime() - p.placedNanos;
+        this.confirmedTotal += nanos;
+        this.confirmedMax = Math.max( this.confirmedMax, nanos );
+        this.confirmed++;
+        this.inFlight--;
+        p.accepted = true;
+    }
+
+    /**
+     * Takes a placement out of the pending layer.  If an older placement
+     * of the same tile is still pending, the tile is shown in its color
+     * again.
+     *
+     * @param p the placement.
+     */
+    private void remove( Pending p ) {
+        if ( !p.accepted ) {
+            this.inFlight--;
+        }
+        this.pending.remove( p );
+        long key = key( p.tile.getRow(), p.tile.getCol() );
+        if ( this.shownTiles.get( key ) == p ) {
+            this.shownTiles.remove( key );
+            for ( int i = this.pending.size() - 1; i >= 0; i-- ) {
+                Pending older = this.pending.get( i );
+                if ( older.tile.getRow() == p.tile.getRow() && older.tile.getCol() == p.tile.getCol() ) {
+                    this.shownTiles.put( key, older );
+                    break;
+                }
+            }
+        }
+        this.size = this.shownTiles.size();
+    }
+
+    /**
+     * Packs a tile's row and column into one map key.
+     *
+     * @param row the row.
+     * @param col the column.
+     * @return the key.
+     */
+    private static long key( int row, int col ) {
+        return ( long ) row << 32 | col;
+    }
+
+    /**
+     * Formats an average of nanoseconds in milliseconds.
+     *
+     * @param nanos the total.
+     * @param count the number of samples.
+     * @return the average, to a tenth of a millisecond.
+     */
+    private static String millis( long nanos, long count ) {
+        return count == 0 ? "-" : String.format( "%.1f", nanos / 1e6 / count );
+    }
+}
@@ -0,0 +1,1113 @@
+package place.network;
+
+import place.ChunkedPlaceBoard;
+import place.OwnerDictionary;
+import place.PackedPlaceBoard;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Turns PlaceRequests into frames and back for one end of one connection.
+ *
+ * Every frame is a four byte length followed by a body.  Two body formats
+ * exist, and a body says which it is, so either end can always read what
+ * it is sent:
+ *
+ * <ul>
+ * <li>Version 1: the request written with Java serialization.  The body
+ *     starts with the serialization magic 0xACED.</li>
+ * <li>Version 2: one type byte, then a fixed layout per type.  CHANGE_TILE
+ *     and TILE_CHANGED are row, column, color, owner id and time in 21
+ *     bytes; strings are a two byte length and UTF-8.  Owner ids refer to
+ *     a dictionary the server keeps and clients mirror from BOARD and
+ *     OWNER frames.</li>
+ * </ul>
+ *
+ * TILE_BATCH carries many TILE_CHANGED bodies in one frame; it is unpacked
+ * on arrival, so a reader only ever sees single TILE_CHANGED requests.
+ *
+ * Version 3 is version 2 plus sequence numbers, so that a client can
+ * reconnect without being sent the whole board again.  LOGIN_SUCCESS
+ * carries the server's epoch, a random number naming the server run, and
+ * the sequence number the following BOARD is current to.  TILE_CHANGED
+ * ends with its sequence number and TILE_BATCH has the sequence number it
+ * is current to after its count.  A reconnecting client adds the epoch,
+ * the last sequence number it saw and the number of owner ids it knows to
+ * its LOGIN; if the server still has every change since, it sends OWNER
+ * frames for the ids the client lacks and one TILE_BATCH instead of the
+ * BOARD.
+ *
+ * Version 4 is version 3 with the board sent in chunks of 256x256 tiles
+ * instead of one BOARD frame.  BOARD_START carries the dimension, chunk
+ * size and owner names; then come a COLOR_CHUNK for every chunk, its
+ * colors two per byte and deflated, and then a META_CHUNK for every chunk,
+ * its owner ids and times deflated.  A client can draw the board from the
+ * colors long before the owners and times have arrived.  BOARD_START is
+ * read as a BOARD of white tiles and every chunk as a BOARD_REGION that
+ * has been filled in.
+ *
+ * Version 5 lets a client subscribe to a viewport.  SUBSCRIBE carries the
+ * row, column, rows and columns of the tiles the client wants to hear
+ * about, or no rows and columns for the whole board.  The server answers
+ * with the tiles that have just come into view, as TILE_BATCH frames, and
+ * from then on sends only the changes inside the viewport.
+ *
+ * Version 6 lets a client place many tiles with one request.
+ * CHANGE_TILES is a count followed by that many CHANGE_TILE bodies, and
+ * the server answers with one TILES_RESULT: the count again, a byte per
+ * tile saying whether it was placed or why not, then a long holding the
+ * milliseconds until the sender may place again.
+ *
+ * Version 7 lets the board grow while clients are connected.
+ * BOARD_EXPANDED carries the board's new dimension; the client grows its
+ * board in place, keeping every tile, before any change to the new tiles
+ * can arrive.
+ *
+ * Version 8 lets a server host several canvases.  LOGIN ends with the name
+ * of the canvas to play on, empty for the server's default canvas; owner
+ * ids, epochs and sequence numbers are then those of that canvas.
+ *
+ * Version 9 keeps one client from taking over another's name.  The server
+ * gives every session a random token at the end of LOGIN_SUCCESS, and a
+ * reconnecting client adds it to the end of its LOGIN; only a LOGIN with
+ * the token of the session holding the name may take the name over before
+ * the server has noticed the old connection is gone.
+ *
+ * The client always sends LOGIN in version 2 layout, carrying the highest
+ * version it speaks.  The server answers in the lower of that and its own,
+ * and LOGIN_SUCCESS tells the client which version was agreed.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class PlaceCodec {
+
+    /** Requests written with Java serialization */
+    static final int VERSION_SERIALIZED = 1;
+    /** Fixed-layout binary requests */
+    static final int VERSION_BINARY = 2;
+    /** Binary requests with change sequence numbers */
+    static final int VERSION_RESUME = 3;
+    /** Board sent in compressed chunks */
+    static final int VERSION_CHUNKED = 4;
+    /** Chunked boards plus viewport subscriptions */
+    static final int VERSION_VIEWPORT = 5;
+    /** Viewports plus batches of tile placements */
+    static final int VERSION_BULK = 6;
+    /** Batches plus boards that grow */
+    static final int VERSION_EXPAND = 7;
+    /** Growing boards plus a canvas named at login */
+    static final int VERSION_CANVAS = 8;
+    /** Canvases plus a session token for taking over a name */
+    static final int VERSION_TOKEN = 9;
+    /** Highest version this code speaks */
+    static final int MAX_VERSION = VERSION_TOKEN;
+
+    /** First byte of a serialized body */
+    private static final byte SERIALIZED_MAGIC = ( byte ) 0xAC;
+
+    /** Version 2 type codes */
+    private static final byte BOARD = 1;
+    private static final byte CHANGE_TILE = 2;
+    private static final byte ERROR = 3;
+    private static final byte LOGIN = 4;
+    private static final byte LOGIN_SUCCESS = 5;
+    private static final byte TILE_CHANGED = 6;
+    /** Server tells clients the name behind a new owner id */
+    private static final byte OWNER = 7;
+    /** Many TILE_CHANGED payloads after a count */
+    private static final byte TILE_BATCH = 8;
+    /** Dimension, chunk size and owner names of a board sent in chunks */
+    private static final byte BOARD_START = 9;
+    /** Deflated colors of one chunk */
+    private static final byte COLOR_CHUNK = 10;
+    /** Deflated owner ids and times of one chunk */
+    private static final byte META_CHUNK = 11;
+    /** Client asks for the changes inside a viewport only */
+    private static final byte SUBSCRIBE = 12;
+    /** Many CHANGE_TILE payloads after a count */
+    private static final byte CHANGE_TILES = 13;
+    /** Outcome of every tile of a CHANGE_TILES, a byte each after a count */
+    private static final byte TILES_RESULT = 14;
+    /** New dimension of a board that has grown */
+    private static final byte BOARD_EXPANDED = 15;
+
+    /** Side of a square board chunk, in tiles */
+    static final int CHUNK = 256;
+
+    /** Size of a CHANGE_TILE or TILE_CHANGED body after the type byte */
+    private static final int TILE_PAYLOAD = 4 + 4 + 1 + 4 + 8;
+
+    /** Colors by number */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /** Source of session tokens, which must not be guessable */
+    private static final SecureRandom TOKENS = new SecureRandom();
+
+    /**
+     * Owner names for the ids on the wire.  Shared by every connection to
+     * a canvas on the server; private to the connection on a client.
+     */
+    private OwnerDictionary owners;
+
+    /**
+     * True on the server end of a connection.
+     */
+    private boolean server;
+
+    /**
+     * Version used for what this end sends.  Until the handshake is done it
+     * is the highest version this end is willing to speak.
+     */
+    private int version;
+
+    /**
+     * Username that logged in on this connection.
+     */
+    private String username;
+
+    /**
+     * Highest version this end is willing to speak.
+     */
+    private int maxVersion;
+
+    /**
+     * Canvas the client plays on: asked for by a client, named in LOGIN
+     * on the server; empty for the server's default canvas.
+     */
+    private String canvas;
+
+    /**
+     * On a client, the epoch of the server run the board came from; 0
+     * before the first login.
+     */
+    private long epoch;
+
+    /**
+     * On a client, the sequence number of the last change received.
+     */
+    private long lastSeq;
+
+    /**
+     * On a client, the sequence number the BOARD about to arrive is
+     * current to.
+     */
+    private long boardSeq;
+
+    /**
+     * On the server, what the client says it already has, or null if it
+     * wants the whole board.
+     */
+    private ResumePoint resume;
+
+    /**
+     * On the server, the token this session was given; on a client, the
+     * token its last LOGIN_SUCCESS carried, shown again when it
+     * reconnects.  0 for none.
+     */
+    private long token;
+
+    /**
+     * On a client, the board last received, which is grown when the
+     * server's grows; null before the first.
+     */
+    private PlaceBoard board;
+
+    /**
+     * On a client, the board whose chunks are arriving, or null.
+     */
+    private PackedPlaceBoard loading;
+
+    /**
+     * On a client, the side of a chunk of the loading board.
+     */
+    private int chunk;
+
+    /**
+     * On a client, the color and metadata chunks of the loading board still
+     * to come.
+     */
+    private int chunksLeft;
+
+    PlaceCodec( OwnerDictionary owners, boolean server, int maxVersion ) {
+        this.owners = owners;
+        this.server = server;
+        this.version = maxVersion;
+        this.maxVersion = maxVersion;
+        this.canvas = "";
+    }
+
+    /**
+     * Create a client codec for a new connection that carries on from an
+     * old one: the same owner ids, and the same place in the change
+     * sequence to resume from.
+     *
+     * @param previous the codec of the lost connection.
+     */
+    PlaceCodec( PlaceCodec previous ) {
+        this( previous.owners, false, previous.maxVersion );
+        this.epoch = previous.epoch;
+        this.lastSeq = previous.lastSeq;
+        this.token = previous.token;
+        this.board = previous.board;
+        this.canvas = previous.canvas;
+    }
+
+    int getVersion() {
+        return this.version;
+    }
+
+    OwnerDictionary getOwners() {
+        return this.owners;
+    }
+
+    /**
+     * On the server, switches to the owner ids of the canvas the client
+     * logged in to.  Only the LOGIN is decoded before this is called.
+     *
+     * @param owners the canvas's owner dictionary.
+     */
+    void setOwners( OwnerDictionary owners ) {
+        this.owners = owners;
+    }
+
+    String getCanvas() {
+        return this.canvas;
+    }
+
+    /**
+     * On a client, chooses the canvas LOGIN asks for.
+     *
+     * @param canvas the canvas name, or empty for the default canvas.
+     */
+    void setCanvas( String canvas ) {
+        this.canvas = canvas;
+    }
+
+    long getLastSeq() {
+        return this.lastSeq;
+    }
+
+    ResumePoint getResume() {
+        return this.resume;
+    }
+
+    long getToken() {
+        return this.token;
+    }
+
+    boolean isBoardComplete() {
+        return this.chunksLeft == 0;
+    }
+
+    /**
+     * Encodes a request for this connection, in the agreed version.
+     *
+     * @param req the request.
+     * @return the complete frame.
+     */
+    ByteBuffer encode( PlaceRequest< ? > req ) throws IOException {
+        switch ( req.getType() ) {
+            case LOGIN: {
+                this.username = ( String ) req.getData();
+                byte[] name = utf( this.username );
+                byte[] canvas = utf( this.canvas );
+                boolean resuming = this.version >= VERSION_RESUME;
+                boolean naming = this.version >= VERSION_CANVAS;
+                boolean proving = this.version >= VERSION_TOKEN;
+                ByteBuffer frame = frame( LOGIN, 1 + 2 + name.length + ( resuming ? 8 + 8 + 4 : 0 ) + ( naming ? 2 + canvas.length : 0 ) + ( proving ? 8 : 0 ) );
+                frame.put( ( byte ) this.version );
+                putUtf( frame, name );
+                if ( resuming ) {
+                    frame.putLong( this.epoch );
+                    frame.putLong( this.lastSeq );
+                    frame.putInt( this.owners.size() );
+                }
+                if ( naming ) {
+                    putUtf( frame, canvas );
+                }
+                if ( proving ) {
+                    frame.putLong( this.token );
+                }
+                return finish( frame );
+            }
+            case LOGIN_SUCCESS:
+                return encodeLoginSuccess( req, this.version, this.owners.idOf( this.username ), 0, 0, this.token );
+            case SUBSCRIBE:
+                // an older server would not know what to do with it.
+                if ( this.version < VERSION_VIEWPORT ) {
+                    throw new IOException( "The server does not take viewport subscriptions" );
+                }
+                break;
+            case CHANGE_TILES:
+                if ( this.version < VERSION_BULK ) {
+                    throw new IOException( "The server does not take batches of tiles" );
+                }
+                break;
+            default:
+                break;
+        }
+        return encode( req, this.version, this.owners );
+    }
+
+    /**
+     * Decodes the body of a frame received on this connection.  A frame
+     * yields no requests if it only updated codec state, such as an owner
+     * name, and many if it was a batch.
+     *
+     * On the server only the requests a client sends are decoded; any
+     * other frame, such as an OWNER or a BOARD_START, would let one client
+     * change the canvas's shared state, so it is refused as corrupt.
+     *
+     * @param body the body, without its length; it is consumed.
+     * @param into where the decoded requests are added, in order.
+     */
+    void decode( ByteBuffer body, Queue< PlaceRequest< ? > > into ) throws IOException, ClassNotFoundException {
+        byte type = body.get( body.position() );
+        if ( this.server && type != SERIALIZED_MAGIC && !fromClient( type ) ) {
+            throw new StreamCorruptedException( "Clients may not send frame type " + type );
+        }
+        if ( type == TILE_BATCH ) {
+            body.get();
+            int count = body.getInt();
+            if ( this.version >= VERSION_RESUME ) {
+                this.lastSeq = body.getLong();
+            }
+            for ( ; count > 0; count-- ) {
+                into.add( new PlaceRequest<>( PlaceRequest.RequestType.TILE_CHANGED, getTile( body, this.owners ) ) );
+            }
+            return;
+        }
+        PlaceRequest< ? > req = decode( body );
+        if ( req != null ) {
+            into.add( req );
+        }
+    }
+
+    /**
+     * Decodes the body of a frame that holds at most one request.
+     *
+     * @param body the body, without its length; it is consumed.
+     * @return the request, or null if the frame only updated codec state.
+     */
+    private PlaceRequest< ? > decode( ByteBuffer body ) throws IOException, ClassNotFoundException {
+        if ( body.get( body.position() ) == SERIALIZED_MAGIC ) {
+            PlaceRequest< ? > req = deserialize( body );
+            if ( this.server && !fromClient( req.getType() ) ) {
+                throw new StreamCorruptedException( "Clients may not send " + req.getType() );
+            }
+            // a peer that sends version 1 only understands version 1.
+            if ( req.getType() == PlaceRequest.RequestType.LOGIN ||
+                    req.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS ) {
+                this.version = VERSION_SERIALIZED;
+                if ( this.server ) {
+                    this.username = ( String ) req.getData();
+                }
+            }
+            return req;
+        }
+
+        byte type = body.get();
+        switch ( type ) {
+            case LOGIN: {
+                int offered = body.get();
+                this.version = Math.max( VERSION_SERIALIZED, Math.min( this.version, offered ) );
+                this.username = getUtf( body );
+                long epoch = 0;
+                long seq = 0;
+                int known = 0;
+                if ( this.version >= VERSION_RESUME && body.remaining() >= 8 + 8 + 4 ) {
+                    epoch = body.getLong();
+                    seq = body.getLong();
+                    known = body.getInt();
+                }
+                if ( this.version >= VERSION_CANVAS && body.remaining() >= 2 ) {
+                    this.canvas = getUtf( body );
+                }
+                long shown = 0;
+                if ( this.version >= VERSION_TOKEN && body.remaining() >= 8 ) {
+                    shown = body.getLong();
+                }
+                // epoch 0 is a client that has never had a board.
+                this.resume = epoch == 0 ? null : new ResumePoint( epoch, seq, known, shown );
+                if ( this.version >= VERSION_TOKEN ) {
+                    do {
+                        this.token = TOKENS.nextLong();
+                    } while ( this.token == 0 );
+                }
+                return new PlaceRequest<>( PlaceRequest.RequestType.LOGIN, this.username );
+            }
+            case LOGIN_SUCCESS: {
+                this.version = body.get();
+                int id = body.getInt();
+                if ( this.version >= VERSION_RESUME ) {
+                    long epoch = body.getLong();
+                    this.boardSeq = body.getLong();
+                    if ( this.version >= VERSION_TOKEN ) {
+                        this.token = body.getLong();
+                    }
+                    // owner ids from another server run mean nothing here.
+                    if ( epoch != this.epoch ) {
+                        this.owners = new OwnerDictionary();
+                        this.epoch = epoch;
+                    }
+                }
+                this.owners.define( id, this.username );
+                return new PlaceRequest<>( PlaceRequest.RequestType.LOGIN_SUCCESS, getUtf( body ) );
+            }
+            case OWNER: {
+                int id = body.getInt();
+                this.owners.define( id, getUtf( body ) );
+                return null;
+            }
+            case TILE_CHANGED: {
+                PlaceTile tile = getTile( body, this.owners );
+                if ( this.version >= VERSION_RESUME ) {
+                    this.lastSeq = body.getLong();
+                }
+                return new PlaceRequest<>( PlaceRequest.RequestType.TILE_CHANGED, tile );
+            }
+            case BOARD: {
+                PlaceRequest< ? > board = decode( type, body, this.owners );
+                this.board = ( PlaceBoard ) board.getData();
+                this.lastSeq = this.boardSeq;
+                return board;
+            }
+            case BOARD_START: {
+                int dim = body.getInt();
+                this.chunk = body.getInt();
+                int count = body.getInt();
+                for ( int id = 0; id < count; id++ ) {
+                    this.owners.define( id, getUtf( body ) );
+                }
+                int across = ( dim + this.chunk - 1 ) / this.chunk;
+                this.loading = new PackedPlaceBoard( dim, this.owners );
+                this.board = this.loading;
+                this.chunksLeft = 2 * across * across;
+                return new PlaceRequest<>( PlaceRequest.RequestType.BOARD, this.loading );
+            }
+            case COLOR_CHUNK:
+            case META_CHUNK: {
+                if ( this.loading == null ) {
+                    throw new StreamCorruptedException( "Board chunk without a board" );
+                }
+                BoardRegion region = chunkRegion( this.loading.DIM, this.chunk, body.getInt() );
+                int cells = region.getRows() * region.getCols();
+                if ( type == COLOR_CHUNK ) {
+                    byte[] packed = inflate( body, ( cells + 1 ) / 2 );
+                    this.loading.setColors( region.getRow(), region.getCol(), region.getRows(), region.getCols(), packed );
+                }
+                else {
+                    ByteBuffer meta = ByteBuffer.wrap( inflate( body, cells * 12 ) );
+                    int[] ids = new int[cells];
+                    long[] times = new long[cells];
+                    meta.asIntBuffer().get( ids );
+                    meta.position( cells * 4 );
+                    meta.asLongBuffer().get( times );
+                    for ( int id : ids ) {
+                        if ( !this.owners.isDefined( id ) ) {
+                            throw new StreamCorruptedException( "Unknown owner id " + id );
+                        }
+                    }
+                    this.loading.setOwners( region.getRow(), region.getCol(), region.getRows(), region.getCols(), ids, times );
+                }
+                if ( --this.chunksLeft == 0 ) {
+                    this.loading = null;
+                    this.lastSeq = this.boardSeq;
+                }
+                return new PlaceRequest<>( PlaceRequest.RequestType.BOARD_REGION, region );
+            }
+            case BOARD_EXPANDED: {
+                int dim = body.getInt();
+                if ( this.board == null ) {
+                    throw new StreamCorruptedException( "Board expansion without a board" );
+                }
+                // grown here, so changes to the new tiles can be applied as they come.
+                this.board.expand( dim );
+                return new PlaceRequest<>( PlaceRequest.RequestType.BOARD_EXPANDED, new BoardRegion( 0, 0, dim, dim ) );
+            }
+            default:
+                return decode( type, body, this.owners );
+        }
+    }
+
+    /**
+     * Encodes a request that reads the same for every connection speaking
+     * the given version, so the frame can be shared between them.
+     *
+     * @param req the request; not LOGIN or LOGIN_SUCCESS.
+     * @param version the protocol version.
+     * @param owners dictionary for owner ids.
+     * @return the complete frame.
+     */
+    static ByteBuffer encode( PlaceRequest< ? > req, int version, OwnerDictionary owners ) throws IOException {
+        if ( version < VERSION_BINARY ) {
+            return serialize( req );
+        }
+
+        switch ( req.getType() ) {
+            case CHANGE_TILE: {
+                ByteBuffer frame = frame( CHANGE_TILE, TILE_PAYLOAD );
+                putTile( frame, ( PlaceTile ) req.getData(), owners );
+                return finish( frame );
+            }
+            case TILE_CHANGED:
+                if ( version >= VERSION_RESUME ) {
+                    throw new IOException( "TILE_CHANGED needs a sequence number in version " + version );
+                }
+                return encodeChange( ( PlaceTile ) req.getData(), 0, version, owners );
+            case ERROR: {
+                byte[] msg = utf( String.valueOf( req.getData() ) );
+                ByteBuffer frame = frame( ERROR, 2 + msg.length );
+                putUtf( frame, msg );
+                return finish( frame );
+            }
+            case BOARD:
+                return encodeBoard( ( PlaceBoard ) req.getData(), owners );
+            case CHANGE_TILES: {
+                List< ? > tiles = ( List< ? > ) req.getData();
+                ByteBuffer frame = frame( CHANGE_TILES, 4 + tiles.size() * TILE_PAYLOAD );
+                frame.putInt( tiles.size() );
+                for ( Object tile : tiles ) {
+                    putTile( frame, ( PlaceTile ) tile, owners );
+                }
+                return finish( frame );
+            }
+            case TILES_RESULT: {
+                PlacementResults results = ( PlacementResults ) req.getData();
+                ByteBuffer frame = frame( TILES_RESULT, 4 + results.size() + 8 );
+                frame.putInt( results.size() );
+                for ( int i = 0; i < results.size(); i++ ) {
+                    frame.put( ( byte ) results.get( i ).ordinal() );
+                }
+                frame.putLong( results.getWait() );
+                return finish( frame );
+            }
+            case SUBSCRIBE: {
+                BoardRegion viewport = ( BoardRegion ) req.getData();
+                ByteBuffer frame = frame( SUBSCRIBE, 4 * 4 );
+                if ( viewport == null ) {
+                    frame.putLong( 0 ).putLong( 0 );
+                }
+                else {
+                    frame.putInt( viewport.getRow() ).putInt( viewport.getCol() );
+                    frame.putInt( viewport.getRows() ).putInt( viewport.getCols() );
+                }
+                return finish( frame );
+            }
+            default:
+                throw new IOException( req.getType() + " cannot be shared between connections" );
+        }
+    }
+
+    /**
+     * Encodes the LOGIN_SUCCESS for one connection.
+     *
+     * @param req the request; its data is the welcome message.
+     * @param version the agreed protocol version.
+     * @param ownerId the id of the user logging in.
+     * @param epoch the server run, for version 3.
+     * @param boardSeq the sequence number the following board or batch is
+     *                 current to, for version 3.
+     * @param token the session's token, for version 9.
+     * @return the complete frame.
+     */
+    static ByteBuffer encodeLoginSuccess( PlaceRequest< ? > req, int version, int ownerId, long epoch, long boardSeq, long token ) throws IOException {
+        if ( version < VERSION_BINARY ) {
+            return serialize( req );
+        }
+        byte[] msg = utf( ( String ) req.getData() );
+        boolean sequenced = version >= VERSION_RESUME;
+        boolean proving = version >= VERSION_TOKEN;
+        ByteBuffer frame = frame( LOGIN_SUCCESS, 1 + 4 + ( sequenced ? 8 + 8 : 0 ) + ( proving ? 8 : 0 ) + 2 + msg.length );
+        frame.put( ( byte ) version );
+        frame.putInt( ownerId );
+        if ( sequenced ) {
+            frame.putLong( epoch );
+            frame.putLong( boardSeq );
+        }
+        if ( proving ) {
+            frame.putLong( token );
+        }
+        putUtf( frame, msg );
+        return finish( frame );
+    }
+
+    /**
+     * Encodes one accepted tile change.
+     *
+     * @param tile the tile as it now is.
+     * @param seq the change's sequence number, sent in version 3.
+     * @param version the protocol version.
+     * @param owners dictionary for owner ids.
+     * @return the complete frame.
+     */
+    static ByteBuffer encodeChange( PlaceTile tile, long seq, int version, OwnerDictionary owners ) throws IOException {
+        if ( version < VERSION_BINARY ) {
+            return serialize( new PlaceRequest<>( PlaceRequest.RequestType.TILE_CHANGED, tile ) );
+        }
+        boolean sequenced = version >= VERSION_RESUME;
+        ByteBuffer frame = frame( TILE_CHANGED, TILE_PAYLOAD + ( sequenced ? 8 : 0 ) );
+        putTile( frame, tile, owners );
+        if ( sequenced ) {
+            frame.putLong( seq );
+        }
+        return finish( frame );
+    }
+
+    /**
+     * Encodes many tile changes as one frame, for version 2 and up.
+     *
+     * @param tiles the changed tiles.
+     * @param throughSeq the sequence number the batch is current to, sent
+     *                   in version 3.
+     * @param version the protocol version.
+     * @param owners dictionary for owner ids.
+     * @return the complete frame.
+     */
+    static ByteBuffer encodeBatch( Collection< PlaceTile > tiles, long throughSeq, int version, OwnerDictionary owners ) {
+        boolean sequenced = version >= VERSION_RESUME;
+        ByteBuffer frame = frame( TILE_BATCH, 4 + ( sequenced ? 8 : 0 ) + tiles.size() * TILE_PAYLOAD );
+        frame.putInt( tiles.size() );
+        if ( sequenced ) {
+            frame.putLong( throughSeq );
+        }
+        for ( PlaceTile tile : tiles ) {
+            putTile( frame, tile, owners );
+        }
+        return finish( frame );
+    }
+
+    /**
+     * Encodes the frame that defines an owner id for version 2 clients.
+     *
+     * @param id the owner id.
+     * @param name the owner name.
+     * @return the complete frame.
+     */
+    static ByteBuffer encodeOwner( int id, String name ) {
+        byte[] bytes = utf( name );
+        ByteBuffer frame = frame( OWNER, 4 + 2 + bytes.length );
+        frame.putInt( id );
+        putUtf( frame, bytes );
+        return finish( frame );
+    }
+
+    /**
+     * Encodes the notice that the board has grown, for version 7 clients.
+     *
+     * @param dim the board's new dimension.
+     * @return the complete frame.
+     */
+    static ByteBuffer encodeExpansion( int dim ) {
+        ByteBuffer frame = frame( BOARD_EXPANDED, 4 );
+        frame.putInt( dim );
+        return finish( frame );
+    }
+
+    /**
+     * Tells whether a client may send a frame type.
+     *
+     * @param type the frame type.
+     * @return true for LOGIN, CHANGE_TILE, CHANGE_TILES and SUBSCRIBE.
+     */
+    private static boolean fromClient( byte type ) {
+        return type == LOGIN || type == CHANGE_TILE || type == CHANGE_TILES || type == SUBSCRIBE;
+    }
+
+    /**
+     * Tells whether a client may send a request type, in version 1.
+     *
+     * @param type the request type.
+     * @return true for LOGIN, CHANGE_TILE, CHANGE_TILES and SUBSCRIBE.
+     */
+    private static boolean fromClient( PlaceRequest.RequestType type ) {
+        return type == PlaceRequest.RequestType.LOGIN || type == PlaceRequest.RequestType.CHANGE_TILE
+                || type == PlaceRequest.RequestType.CHANGE_TILES || type == PlaceRequest.RequestType.SUBSCRIBE;
+    }
+
+    /**
+     * Decodes a version 2 body whose meaning does not depend on the
+     * connection's handshake state.
+     */
+    private static PlaceRequest< ? > decode( byte type, ByteBuffer body, OwnerDictionary owners ) throws IOException {
+        switch ( type ) {
+            case CHANGE_TILE:
+            case TILE_CHANGED: {
+                PlaceTile tile = getTile( body, owners );
+                return new PlaceRequest<>( type == CHANGE_TILE ? PlaceRequest.RequestType.CHANGE_TILE : PlaceRequest.RequestType.TILE_CHANGED, tile );
+            }
+            case ERROR:
+                return new PlaceRequest<>( PlaceRequest.RequestType.ERROR, getUtf( body ) );
+            case BOARD:
+                return new PlaceRequest<>( PlaceRequest.RequestType.BOARD, decodeBoard( body, owners ) );
+            case CHANGE_TILES: {
+                int count = body.getInt();
+                if ( count < 0 || count > body.remaining() / TILE_PAYLOAD ) {
+                    throw new StreamCorruptedException( "Bad tile count " + count );
+                }
+                ArrayList< PlaceTile > tiles = new ArrayList<>( count );
+                for ( ; count > 0; count-- ) {
+                    tiles.add( getTile( body, owners ) );
+                }
+                return new PlaceRequest<>( PlaceRequest.RequestType.CHANGE_TILES, tiles );
+            }
+            case TILES_RESULT: {
+                PlacementResults results = new PlacementResults( body.getInt() );
+                PlacementResults.Outcome[] outcomes = PlacementResults.Outcome.values();
+                for ( int i = 0; i < results.size(); i++ ) {
+                    int outcome = body.get();
+                    if ( outcome < 0 || outcome >= outcomes.length ) {
+                        throw new StreamCorruptedException( "Unknown placement outcome " + outcome );
+                    }
+                    results.set( i, outcomes[outcome] );
+                }
+                results.setWait( body.getLong() );
+                return new PlaceRequest<>( PlaceRequest.RequestType.TILES_RESULT, results );
+            }
+            case SUBSCRIBE: {
+                BoardRegion viewport = new BoardRegion( body.getInt(), body.getInt(), body.getInt(), body.getInt() );
+                boolean whole = viewport.getRows() == 0 && viewport.getCols() == 0;
+                return new PlaceRequest<>( PlaceRequest.RequestType.SUBSCRIBE, whole ? null : viewport );
+            }
+            default:
+                throw new StreamCorruptedException( "Unknown frame type " + type );
+        }
+    }
+
+    /**
+     * Writes a tile in the fixed 21 byte layout.
+     */
+    private static void putTile( ByteBuffer frame, PlaceTile tile, OwnerDictionary owners ) {
+        frame.putInt( tile.getRow() );
+        frame.putInt( tile.getCol() );
+        frame.put( ( byte ) tile.getColor().getNumber() );
+        frame.putInt( owners.idOf( tile.getOwner() ) );
+        frame.putLong( tile.getTime() );
+    }
+
+    /**
+     * Reads a tile in the fixed 21 byte layout.
+     */
+    private static PlaceTile getTile( ByteBuffer body, OwnerDictionary owners ) throws IOException {
+        int row = body.getInt();
+        int col = body.getInt();
+        int color = body.get() & 0xF;
+        int owner = body.getInt();
+        long time = body.getLong();
+        if ( !owners.isDefined( owner ) ) {
+            throw new StreamCorruptedException( "Unknown owner id " + owner );
+        }
+        return new PlaceTile( row, col, owners.nameOf( owner ), COLORS[color], time );
+    }
+
+    /**
+     * BOARD body: dimension, the owner dictionary, then the colors packed
+     * two per byte, an owner id per cell and a time per cell.
+     */
+    private static ByteBuffer encodeBoard( PlaceBoard board, OwnerDictionary owners ) throws IOException {
+        int dim = board.DIM;
+        int cells = dim * dim;
+        int[] ids = new int[cells];
+        long[] times = new long[cells];
+        byte[] colors = new byte[( cells + 1 ) / 2];
+        for ( int row = 0; row < dim; row++ ) {
+            for ( int col = 0; col < dim; col++ ) {
+                int cell = row * dim + col;
+                PlaceTile tile = board.getTile( row, col );
+                colors[cell >> 1] |= tile.getColor().getNumber() << ( ( cell & 1 ) << 2 );
+                ids[cell] = owners.idOf( tile.getOwner() );
+                times[cell] = tile.getTime();
+            }
+        }
+
+        int count = owners.size();
+        byte[][] names = new byte[count][];
+        long size = 4 + 4 + colors.length + 12L * cells;
+        for ( int id = 0; id < count; id++ ) {
+            names[id] = utf( owners.nameOf( id ) );
+            size += 2 + names[id].length;
+        }
+        if ( size + 1 > PlaceExchange.MAX_FRAME ) {
+            throw new IOException( "A " + dim + "x" + dim + " board does not fit in one frame" );
+        }
+
+        ByteBuffer frame = frame( BOARD, ( int ) size );
+        frame.putInt( dim );
+        frame.putInt( count );
+        for ( byte[] name : names ) {
+            putUtf( frame, name );
+        }
+        frame.put( colors );
+        frame.asIntBuffer().put( ids );
+        frame.position( frame.position() + 4 * cells );
+        frame.asLongBuffer().put( times );
+        frame.position( frame.position() + 8 * cells );
+        return finish( frame );
+    }
+
+    /**
+     * Encodes a board as the frames of version 4: BOARD_START, then the
+     * colors of every chunk, then the owners and times of every chunk.
+     * Owners on the board that the dictionary does not know yet are added.
+     *
+     * @param board the board.
+     * @param owners dictionary for owner ids.
+     * @return the frames, in the order they must be sent.
+     */
+    static List< ByteBuffer > encodeChunkedBoard( PlaceBoard board, OwnerDictionary owners ) {
+        int dim = board.DIM;
+        int across = ( dim + CHUNK - 1 ) / CHUNK;
+        Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+        List< ByteBuffer > colorChunks = new ArrayList<>();
+        List< ByteBuffer > metaChunks = new ArrayList<>();
+        ChunkedPlaceBoard sparse = board instanceof ChunkedPlaceBoard ? ( ChunkedPlaceBoard ) board : null;
+        // deflated blank chunks by size; only edge chunks differ.
+        Map< BoardRegion, byte[][] > blanks = new HashMap<>();
+        for ( int index = 0; index < across * across; index++ ) {
+            BoardRegion region = chunkRegion( dim, CHUNK, index );
+            int cells = region.getRows() * region.getCols();
+            if ( sparse != null && sparse.isBlank( region.getRow(), region.getCol(), region.getRows(), region.getCols() ) ) {
+                byte[][] blank = blanks.computeIfAbsent( new BoardRegion( 0, 0, region.getRows(), region.getCols() ),
+                        size -> blankChunk( deflater, cells ) );
+                colorChunks.add( chunkFrame( COLOR_CHUNK, index, blank[0] ) );
+                metaChunks.add( chunkFrame( META_CHUNK, index, blank[1] ) );
+                continue;
+            }
+            byte[] packed = new byte[( cells + 1 ) / 2];
+            ByteBuffer meta = ByteBuffer.allocate( cells * 12 );
+            // a sparse board is read a board chunk at a time, skipping blank ones.
+            int span = sparse == null ? CHUNK : ChunkedPlaceBoard.CHUNK;
+            for ( int top = 0; top < region.getRows(); top += span ) {
+                for ( int left = 0; left < region.getCols(); left += span ) {
+                    int rows = Math.min( span, region.getRows() - top );
+                    int cols = Math.min( span, region.getCols() - left );
+                    boolean blank = sparse != null && sparse.isBlank( region.getRow() + top, region.getCol() + left, rows, cols );
+                    for ( int row = top; row < top + rows; row++ ) {
+                        for ( int col = left; col < left + cols; col++ ) {
+                            int i = row * region.getCols() + col;
+                            if ( blank ) {
+                                // NO_OWNER and no time are already 0.
+                                packed[i >> 1] |= PlaceColor.WHITE.getNumber() << ( ( i & 1 ) << 2 );
+                                continue;
+                            }
+                            PlaceTile tile = board.getTile( region.getRow() + row, region.getCol() + col );
+                            packed[i >> 1] |= tile.getColor().getNumber() << ( ( i & 1 ) << 2 );
+                            meta.putInt( i * 4, owners.idOf( tile.getOwner() ) );
+                            meta.putLong( cells * 4 + i * 8, tile.getTime() );
+                        }
+                    }
+                }
+            }
+            colorChunks.add( chunkFrame( COLOR_CHUNK, index, deflate( deflater, packed ) ) );
+            metaChunks.add( chunkFrame( META_CHUNK, index, deflate( deflater, meta.array() ) ) );
+        }
+        deflater.end();
+
+        // the names go last into BOARD_START, once every owner has an id.
+        int count = owners.size();
+        byte[][] names = new byte[count][];
+        int size = 4 + 4 + 4;
+        for ( int id = 0; id < count; id++ ) {
+            names[id] = utf( owners.nameOf( id ) );
+            size += 2 + names[id].length;
+        }
+        ByteBuffer start = frame( BOARD_START, size );
+        start.putInt( dim );
+        start.putInt( CHUNK );
+        start.putInt( count );
+        for ( byte[] name : names ) {
+            putUtf( start, name );
+        }
+
+        List< ByteBuffer > frames = new ArrayList<>( 1 + 2 * colorChunks.size() );
+        frames.add( finish( start ) );
+        frames.addAll( colorChunks );
+        frames.addAll( metaChunks );
+        return frames;
+    }
+
+    /**
+     * Compresses the colors and the owners and times of a chunk that was
+     * never painted: white tiles, with no owner and no time.
+     *
+     * @return the deflated colors, then the deflated owners and times.
+     */
+    private static byte[][] blankChunk( Deflater deflater, int cells ) {
+        int white = PlaceColor.WHITE.getNumber();
+        byte[] packed = new byte[( cells + 1 ) / 2];
+        Arrays.fill( packed, ( byte ) ( white << 4 | white ) );
+        if ( cells % 2 == 1 ) {
+            // the spare nibble of an odd chunk is left 0, as when painted.
+            packed[packed.length - 1] = ( byte ) white;
+        }
+        // NO_OWNER is 0, as is an unset time.
+        return new byte[][] { deflate( deflater, packed ), deflate( deflater, new byte[cells * 12] ) };
+    }
+
+    /**
+     * Finds the cells of a chunk.  Chunks are numbered row by row; those on
+     * the bottom and right edges may be smaller than the rest.
+     */
+    private static BoardRegion chunkRegion( int dim, int chunk, int index ) {
+        int across = ( dim + chunk - 1 ) / chunk;
+        int row = index / across * chunk;
+        int col = index % across * chunk;
+        return new BoardRegion( row, col, Math.min( chunk, dim - row ), Math.min( chunk, dim - col ) );
+    }
+
+    /**
+     * Builds a COLOR_CHUNK or META_CHUNK frame.
+     */
+    private static ByteBuffer chunkFrame( byte type, int index, byte[] deflated ) {
+        ByteBuffer frame = frame( type, 4 + deflated.length );
+        frame.putInt( index );
+        frame.put( deflated );
+        return finish( frame );
+    }
+
+    /**
+     * Compresses a chunk's bytes.
+     */
+    private static byte[] deflate( Deflater deflater, byte[] raw ) {
+        deflater.reset();
+        deflater.setInput( raw );
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream( raw.length / 8 + 64 );
+        byte[] buffer = new byte[8192];
+        while ( !deflater.finished() ) {
+            out.write( buffer, 0, deflater.deflate( buffer ) );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses the rest of a chunk frame, which must hold exactly the
+     * given number of bytes.
+     */
+    private static byte[] inflate( ByteBuffer body, int size ) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput( body.array(), body.arrayOffset() + body.position(), body.remaining() );
+        byte[] raw = new byte[size];
+        try {
+            int done = 0;
+            while ( done < size && !inflater.finished() ) {
+                int n = inflater.inflate( raw, done, size - done );
+                if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+                    break;
+                }
+                done += n;
+            }
+            if ( done != size || !inflater.finished() ) {
+                throw new StreamCorruptedException( "Board chunk is " + done + " bytes, not " + size );
+            }
+        } catch ( DataFormatException dfe ) {
+            throw new StreamCorruptedException( "Board chunk is corrupt: " + dfe.getMessage() );
+        } finally {
+            inflater.end();
+        }
+        body.position( body.limit() );
+        return raw;
+    }
+
+    /**
+     * Reads a BOARD body into a packed board that shares the dictionary.
+     */
+    private static PlaceBoard decodeBoard( ByteBuffer body, OwnerDictionary owners ) {
+        int dim = body.getInt();
+        int count = body.getInt();
+        for ( int id = 0; id < count; id++ ) {
+            owners.define( id, getUtf( body ) );
+        }
+        int cells = dim * dim;
+        byte[] colors = new byte[( cells + 1 ) / 2];
+        int[] ids = new int[cells];
+        long[] times = new long[cells];
+        body.get( colors );
+        body.asIntBuffer().get( ids );
+        body.position( body.position() + 4 * cells );
+        body.asLongBuffer().get( times );
+        body.position( body.position() + 8 * cells );
+        return new PackedPlaceBoard( dim, colors, ids, times, owners );
+    }
+
+    /**
+     * Writes a request with Java serialization, as version 1 does.
+     */
+    private static ByteBuffer serialize( PlaceRequest< ? > req ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream( bytes );
+        data.writeInt( 0 );
+        ObjectOutputStream obj = new ObjectOutputStream( data );
+        obj.writeUnshared( req );
+        obj.close();
+
+        ByteBuffer frame = ByteBuffer.wrap( bytes.toByteArray() );
+        frame.putInt( 0, frame.remaining() - 4 );
+        return frame;
+    }
+
+    /**
+     * Reads a request written with Java serialization.
+     */
+    private static PlaceRequest< ? > deserialize( ByteBuffer body ) throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[body.remaining()];
+        body.get( bytes );
+        ObjectInputStream obj = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+        return ( PlaceRequest< ? > ) obj.readUnshared();
+    }
+
+    /**
+     * Starts a version 2 frame: room for the length, type byte and payload,
+     * with the length and type already written.
+     */
+    private static ByteBuffer frame( byte type, int payloadSize ) {
+        ByteBuffer frame = ByteBuffer.allocate( 4 + 1 + payloadSize );
+        frame.putInt( 1 + payloadSize );
+        frame.put( type );
+        return frame;
+    }
+
+    /**
+     * Finishes a frame so it can be sent.  Senders share it through
+     * duplicates and never write to it.
+     */
+    private static ByteBuffer finish( ByteBuffer frame ) {
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encodes a string for putUtf; anything past 65535 bytes is cut off.
+     */
+    private static byte[] utf( String s ) {
+        byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+        return bytes.length <= 0xFFFF ? bytes : java.util.Arrays.copyOf( bytes, 0xFFFF );
+    }
+
+    private static void putUtf( ByteBuffer frame, byte[] bytes ) {
+        frame.putShort( ( short ) bytes.length );
+        frame.put( bytes );
+    }
+
+    private static String getUtf( ByteBuffer body ) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,290 @@
+package place.network;
+
+import place.OwnerDictionary;
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Sends and receives PlaceRequests over a socket.  Every request travels as
+ * one frame: a four byte length followed by that many bytes of request.
+ * Frames can be cut out of a byte stream without decoding them, which is
+ * what lets the non-blocking server read many connections at once and
+ * encode a broadcast only once for every client.  The layout of a frame
+ * depends on the protocol version agreed at login; see PlaceCodec.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class PlaceExchange {
+
+    /**
+     * Largest frame a client accepts from the server, in bytes; a whole
+     * board may come as one frame.
+     */
+    public static final int MAX_FRAME = 1024 * 1024 * 1024;
+
+    /**
+     * Largest frame the server accepts from a client, in bytes.  Clients
+     * only send small requests, and one that has not logged in must not
+     * be able to make the server allocate a board's worth of memory.
+     */
+    static final int MAX_INBOUND = 1024 * 1024;
+
+    /**
+     * Socket the frames travel over.
+     */
+    private Socket sock;
+
+    /**
+     * Buffered input from the socket.
+     */
+    private DataInputStream in;
+
+    /**
+     * Buffered output to the socket.
+     */
+    private DataOutputStream out;
+
+    /**
+     * Encodes and decodes frames for this connection.
+     */
+    private PlaceCodec codec;
+
+    /**
+     * Requests decoded from a batch frame but not yet returned.
+     */
+    private Queue< PlaceRequest< ? > > pending;
+
+    /**
+     * Largest frame accepted from the other end, in bytes.
+     */
+    private int maxFrame;
+
+    /**
+     * Wraps a client's socket, offering the newest protocol version.
+     *
+     * @param sock the connected socket.
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    public PlaceExchange( Socket sock ) throws IOException {
+        this( sock, PlaceCodec.MAX_VERSION );
+    }
+
+    /**
+     * Wraps a client's socket, offering at most the given protocol version.
+     *
+     * @param sock the connected socket.
+     * @param maxVersion 1 for serialized requests, 2 for binary frames.
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    public PlaceExchange( Socket sock, int maxVersion ) throws IOException {
+        this( sock, new PlaceCodec( new OwnerDictionary(), false, maxVersion ) );
+    }
+
+    /**
+     * Wraps the server's end of a socket.
+     *
+     * @param sock the connected socket.
+     * @param owners the default canvas's owner dictionary, used until the
+     *               client logs in to a canvas.
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    PlaceExchange( Socket sock, OwnerDictionary owners ) throws IOException {
+        this( sock, new PlaceCodec( owners, true, PlaceCodec.MAX_VERSION ) );
+        this.maxFrame = MAX_INBOUND;
+    }
+
+    /**
+     * Wraps a client's new socket to the same server after the previous
+     * connection was lost.  Its LOGIN asks to resume where the previous
+     * connection left off.
+     *
+     * @param sock the connected socket.
+     * @param previous the exchange whose connection was lost.
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    PlaceExchange( Socket sock, PlaceExchange previous ) throws IOException {
+        this( sock, new PlaceCodec( previous.codec ) );
+    }
+
+    private PlaceExchange( Socket sock, PlaceCodec codec ) throws IOException {
+        this.sock = sock;
+        this.codec = codec;
+        this.pending = new ArrayDeque<>();
+        this.maxFrame = MAX_FRAME;
+        this.in = new DataInputStream( new BufferedInputStream( sock.getInputStream() ) );
+        this.out = new DataOutputStream( new BufferedOutputStream( sock.getOutputStream() ) );
+    }
+
+    /**
+     * Get the canvas named in the client's LOGIN; empty for the default.
+     *
+     * @return the canvas name.
+     */
+    String getCanvas() {
+        return this.codec.getCanvas();
+    }
+
+    /**
+     * On a client, chooses the canvas to log in to.
+     *
+     * @param canvas the canvas name, or empty for the default canvas.
+     */
+    void setCanvas( String canvas ) {
+        this.codec.setCanvas( canvas );
+    }
+
+    /**
+     * On the server, switches to the owner ids of the canvas the client
+     * logged in to.
+     *
+     * @param owners the canvas's owner dictionary.
+     */
+    void setOwners( OwnerDictionary owners ) {
+        this.codec.setOwners( owners );
+    }
+
+    /**
+     * Get the protocol version this end is sending.  Before the login
+     * handshake it is the highest version on offer.
+     *
+     * @return the protocol version.
+     */
+    public int getVersion() {
+        return this.codec.getVersion();
+    }
+
+    /**
+     * Get the sequence number of the last change received, on a client
+     * that speaks version 3.
+     *
+     * @return the sequence number, or 0 if none is known.
+     */
+    public long getLastSeq() {
+        return this.codec.getLastSeq();
+    }
+
+    /**
+     * Tells whether every chunk of the last board has arrived, on a client
+     * that speaks version 4.  Always true for a board sent in one frame.
+     *
+     * @return true unless chunks of the board are still to come.
+     */
+    public boolean isBoardComplete() {
+        return this.codec.isBoardComplete();
+    }
+
+    /**
+     * Get what the client at the other end said it already has.
+     *
+     * @return the resume point, or null if it wants the whole board.
+     */
+    ResumePoint getResume() {
+        return this.codec.getResume();
+    }
+
+    /**
+     * Get the token of this session: the one given to the client at the
+     * other end on the server, the one received on a client.
+     *
+     * @return the token, or 0 if there is none.
+     */
+    long getToken() {
+        return this.codec.getToken();
+    }
+
+    /**
+     * Sends a single request and flushes it.
+     *
+     * @param req the request to send.
+     * @throws IOException if the connection fails.
+     */
+    public synchronized void send( PlaceRequest< ? > req ) throws IOException {
+        sendFrame( this.codec.encode( req ) );
+    }
+
+    /**
+     * Sends a frame that has already been encoded and flushes it.  The
+     * buffer's position is not changed.
+     *
+     * @param frame the encoded frame.
+     * @throws IOException if the connection fails.
+     */
+    public synchronized void sendFrame( ByteBuffer frame ) throws IOException {
+        writeFrame( frame );
+        this.out.flush();
+    }
+
+    /**
+     * Buffers an encoded frame without flushing it, so a writer with more
+     * frames waiting can send them together.
+     *
+     * @param frame the encoded frame.
+     * @throws IOException if the connection fails.
+     */
+    public synchronized void writeFrame( ByteBuffer frame ) throws IOException {
+        ByteBuffer dup = frame.duplicate();
+        if ( dup.hasArray() ) {
+            this.out.write( dup.array(), dup.arrayOffset() + dup.position(), dup.remaining() );
+        } else {
+            byte[] bytes = new byte[dup.remaining()];
+            dup.get( bytes );
+            this.out.write( bytes );
+        }
+    }
+
+    /**
+     * Sends any buffered frames.
+     *
+     * @throws IOException if the connection fails.
+     */
+    public synchronized void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Encodes a request for this connection without sending it.
+     *
+     * @param req the request.
+     * @return the encoded frame.
+     * @throws IOException if the request cannot be encoded.
+     */
+    synchronized ByteBuffer encode( PlaceRequest< ? > req ) throws IOException {
+        return this.codec.encode( req );
+    }
+
+    /**
+     * Blocks until the next request arrives.
+     *
+     * @return the request.
+     * @throws IOException if the connection fails or the frame is malformed.
+     * @throws ClassNotFoundException if the frame holds an unknown class.
+     */
+    public PlaceRequest< ? > receive() throws IOException, ClassNotFoundException {
+        // frames that only update the codec, like owner names, yield nothing.
+        while ( this.pending.isEmpty() ) {
+            int length = this.in.readInt();
+            if ( length <= 0 || length > this.maxFrame ) {
+                throw new StreamCorruptedException( "Bad frame length " + length );
+            }
+            byte[] frame = new byte[length];
+            this.in.readFully( frame );
+            this.codec.decode( ByteBuffer.wrap( frame ), this.pending );
+        }
+        return this.pending.poll();
+    }
+
+    /**
+     * Closes the exchange and its socket.
+     */
+    public void close() {
+        try {
+            this.sock.close();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+}
@@ -0,0 +1,1101 @@
+package place.network;
+
+import place.ChunkedPlaceBoard;
+import place.MappedPlaceBoard;
+import place.OwnerDictionary;
+import place.PackedPlaceBoard;
+import place.PlaceBoard;
+import place.PlaceException;
+import place.PlaceTile;
+import place.StripedPlaceBoard;
+import place.server.BoardStore;
+import place.server.Cooldowns;
+import place.server.RateLimit;
+import place.server.ServerLog;
+import place.server.ServerConfig;
+import java.nio.ByteBuffer;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rules of the game, shared by every server engine: who is logged in,
+ * what the board looks like, and who hears about each tile change.  Engines
+ * only move requests between the network and this class.
+ *
+ * One game is one canvas.  A server can host several, each with its own
+ * board, clients, broadcast stage and persistence; see CanvasRegistry.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class PlaceGame {
+
+    /**
+     * Most tiles sent in one batch when a viewport moves.
+     */
+    private static final int SHOWN_BATCH = 65536;
+
+    /**
+     * Milliseconds a sender is told to wait when the ring sequencer is a
+     * whole ring behind and its change was refused.
+     */
+    private static final long RING_FULL_WAIT = 10;
+
+    /**
+     * Name of the canvas this game is played on.
+     */
+    private String name;
+
+    /**
+     * Server-side PlaceBoard used to store a copy to deliver to clients,
+     * and ensure valid moves.
+     */
+    private PlaceBoard board;
+
+    /**
+     * Keeps the board across restarts, or null when the board lives in
+     * memory only.
+     */
+    private BoardStore store;
+
+    /**
+     * The board when it is a striped board that request threads write in
+     * parallel, or null when changes are applied one at a time.
+     */
+    private StripedPlaceBoard striped;
+
+    /**
+     * The single writer of the board with --sequencer=ring, or null when
+     * request threads apply changes under the history lock.
+     */
+    private Sequencer sequencer;
+
+    /**
+     * When each user may next place a tile.
+     */
+    private Cooldowns cooldowns;
+
+    /**
+     * How many tile changes the canvas still takes, so one busy canvas
+     * cannot starve the others.
+     */
+    private RateLimit rate;
+
+    /**
+     * Usernames claimed on this canvas, by logged in clients and by those
+     * still logging in.  A name is claimed with putIfAbsent, so of two
+     * clients asking for it at once only one gets it, and a taken name is
+     * refused without waiting for the join lock.
+     */
+    private Map< String, ClientConnection > clients;
+
+    /**
+     * The join lock.  It orders clients joining against broadcasts, so no
+     * change can slip in between a joining client's board and its first
+     * update.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Which logged in clients hear about which tiles; every client that
+     * has been sent LOGIN_SUCCESS and not logged out is in it.  Guarded by
+     * the join lock.
+     */
+    private ViewportIndex viewports;
+
+    /**
+     * Owner ids used on the wire, shared by every connection.  Every client
+     * hears about each id, either in its BOARD or in an OWNER frame, before
+     * anything sent to it refers to the id.
+     */
+    private OwnerDictionary owners;
+
+    /**
+     * Number of owner ids the logged in clients have been told about;
+     * guarded by the join lock.  Encoding a board restored from disk can
+     * add ids without the lock, and they are announced at the next chance.
+     */
+    private int announced;
+
+    /**
+     * Stage that fans accepted changes out to every client.
+     */
+    private Broadcaster broadcaster;
+
+    /**
+     * Recent changes by sequence number, for clients that reconnect.  Its
+     * lock also keeps the board, the sequence and the broadcast stage in
+     * the same order.
+     */
+    private ChangeHistory history;
+
+    /**
+     * Encoded copies of the board shared by joining clients.
+     */
+    private BoardCache boardCache;
+
+    /**
+     * Sequence number of the last change handed to the clients; guarded by
+     * the join lock.  A joining client's board is current to at least
+     * this change, and every later one is still to be sent to it.
+     */
+    private long broadcastSeq;
+
+    /**
+     * Value of broadcastSeq when the board last grew, or -1 if it never
+     * has; guarded by the join lock.  A client resuming from no later
+     * than this may not have heard that it grew, so is sent the whole
+     * board.
+     */
+    private long expandedSeq;
+
+    /**
+     * Random number naming this run of the server, so that a client does
+     * not resume with sequence numbers from a run before a restart.
+     */
+    private long epoch;
+
+    /**
+     * Tile changes accepted since the last stats line.
+     */
+    private AtomicLong changesIn;
+
+    /**
+     * Tile update frames queued for clients since the last stats line;
+     * only counted by the broadcast stage.
+     */
+    private long framesOut;
+
+    /**
+     * When the last stats line was logged.
+     */
+    private long statsSince;
+
+    /**
+     * Settings chosen at startup.
+     */
+    private ServerConfig config;
+
+    /**
+     * The server log, log.txt, shared by every canvas.
+     */
+    private ServerLog log;
+
+    /**
+     * Put before every log entry, naming the canvas when the server hosts
+     * more than one.
+     */
+    private String logPrefix;
+
+    /**
+     * Create the game of one canvas.
+     *
+     * @param name the canvas name.
+     * @param config the canvas's settings; see ServerConfig.forCanvas.
+     * @param log the server log.
+     * @throws IOException if the board cannot be opened or restored.
+     */
+    public PlaceGame( String name, ServerConfig config, ServerLog log ) throws IOException {
+        this.name = name;
+        this.config = config;
+        this.log = log;
+        this.logPrefix = config.getCanvasCount() > 1 ? "[" + name + "] " : "";
+        this.board = newBoard( config );
+        if ( config.getDataDir() != null ) {
+            this.store = new BoardStore( config, this.board );
+        }
+        this.cooldowns = new Cooldowns( config.getCooldown() );
+        this.rate = new RateLimit( config.getCanvasRate(), config.getBatchLimit() );
+        this.clients = new ConcurrentHashMap<>();
+        // a board restored from disk may have grown since startup.
+        this.viewports = new ViewportIndex( this.board.DIM );
+        this.owners = new OwnerDictionary();
+        this.announced = this.owners.size();
+        long lastSeq = this.store == null ? 0 : this.store.getLastSeq();
+        this.history = new ChangeHistory( config.getHistory(), lastSeq );
+        this.broadcastSeq = lastSeq;
+        this.expandedSeq = -1;
+        this.boardCache = new BoardCache( this.board, this.owners, this.history, config.getBoardCacheInterval(),
+                Math.min( config.getBoardCacheChanges(), config.getHistory() ) );
+        do {
+            this.epoch = new Random().nextLong();
+        } while ( this.epoch == 0 );
+        this.broadcaster = new Broadcaster( this, config.getTick() );
+        if ( config.getSequencing() == ServerConfig.Sequencing.RING ) {
+            this.sequencer = new Sequencer( this, Math.max( config.getRingSize(), config.getBatchLimit() ) );
+        }
+        else if ( this.board instanceof StripedPlaceBoard && this.store == null ) {
+            // the change log takes changes one at a time, so is not used.
+            this.striped = ( StripedPlaceBoard ) this.board;
+        }
+        this.changesIn = new AtomicLong();
+        this.statsSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Creates the empty board in the storage mode chosen at startup.
+     *
+     * @param config the server configuration.
+     * @return a board of all white tiles, or the saved board for a board
+     *         file that already exists.
+     * @throws IOException if the board file cannot be opened.
+     */
+    private static PlaceBoard newBoard( ServerConfig config ) throws IOException {
+        switch ( config.getBoardMode() ) {
+            case PACKED:
+                return new PackedPlaceBoard( config.getDim() );
+            case MAPPED:
+                return new MappedPlaceBoard( config.getDim(), config.getBoardFile() );
+            case STRIPED:
+                return new StripedPlaceBoard( config.getDim() );
+            case CHUNKED:
+                return new ChunkedPlaceBoard( config.getDim() );
+            default:
+                return new PlaceBoard( config.getDim() );
+        }
+    }
+
+    /**
+     * Starts the game's background stages.  Called by the server engine
+     * before it accepts connections.
+     */
+    public void start() {
+        if ( this.store != null ) {
+            this.store.start();
+        }
+        this.broadcaster.start();
+        if ( this.sequencer != null ) {
+            this.sequencer.start();
+        }
+    }
+
+    /**
+     * Creates an empty outbound queue sized and governed by the server's
+     * settings.
+     *
+     * @return the queue.
+     */
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue( this.config.getQueueCapacity(), this.config.getOverflowPolicy() );
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public PlaceBoard getBoard() {
+        return this.board;
+    }
+
+    public OwnerDictionary getOwners() {
+        return this.owners;
+    }
+
+    /**
+     * Get the number of clients logged in to the canvas.
+     *
+     * @return the number of clients.
+     */
+    public int getClientCount() {
+        return this.clients.size();
+    }
+
+    /**
+     * Logs a client in.  On success the client is sent LOGIN_SUCCESS and the
+     * board, and starts receiving tile changes; no change can slip in between
+     * the board and the first TILE_CHANGED.  If the name is taken the client
+     * is sent an ERROR instead.
+     *
+     * The board comes from a copy shared with other clients that joined
+     * around the same time, followed by the changes made since the copy was
+     * taken.  A client reconnecting to the same server run is sent only the
+     * changes it missed, as one batch, if they are all still in the history.
+     * It also takes over its name from a connection the server has not yet
+     * noticed is dead, if it shows the token that connection was given;
+     * anyone else asking for a name in use is refused.  A client is refused if the canvas already has as
+     * many clients as one canvas may.
+     *
+     * The name is claimed before anything else, without a lock, so a
+     * crowd logging in at once only waits on the join lock to be handed
+     * the board, and a taken name costs nothing more.
+     *
+     * @param name the requested username.
+     * @param conn the client's connection.
+     * @return true if the client is now logged in.
+     * @throws IOException if the client cannot be reached.
+     */
+    public boolean login( String name, ClientConnection conn ) throws IOException {
+        logEntry( name + " has connected." );
+        ResumePoint resume = conn.getResume();
+        boolean sameRun = resume != null && resume.epoch == this.epoch;
+        ClientConnection replaced = null;
+        ClientConnection existing;
+        while ( ( existing = this.clients.putIfAbsent( name, conn ) ) != null ) {
+            // if name exists and the client cannot prove it is the one holding it, reject connection.
+            if ( !sameRun || resume.token == 0 || resume.token != existing.getToken() ) {
+                String errorMsg = "Someone has already logged onto the server with the username " + name;
+                conn.send( new PlaceRequest<>( PlaceRequest.RequestType.ERROR, errorMsg ) );
+                return false;
+            }
+            if ( this.clients.replace( name, existing, conn ) ) {
+                logEntry( name + " reconnected before the old connection was noticed closing." );
+                existing.close();
+                replaced = existing;
+                break;
+            }
+        }
+        if ( replaced == null && this.config.getCanvasClients() > 0 && this.clients.size() > this.config.getCanvasClients() ) {
+            this.clients.remove( name, conn );
+            sendError( conn, "Canvas " + this.name + " is full; try again later." );
+            return false;
+        }
+
+        try {
+            // encoding a large board takes a while; don't hold up the other clients.
+            BoardCache.Snapshot snapshot = sameRun ? null : this.boardCache.get( conn.getVersion() );
+            synchronized ( this.lock ) {
+                if ( replaced != null ) {
+                    this.viewports.remove( replaced );
+                }
+                if ( this.clients.get( name ) != conn ) {
+                    // a reconnect of the same client took the name over meanwhile.
+                    return false;
+                }
+
+                logEntry( "Login successful for " + name );
+                int id = ownerId( name );
+                long seq = this.broadcastSeq;
+                List< TileChange > missed = sameRun && resume.seq > this.expandedSeq ? this.history.since( resume.seq, seq ) : null;
+                PlaceRequest< String > welcome = new PlaceRequest<>( PlaceRequest.RequestType.LOGIN_SUCCESS, "You have connected to the server, you are now playing on a " + this.board.DIM + "x" + this.board.DIM + " board"
+                        + ( this.logPrefix.isEmpty() ? "." : ", canvas " + this.name + "." ) );
+                sendLogin( conn, PlaceCodec.encodeLoginSuccess( welcome, conn.getVersion(), id, this.epoch, seq, conn.getToken() ) );
+                if ( missed == null ) {
+                    sendBoard( conn, snapshot == null ? this.boardCache.get( conn.getVersion() ) : snapshot, seq );
+                }
+                else {
+                    logEntry( "Resuming " + name + " with " + missed.size() + " missed changes." );
+                    announceOwners();
+                    sendOwners( conn, resume.knownOwners );
+                    sendMissed( conn, missed, seq );
+                }
+                if ( this.clients.get( name ) != conn ) {
+                    // the client was disconnected while it was sent the board.
+                    return false;
+                }
+                this.viewports.add( conn );
+            }
+            return true;
+        } catch ( IOException | RuntimeException e ) {
+            this.clients.remove( name, conn );
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the whole board to a client that is logging in: a shared copy,
+     * then the changes made after the copy was taken.  Must be called with
+     * the join lock held.
+     *
+     * @param conn the client.
+     * @param snapshot the copy of the board.
+     * @param seq the sequence number the client must be brought up to.
+     * @throws IOException if the client cannot be reached.
+     */
+    private void sendBoard( ClientConnection conn, BoardCache.Snapshot snapshot, long seq ) throws IOException {
+        List< TileChange > missed = snapshot.seq < seq ? this.history.since( snapshot.seq, seq ) : null;
+        if ( ( snapshot.seq < seq && missed == null ) || snapshot.dim != this.board.DIM ) {
+            // too many changes since the copy, or the board has grown; a new one holds them all.
+            snapshot = this.boardCache.refresh( conn.getVersion() );
+        }
+        // taking the copy may have added owners no client has heard of.
+        announceOwners();
+        for ( ByteBuffer frame : snapshot.frames ) {
+            sendLogin( conn, frame );
+        }
+        sendOwners( conn, snapshot.owners );
+        if ( missed != null && !missed.isEmpty() ) {
+            sendMissed( conn, missed, seq );
+        }
+    }
+
+    /**
+     * Tells a client that speaks binary frames the names behind the owner
+     * ids it does not know yet.
+     *
+     * @param conn the client.
+     * @param known the number of ids the client already knows.
+     * @throws IOException if the client cannot be reached.
+     */
+    private void sendOwners( ClientConnection conn, int known ) throws IOException {
+        if ( conn.getVersion() < PlaceCodec.VERSION_BINARY ) {
+            return;
+        }
+        for ( int id = known; id < this.owners.size(); id++ ) {
+            sendLogin( conn, PlaceCodec.encodeOwner( id, this.owners.nameOf( id ) ) );
+        }
+    }
+
+    /**
+     * Sends a joining client the changes it does not have yet, keeping only
+     * the last change to each tile.  Clients that speak binary frames get
+     * them as one batch.
+     *
+     * @param conn the client.
+     * @param missed the changes, oldest first.
+     * @param seq the sequence number of the last of them.
+     * @throws IOException if the client cannot be reached.
+     */
+    private void sendMissed( ClientConnection conn, List< TileChange > missed, long seq ) throws IOException {
+        Map< Integer, PlaceTile > latest = new LinkedHashMap<>();
+        for ( TileChange change : missed ) {
+            latest.put( change.tile.getRow() * this.board.DIM + change.tile.getCol(), change.tile );
+        }
+        if ( conn.getVersion() >= PlaceCodec.VERSION_BINARY ) {
+            sendLogin( conn, PlaceCodec.encodeBatch( latest.values(), seq, conn.getVersion(), this.owners ) );
+            return;
+        }
+        for ( PlaceTile tile : latest.values() ) {
+            sendLogin( conn, PlaceCodec.encodeChange( tile, 0, conn.getVersion(), this.owners ) );
+        }
+    }
+
+    /**
+     * Queues one of the frames a client is sent as it logs in.  However
+     * many chunks the board takes, they do not count against the client's
+     * queue, so a large board does not get its client disconnected.
+     *
+     * @param conn the client.
+     * @param frame the encoded frame.
+     * @throws IOException if the client cannot be reached.
+     */
+    private static void sendLogin( ClientConnection conn, ByteBuffer frame ) throws IOException {
+        conn.sendUpdate( frame, OutboundQueue.LOGIN );
+    }
+
+    /**
+     * Removes the specified player from the map of clients.
+     *
+     * @param name client name to be deleted.
+     * @param conn the connection being closed; an unrelated connection
+     *             holding the same name is left alone.
+     */
+    public void logout( String name, ClientConnection conn ) {
+        this.clients.remove( name, conn );
+        // the connection may be in the index without holding the name, as
+        // when a reconnect took the name over; it is removed either way.
+        synchronized ( this.lock ) {
+            this.viewports.remove( conn );
+        }
+    }
+
+    /**
+     * Changes the part of the board a client hears about, and sends it the
+     * tiles that have just come into view.  A client that has had the
+     * whole board is sent nothing, since it already has every tile.
+     *
+     * @param conn the client.
+     * @param viewport the tiles it wants to hear about, or null for the
+     *                 whole board; cut down to the board's edges.
+     * @throws IOException if the client cannot be reached.
+     */
+    public void subscribe( ClientConnection conn, BoardRegion viewport ) throws IOException {
+        BoardRegion clipped = null;
+        if ( viewport != null ) {
+            int row = Math.max( 0, viewport.getRow() );
+            int col = Math.max( 0, viewport.getCol() );
+            int rows = Math.min( this.board.DIM, viewport.getRow() + viewport.getRows() ) - row;
+            int cols = Math.min( this.board.DIM, viewport.getCol() + viewport.getCols() ) - col;
+            if ( rows <= 0 || cols <= 0 ) {
+                sendError( conn, "Invalid viewport." );
+                return;
+            }
+            clipped = new BoardRegion( row, col, rows, cols );
+        }
+
+        synchronized ( this.lock ) {
+            if ( !this.viewports.contains( conn ) ) {
+                return;
+            }
+            BoardRegion old = this.viewports.subscribe( conn, clipped );
+            if ( old == null ) {
+                return;
+            }
+            BoardRegion now = clipped == null ? new BoardRegion( 0, 0, this.board.DIM, this.board.DIM ) : clipped;
+            // changes not yet broadcast reach the client after these.
+            List< PlaceTile > shown = new ArrayList<>();
+            for ( int row = now.getRow(); row < now.getRow() + now.getRows(); row++ ) {
+                for ( int col = now.getCol(); col < now.getCol() + now.getCols(); col++ ) {
+                    if ( !old.contains( row, col ) ) {
+                        shown.add( this.board.getTile( row, col ) );
+                    }
+                    if ( shown.size() == SHOWN_BATCH ) {
+                        sendShown( conn, shown );
+                        shown.clear();
+                    }
+                }
+            }
+            if ( !shown.isEmpty() ) {
+                sendShown( conn, shown );
+            }
+        }
+    }
+
+    /**
+     * Sends a client tiles that have come into its viewport.  Must be
+     * called with the join lock held.
+     *
+     * @param conn the client.
+     * @param shown the tiles, as they are now on the board.
+     * @throws IOException if the client cannot be reached.
+     */
+    private void sendShown( ClientConnection conn, List< PlaceTile > shown ) throws IOException {
+        int version = conn.getVersion();
+        if ( version < PlaceCodec.VERSION_BINARY ) {
+            for ( PlaceTile tile : shown ) {
+                conn.sendFrame( PlaceCodec.encodeChange( tile, 0, version, this.owners ) );
+            }
+            return;
+        }
+        ByteBuffer batch = PlaceCodec.encodeBatch( shown, this.broadcastSeq, version, this.owners );
+        // a board restored from disk can hold owners no client has heard of.
+        announceOwners();
+        conn.sendFrame( batch );
+    }
+
+    /**
+     * Applies a tile change from a client and hands it to the broadcast
+     * stage, or tells the sender why it was refused.  Returns without
+     * waiting for any client to be sent the change.  A change that comes
+     * before the sender's cooldown is over is refused with the time left,
+     * as is one the canvas has no room for this second; the cooldown is
+     * claimed first, in one step, so a sender ignoring it does not use up
+     * the canvas and two changes racing in on different connections cannot
+     * both get through, and given back if the change is refused after all,
+     * so a change the canvas refused does not hold up the sender's next
+     * one.  With the ring sequencer the change is handed to the writer
+     * thread, which applies it in turn; if the writer is a whole ring
+     * behind, the change is refused, and its share of the canvas given
+     * back, rather than have this thread, which may be an event loop, wait
+     * for room.
+     *
+     * @param conn the client that asked for the change.
+     * @param tile the new tile.
+     * @throws IOException if the sender cannot be reached.
+     */
+    public void changeTile( ClientConnection conn, PlaceTile tile ) throws IOException {
+        if ( this.board.isValid( tile ) ) {
+            int user = this.owners.idOf( conn.getUsername() );
+            long wait = this.cooldowns.tryStart( user );
+            if ( wait > 0 ) {
+                sendError( conn, "Cooldown: wait " + wait + " ms before placing another tile." );
+                return;
+            }
+            wait = this.rate.tryTake( 1 );
+            if ( wait > 0 ) {
+                this.cooldowns.cancel( user );
+                sendError( conn, "Canvas busy: wait " + wait + " ms before placing another tile." );
+                return;
+            }
+            internOwner( tile.getOwner() );
+            if ( this.sequencer != null ) {
+                if ( !this.sequencer.tryPublish( tile ) ) {
+                    this.rate.give( 1 );
+                    this.cooldowns.cancel( user );
+                    sendError( conn, "Server busy: wait " + RING_FULL_WAIT + " ms before placing another tile." );
+                    return;
+                }
+            }
+            else if ( this.striped != null ) {
+                applyStriped( tile );
+            }
+            else {
+                // sequence numbers follow the order changes reach the board.
+                synchronized ( this.history ) {
+                    apply( tile );
+                }
+            }
+            if ( this.log.isLoggable( ServerLog.Level.DEBUG ) ) {
+                this.log.log( ServerLog.Level.DEBUG, this.logPrefix + "Tile placed: ", tile );
+            }
+            this.changesIn.incrementAndGet();
+        }
+        else {
+            sendError( conn, "Invalid tile placement." );
+        }
+    }
+
+    /**
+     * Applies many tile changes from a client in one pass and answers with
+     * whether each was placed.  Tiles off the board, and any past the most
+     * the server takes in one batch, are refused; the rest go to the board
+     * and the broadcast stage together, in the order given; on a striped
+     * board they go one at a time, so other changes may come between them.
+     * The batch counts as one placement against the sender's cooldown, and is refused
+     * whole if that is not over, or if the canvas has no room for every
+     * accepted tile this second, or if the ring sequencer is a whole ring
+     * behind; each way the tiles are marked COOLDOWN with the time to
+     * wait.
+     *
+     * @param conn the client that asked for the changes.
+     * @param tiles the new tiles; anything else in the list is refused.
+     * @throws IOException if the sender cannot be reached.
+     */
+    public void changeTiles( ClientConnection conn, List< ? > tiles ) throws IOException {
+        PlacementResults results = new PlacementResults( tiles.size() );
+        List< PlaceTile > accepted = new ArrayList<>( Math.min( tiles.size(), this.config.getBatchLimit() ) );
+        for ( int i = 0; i < tiles.size(); i++ ) {
+            Object tile = tiles.get( i );
+            if ( i >= this.config.getBatchLimit() ) {
+                results.set( i, PlacementResults.Outcome.OVER_LIMIT );
+            }
+            else if ( !( tile instanceof PlaceTile ) || !this.board.isValid( ( PlaceTile ) tile ) ) {
+                results.set( i, PlacementResults.Outcome.INVALID );
+            }
+            else {
+                accepted.add( ( PlaceTile ) tile );
+            }
+        }
+        int user = OwnerDictionary.NO_OWNER;
+        if ( !accepted.isEmpty() ) {
+            user = this.owners.idOf( conn.getUsername() );
+            long wait = this.cooldowns.tryStart( user );
+            if ( wait == 0 ) {
+                wait = this.rate.tryTake( accepted.size() );
+                if ( wait > 0 ) {
+                    this.cooldowns.cancel( user );
+                }
+            }
+            if ( wait > 0 ) {
+                refuse( results, wait );
+                accepted.clear();
+            }
+            else {
+                results.setWait( this.cooldowns.getLength() );
+            }
+        }
+
+        String owner = null;
+        for ( PlaceTile tile : accepted ) {
+            // almost always one owner: the sender.
+            if ( !Objects.equals( tile.getOwner(), owner ) ) {
+                owner = tile.getOwner();
+                internOwner( owner );
+            }
+        }
+        if ( this.sequencer != null ) {
+            if ( !this.sequencer.tryPublish( accepted ) ) {
+                this.rate.give( accepted.size() );
+                this.cooldowns.cancel( user );
+                refuse( results, RING_FULL_WAIT );
+                accepted.clear();
+            }
+        }
+        else if ( this.striped != null ) {
+            for ( PlaceTile tile : accepted ) {
+                applyStriped( tile );
+            }
+        }
+        else {
+            synchronized ( this.history ) {
+                for ( PlaceTile tile : accepted ) {
+                    apply( tile );
+                }
+            }
+        }
+        this.changesIn.addAndGet( accepted.size() );
+        if ( this.log.isLoggable( ServerLog.Level.DEBUG ) ) {
+            logEntry( ServerLog.Level.DEBUG, "Placed " + accepted.size() + " of " + tiles.size() + " tiles in a batch." );
+        }
+        conn.send( new PlaceRequest<>( PlaceRequest.RequestType.TILES_RESULT, results ) );
+    }
+
+    /**
+     * Marks every tile of a batch that would have been placed as refused
+     * for now.
+     *
+     * @param results the answer to the batch.
+     * @param wait milliseconds before the sender may try again.
+     */
+    private static void refuse( PlacementResults results, long wait ) {
+        for ( int i = 0; i < results.size(); i++ ) {
+            if ( results.isAccepted( i ) ) {
+                results.set( i, PlacementResults.Outcome.COOLDOWN );
+            }
+        }
+        results.setWait( wait );
+    }
+
+    /**
+     * Gives an owner an id before any tile of theirs reaches the board; a
+     * joining client's BOARD must not hold an owner id that the other
+     * clients have not been told about.
+     *
+     * @param owner the owner name.
+     */
+    private void internOwner( String owner ) {
+        if ( !this.owners.contains( owner ) ) {
+            synchronized ( this.lock ) {
+                ownerId( owner );
+            }
+        }
+    }
+
+    /**
+     * Puts an accepted change on the board, in the change log if there is
+     * one, and in the history, then hands it to the broadcast stage.  Must
+     * be called with the history lock held, or by the sequencer.
+     *
+     * @param tile the new tile.
+     */
+    void apply( PlaceTile tile ) {
+        if ( this.store == null ) {
+            this.board.setTile( tile );
+        }
+        else {
+            try {
+                this.store.apply( tile );
+            } catch ( IOException ioe ) {
+                // the change stands; it is only at risk if the server dies.
+                logEntry( ServerLog.Level.WARN, "Could not log change: " + ioe.getMessage() );
+            }
+        }
+        this.broadcaster.publish( this.history.record( tile ) );
+    }
+
+    /**
+     * Puts an accepted change on a striped board and in the history, then
+     * hands it to the broadcast stage.  Only writes to the same region of
+     * the board wait for each other; the history lock is held just long
+     * enough to number the change and publish it, so changes are published
+     * in sequence order.
+     *
+     * @param tile the new tile.
+     */
+    private void applyStriped( PlaceTile tile ) {
+        this.striped.setTile( tile, () -> {
+            synchronized ( this.history ) {
+                this.broadcaster.publish( this.history.record( tile ) );
+            }
+        } );
+    }
+
+    /**
+     * Grows the board while clients stay connected, keeping every tile.
+     * Clients that speak version 7 are sent a short notice with the new
+     * size, ahead of any change to the new tiles; older clients cannot
+     * take in a bigger board, so they are told why and disconnected, and
+     * get the whole board when they log in again.  Only a chunked board can
+     * grow, as it does so without copying tiles: writes to the board wait
+     * only while its rows of chunk references are copied.
+     *
+     * @param dim the board's new dimension.
+     * @throws PlaceException if the board cannot grow to that size.
+     */
+    public void expand( int dim ) throws PlaceException {
+        if ( !( this.board instanceof ChunkedPlaceBoard ) ) {
+            throw new PlaceException( "Only a chunked board can grow; start the server with --board=chunked." );
+        }
+        if ( dim <= this.board.DIM ) {
+            throw new PlaceException( "The board is already " + this.board.DIM + "x" + this.board.DIM + "." );
+        }
+        if ( ( long ) dim * dim > Integer.MAX_VALUE ) {
+            throw new PlaceException( "A " + dim + "x" + dim + " board has too many tiles." );
+        }
+
+        List< ClientConnection > dropped = new ArrayList<>();
+        long start = System.nanoTime();
+        synchronized ( this.lock ) {
+            // no change to a new tile can be broadcast until the notices are queued.
+            if ( this.store == null ) {
+                this.board.expand( dim );
+            }
+            else {
+                try {
+                    this.store.expand( dim );
+                } catch ( IOException ioe ) {
+                    // the board has grown; it is only lost if the server dies before a snapshot.
+                    logEntry( ServerLog.Level.WARN, "Could not log board expansion: " + ioe.getMessage() );
+                }
+            }
+            this.viewports.expand( dim );
+            this.expandedSeq = this.broadcastSeq;
+            ByteBuffer notice = PlaceCodec.encodeExpansion( dim );
+            for ( ClientConnection client : this.viewports.getAll() ) {
+                // queued cell numbers now mean other cells.
+                client.getOutbound().forgetCells();
+                if ( client.getVersion() >= PlaceCodec.VERSION_EXPAND ) {
+                    send( client, notice );
+                }
+                else {
+                    dropped.add( client );
+                }
+            }
+            for ( ClientConnection client : dropped ) {
+                this.clients.remove( client.getUsername(), client );
+                this.viewports.remove( client );
+            }
+        }
+        logEntry( "Board expanded to " + dim + "x" + dim + " in " + ( System.nanoTime() - start ) / 1000 + " us; "
+                + dropped.size() + " older clients disconnected." );
+        for ( ClientConnection client : dropped ) {
+            try {
+                client.send( new PlaceRequest<>( PlaceRequest.RequestType.ERROR, "The board has grown to " + dim + "x" + dim + "; log in again to get it." ) );
+            } catch ( IOException ioe ) {
+                // gone already.
+            }
+            client.closeWhenFlushed();
+        }
+    }
+
+    /**
+     * Sends updates to every client within the map.  The change is encoded
+     * once per protocol version and the same frame queued for every client.
+     * Only called by the broadcast stage.
+     *
+     * @param change the change to be sent.
+     */
+    void sendUpdates( TileChange change ) {
+        PlaceTile tile = change.tile;
+        if ( this.log.isLoggable( ServerLog.Level.DEBUG ) ) {
+            this.log.log( ServerLog.Level.DEBUG, this.logPrefix + "Sending tile to players: ", tile );
+        }
+
+        // for every client, send them a changed tile.
+        int cell = tile.getRow() * this.board.DIM + tile.getCol();
+        synchronized ( this.lock ) {
+            ownerId( tile.getOwner() );
+            this.broadcastSeq = change.seq;
+            List< ClientConnection > watching = new ArrayList<>( this.viewports.getEverywhere() );
+            this.viewports.watching( tile.getRow(), tile.getCol(), watching );
+            ByteBuffer[] frames = new ByteBuffer[PlaceCodec.MAX_VERSION + 1];
+            for ( ClientConnection client : watching ) {
+                try {
+                    int version = client.getVersion();
+                    if ( frames[version] == null ) {
+                        frames[version] = PlaceCodec.encodeChange( tile, change.seq, version, this.owners );
+                    }
+                    client.sendUpdate( frames[version], cell );
+                    this.framesOut++;
+                } catch ( IOException ioe ) {
+                    // the client's own thread notices and logs it out.
+                    System.out.println( ioe );
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends many tile updates to every client within the map.  Clients that
+     * speak binary frames get the whole batch as a single frame; older
+     * clients get one TILE_CHANGED frame per tile.  Only called by the
+     * broadcast stage.
+     *
+     * @param changes the latest change to each changed tile.
+     */
+    void sendBatch( Collection< TileChange > changes ) {
+        if ( this.log.isLoggable( ServerLog.Level.DEBUG ) ) {
+            logEntry( ServerLog.Level.DEBUG, "Sending " + changes.size() + " tiles to players." );
+        }
+        List< PlaceTile > tiles = new ArrayList<>( changes.size() );
+        long through = 0;
+        for ( TileChange change : changes ) {
+            tiles.add( change.tile );
+            through = Math.max( through, change.seq );
+        }
+
+        synchronized ( this.lock ) {
+            this.broadcastSeq = Math.max( this.broadcastSeq, through );
+            ByteBuffer[] batches = new ByteBuffer[PlaceCodec.MAX_VERSION + 1];
+            List< ByteBuffer > singles = new ArrayList<>();
+            for ( ClientConnection client : this.viewports.getEverywhere() ) {
+                sendTiles( client, tiles, through, batches, singles );
+            }
+            // clients with the same viewport can share frames.
+            Map< BoardRegion, ByteBuffer[] > shared = new HashMap<>();
+            for ( Map.Entry< ClientConnection, List< PlaceTile > > seen : this.viewports.watching( tiles ).entrySet() ) {
+                ClientConnection client = seen.getKey();
+                ByteBuffer[] frames = shared.computeIfAbsent( this.viewports.getViewport( client ), v -> new ByteBuffer[PlaceCodec.MAX_VERSION + 1] );
+                sendTiles( client, seen.getValue(), through, frames, new ArrayList<>() );
+            }
+        }
+    }
+
+    /**
+     * Queues changed tiles for one client: one batch frame if it speaks
+     * binary frames, else a TILE_CHANGED frame per tile.  Must be called
+     * with the join lock held.
+     *
+     * @param client the client.
+     * @param tiles the changed tiles.
+     * @param through the sequence number the batch is current to.
+     * @param batches batch frames of these tiles by version, encoded as
+     *                they are first needed.
+     * @param singles version 1 frames of these tiles, encoded when first
+     *                needed.
+     */
+    private void sendTiles( ClientConnection client, List< PlaceTile > tiles, long through, ByteBuffer[] batches, List< ByteBuffer > singles ) {
+        try {
+            int version = client.getVersion();
+            if ( version >= PlaceCodec.VERSION_BINARY ) {
+                if ( batches[version] == null ) {
+                    batches[version] = PlaceCodec.encodeBatch( tiles, through, version, this.owners );
+                }
+                client.sendUpdate( batches[version], OutboundQueue.BATCH );
+                this.framesOut++;
+                return;
+            }
+            if ( singles.isEmpty() ) {
+                for ( PlaceTile tile : tiles ) {
+                    singles.add( PlaceCodec.encodeChange( tile, 0, version, this.owners ) );
+                }
+            }
+            Iterator< PlaceTile > tile = tiles.iterator();
+            for ( ByteBuffer frame : singles ) {
+                PlaceTile next = tile.next();
+                client.sendUpdate( frame, next.getRow() * this.board.DIM + next.getCol() );
+                this.framesOut++;
+            }
+        } catch ( IOException ioe ) {
+            // the client's own thread notices and logs it out.
+            System.out.println( ioe );
+        }
+    }
+
+    /**
+     * Logs the outbound queue counters of every client that is behind or
+     * has lost updates.
+     */
+    void logQueueStats() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max( 1, now - this.statsSince ) / 1000.0;
+        logEntry( String.format( "Tile changes in: %.0f/s, update frames out: %.0f/s",
+                this.changesIn.getAndSet( 0 ) / seconds, this.framesOut / seconds ) );
+        this.framesOut = 0;
+        this.statsSince = now;
+
+        StringBuilder stats = new StringBuilder();
+        for ( Map.Entry< String, ClientConnection > client : this.clients.entrySet() ) {
+            OutboundQueue queue = client.getValue().getOutbound();
+            if ( queue.getDepth() > 0 || queue.getDrops() > 0 ) {
+                stats.append( "\n" ).append( client.getKey() )
+                     .append( ": depth " ).append( queue.getDepth() )
+                     .append( ", peak " ).append( queue.getHighWater() )
+                     .append( ", dropped " ).append( queue.getDrops() );
+            }
+        }
+        if ( stats.length() > 0 ) {
+            logEntry( "Outbound queues (broadcast backlog " + this.broadcaster.getBacklog() + "):" + stats );
+        }
+    }
+
+    /**
+     * Looks up the wire id of an owner.  A new id is announced to every
+     * client that speaks binary frames before anything can refer to it.
+     * Must be called with the join lock held.
+     *
+     * @param name the owner name.
+     * @return the owner id.
+     */
+    private int ownerId( String name ) {
+        int id = this.owners.idOf( name );
+        announceOwners();
+        return id;
+    }
+
+    /**
+     * Tells every client that speaks binary frames the names behind the
+     * owner ids they have not been told about yet.  Must be called with the
+     * join lock held.
+     */
+    private void announceOwners() {
+        while ( this.announced < this.owners.size() ) {
+            int id = this.announced++;
+            ByteBuffer frame = PlaceCodec.encodeOwner( id, this.owners.nameOf( id ) );
+            for ( ClientConnection client : this.viewports.getAll() ) {
+                if ( client.getVersion() >= PlaceCodec.VERSION_BINARY ) {
+                    send( client, frame );
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a shared frame to one client, ignoring a client that has gone.
+     *
+     * @param client the client.
+     * @param frame the encoded frame.
+     */
+    private static void send( ClientConnection client, ByteBuffer frame ) {
+        try {
+            client.sendFrame( frame );
+        } catch ( IOException ioe ) {
+            // the client's own thread notices and logs it out.
+            System.out.println( ioe );
+        }
+    }
+
+    /**
+     * Sends an error message back to the client.
+     *
+     * @param conn the client.
+     * @param string error message.
+     */
+    public void sendError( ClientConnection conn, String string ) throws IOException {
+        logEntry( ServerLog.Level.WARN, string );
+        conn.send( new PlaceRequest<>( PlaceRequest.RequestType.ERROR, string ) );
+    }
+
+    /**
+     * Disconnects every client.
+     */
+    public void closeAll() {
+        for ( ClientConnection client : this.clients.values() ) {
+            client.close();
+        }
+    }
+
+    /**
+     * Disconnects every client, applies changes still waiting in the
+     * sequencer, then saves the board if it is kept across restarts and
+     * closes a board file.
+     */
+    public void shutdown() {
+        closeAll();
+        if ( this.sequencer != null ) {
+            this.sequencer.finish();
+        }
+        if ( this.store != null ) {
+            this.store.close();
+        }
+        if ( this.board instanceof Closeable ) {
+            try {
+                ( ( Closeable ) this.board ).close();
+            } catch ( IOException ioe ) {
+                System.out.println( ioe );
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the server log.  Returns without waiting for it to
+     * be written.
+     *
+     * @param msg the message to be added to the log.
+     */
+    public void logEntry( String msg ) {
+        this.log.log( ServerLog.Level.INFO, this.logPrefix + msg );
+    }
+
+    /**
+     * Adds an entry of a given level to the server log.  Returns without
+     * waiting for it to be written.
+     *
+     * @param level how important the entry is.
+     * @param msg the message to be added to the log.
+     */
+    public void logEntry( ServerLog.Level level, String msg ) {
+        this.log.log( level, this.logPrefix + msg );
+    }
+}
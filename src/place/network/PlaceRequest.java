@@ -14,6 +14,11 @@ import java.io.Serializable;
  *      LOGIN: String<br>
  *      LOGIN_SUCCESS: String<br>
  *      TILE_CHANGED: PlaceTile object<br>
+ *      BOARD_REGION: BoardRegion object<br>
+ *      SUBSCRIBE: BoardRegion object, or null<br>
+ *      CHANGE_TILES: ArrayList of PlaceTile objects<br>
+ *      TILES_RESULT: PlacementResults object<br>
+ *      BOARD_EXPANDED: BoardRegion object<br>
  *
  * @author Sean Strout @ RIT CS
  */
@@ -61,7 +66,48 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * The clients should update their view of the board each time
          * a tile change arrives.
          */
-        TILE_CHANGED
+        TILE_CHANGED,
+
+        /**
+         * Never sent on its own; produced by PlaceExchange when a board is
+         * sent in chunks.  The BOARD arrives first with every tile white,
+         * and each BOARD_REGION says that part of it has now been filled in,
+         * first with colors and later with owners and times.  It will
+         * contain a BoardRegion object.
+         */
+        BOARD_REGION,
+
+        /**
+         * A client's request to hear only about the tiles in part of the
+         * board, sent again whenever the part it shows changes.  It will
+         * contain a BoardRegion object, or null to hear about the whole
+         * board again.  The server answers with TILE_CHANGED for the tiles
+         * that have just come into view.
+         */
+        SUBSCRIBE,
+
+        /**
+         * A client's request to change many tiles at once.  It will contain
+         * an ArrayList of Tile objects.  As with CHANGE_TILE, the client's
+         * board only changes when each TILE_CHANGED arrives.
+         */
+        CHANGE_TILES,
+
+        /**
+         * Used by the server to answer a CHANGE_TILES request.  It will
+         * contain a PlacementResults object saying which of the tiles were
+         * placed.
+         */
+        TILES_RESULT,
+
+        /**
+         * Used by the server to tell the clients that the board has grown.
+         * It will contain a BoardRegion covering the whole board at its new
+         * size.  The client's board has already been grown when it arrives;
+         * the new tiles are white, and changes to them come as TILE_CHANGED
+         * like any other.
+         */
+        BOARD_EXPANDED
     }
 
     /** The request type */
@@ -0,0 +1,285 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceException;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A client's login to a server that survives the connection dropping.
+ * When a receive fails the session connects again and logs in with the
+ * last change it saw; the server then sends only the changes missed in
+ * the meantime, which arrive as ordinary TILE_CHANGED requests, or a
+ * fresh BOARD if it no longer has them all.  Clients must therefore be
+ * ready to receive a BOARD at any time and replace their board with it.
+ * A viewport subscription is sent again on every new connection.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class PlaceSession {
+
+    /**
+     * How many times to try connecting again before giving up.
+     */
+    private static final int RECONNECT_ATTEMPTS = 10;
+
+    /**
+     * Wait before the first reconnect attempt, in milliseconds; it doubles
+     * after every failed attempt.
+     */
+    private static final long FIRST_BACKOFF = 250;
+
+    /**
+     * Longest wait between reconnect attempts, in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 4000;
+
+    /**
+     * Hostname of the server.
+     */
+    private String host;
+
+    /**
+     * Port of the server.
+     */
+    private int port;
+
+    /**
+     * Username of this client.
+     */
+    private String username;
+
+    /**
+     * Canvas to play on; empty for the server's default canvas.
+     */
+    private String canvas;
+
+    /**
+     * The current connection; replaced on every reconnect.
+     */
+    private volatile PlaceExchange exchange;
+
+    /**
+     * Set once the client closes the session on purpose.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The viewport last subscribed to, or null for the whole board.
+     */
+    private volatile BoardRegion viewport;
+
+    /**
+     * Create a session; nothing is sent until login.
+     *
+     * @param host hostname of the server
+     * @param port port of the server
+     * @param username username of this client
+     */
+    public PlaceSession( String host, int port, String username ) {
+        this( host, port, username, "" );
+    }
+
+    /**
+     * Create a session on one of the canvases a server hosts; nothing is
+     * sent until login.
+     *
+     * @param host hostname of the server
+     * @param port port of the server
+     * @param username username of this client
+     * @param canvas name of the canvas, or empty for the server's default
+     */
+    public PlaceSession( String host, int port, String username, String canvas ) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.canvas = canvas;
+    }
+
+    /**
+     * Connects and logs in.  A board sent in chunks is returned as soon as
+     * its size is known, with every tile white; the chunks fill it in as
+     * receive is called, each coming out as a BOARD_REGION.
+     *
+     * @return the board.
+     * @throws PlaceException if the server refuses the login.
+     * @throws IOException if the server cannot be reached.
+     */
+    public PlaceBoard login() throws PlaceException, IOException {
+        this.exchange = connect( new PlaceExchange( new Socket( this.host, this.port ) ) );
+        try {
+            PlaceRequest< ? > board = this.exchange.receive();
+            if ( board.getType() != PlaceRequest.RequestType.BOARD ) {
+                throw new PlaceException( "Expected the board, got " + board.getType() );
+            }
+            return ( PlaceBoard ) board.getData();
+        } catch ( ClassNotFoundException cnfe ) {
+            throw new IOException( cnfe );
+        }
+    }
+
+    /**
+     * Sends LOGIN on a new connection and waits for the answer.
+     *
+     * @param exchange the new connection.
+     * @return the connection, now logged in.
+     * @throws PlaceException if the server refuses the login, or hosts
+     *         only one canvas and another was asked for.
+     * @throws IOException if the server cannot be reached.
+     */
+    private PlaceExchange connect( PlaceExchange exchange ) throws PlaceException, IOException {
+        try {
+            exchange.setCanvas( this.canvas );
+            exchange.send( new PlaceRequest<>( PlaceRequest.RequestType.LOGIN, this.username ) );
+            PlaceRequest< ? > answer = exchange.receive();
+            if ( answer.getType() != PlaceRequest.RequestType.LOGIN_SUCCESS ) {
+                exchange.close();
+                throw new PlaceException( "Login unsuccessful : " + answer.getData() );
+            }
+            // an older server put the client on its only board.
+            if ( !this.canvas.isEmpty() && exchange.getVersion() < PlaceCodec.VERSION_CANVAS ) {
+                exchange.close();
+                throw new PlaceException( "Login unsuccessful : the server has no canvas named " + this.canvas );
+            }
+            System.out.println( "Login Success : " + answer.getData() );
+            return exchange;
+        } catch ( ClassNotFoundException cnfe ) {
+            exchange.close();
+            throw new IOException( cnfe );
+        }
+    }
+
+    /**
+     * Waits for the next request from the server, reconnecting if the
+     * connection is lost.
+     *
+     * @return the request; TILE_CHANGED, ERROR, a BOARD that replaces the
+     *         client's board, a BOARD_REGION of the board that has been
+     *         filled in, or BOARD_EXPANDED once the board has grown.
+     * @throws IOException if the session was closed, or the server could
+     *         not be reached again.
+     */
+    public PlaceRequest< ? > receive() throws IOException {
+        while ( true ) {
+            try {
+                return this.exchange.receive();
+            } catch ( IOException | ClassNotFoundException e ) {
+                if ( this.closed ) {
+                    throw new IOException( "Session closed" );
+                }
+                System.out.println( "Lost connection to the server: " + e );
+                reconnect();
+            }
+        }
+    }
+
+    /**
+     * Connects again, backing off between attempts, and resumes from the
+     * last change received.
+     *
+     * @throws IOException if every attempt failed, or the server refused
+     *         the login.
+     */
+    private void reconnect() throws IOException {
+        PlaceExchange lost = this.exchange;
+        lost.close();
+        long backoff = FIRST_BACKOFF;
+        for ( int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !this.closed; attempt++ ) {
+            try {
+                Thread.sleep( backoff );
+            } catch ( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                this.exchange = connect( new PlaceExchange( new Socket( this.host, this.port ), lost ) );
+                System.out.println( "Reconnected after change " + lost.getLastSeq() );
+                // the server starts every connection on the whole board.
+                if ( this.viewport != null && canSubscribe() ) {
+                    this.exchange.send( new PlaceRequest<>( PlaceRequest.RequestType.SUBSCRIBE, this.viewport ) );
+                }
+                return;
+            } catch ( PlaceException pe ) {
+                throw new IOException( pe.getMessage(), pe );
+            } catch ( IOException ioe ) {
+                backoff = Math.min( backoff * 2, MAX_BACKOFF );
+            }
+        }
+        throw new IOException( "Could not reconnect to " + this.host + ":" + this.port );
+    }
+
+    /**
+     * Sends a request on the current connection.  If the connection is
+     * down the request is lost; the receiving side reconnects.
+     *
+     * @param req the request.
+     * @throws IOException if the connection is down.
+     */
+    public void send( PlaceRequest< ? > req ) throws IOException {
+        this.exchange.send( req );
+    }
+
+    /**
+     * Asks to hear only about the tiles in part of the board.  The tiles
+     * that come into view arrive as TILE_CHANGED; tiles outside the
+     * viewport go stale on the client's board until they are in view
+     * again.
+     *
+     * @param viewport the tiles to hear about, or null for the whole board.
+     * @throws IOException if the connection is down, or the server does
+     *         not take subscriptions.
+     */
+    public void subscribe( BoardRegion viewport ) throws IOException {
+        this.viewport = viewport;
+        this.exchange.send( new PlaceRequest<>( PlaceRequest.RequestType.SUBSCRIBE, viewport ) );
+    }
+
+    /**
+     * Tells whether the server takes viewport subscriptions.
+     *
+     * @return true if subscribe can be called.
+     */
+    public boolean canSubscribe() {
+        return this.exchange.getVersion() >= PlaceCodec.VERSION_VIEWPORT;
+    }
+
+    /**
+     * Tells whether the server takes many tiles in one CHANGE_TILES
+     * request.
+     *
+     * @return true if CHANGE_TILES can be sent.
+     */
+    public boolean canPlaceTiles() {
+        return this.exchange.getVersion() >= PlaceCodec.VERSION_BULK;
+    }
+
+    /**
+     * Tells whether every chunk of the board has arrived.
+     *
+     * @return true unless chunks of the board are still to come.
+     */
+    public boolean isBoardComplete() {
+        return this.exchange.isBoardComplete();
+    }
+
+    /**
+     * Get the username of this client.
+     *
+     * @return the username.
+     */
+    public String getUsername() {
+        return this.username;
+    }
+
+    /**
+     * Closes the session for good.
+     */
+    public void close() {
+        this.closed = true;
+        if ( this.exchange != null ) {
+            this.exchange.close();
+        }
+    }
+}
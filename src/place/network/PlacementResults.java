@@ -0,0 +1,123 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * The server's answer to a CHANGE_TILES request: whether each tile was
+ * placed, in the order the tiles were sent.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class PlacementResults implements Serializable {
+
+    /**
+     * What became of one tile.
+     */
+    public enum Outcome {
+        /** The tile was placed; its TILE_CHANGED follows */
+        ACCEPTED,
+        /** The tile is not on the board */
+        INVALID,
+        /** The batch held more tiles than the server takes at once */
+        OVER_LIMIT,
+        /** The sender placed too recently; see getWait */
+        COOLDOWN
+    }
+
+    /**
+     * Outcome ordinal of every tile.
+     */
+    private byte[] outcomes;
+
+    /**
+     * Milliseconds until the sender may place again.
+     */
+    private long wait;
+
+    /**
+     * Create results for a batch, with every tile accepted.
+     *
+     * @param size the number of tiles in the batch.
+     */
+    public PlacementResults( int size ) {
+        this.outcomes = new byte[size];
+    }
+
+    /**
+     * Records what became of one tile.
+     *
+     * @param index the tile's position in the batch.
+     * @param outcome what became of it.
+     */
+    public void set( int index, Outcome outcome ) {
+        this.outcomes[index] = ( byte ) outcome.ordinal();
+    }
+
+    /**
+     * Get what became of one tile.
+     *
+     * @param index the tile's position in the batch.
+     * @return the outcome.
+     */
+    public Outcome get( int index ) {
+        return Outcome.values()[this.outcomes[index]];
+    }
+
+    /**
+     * Tells whether one tile was placed.
+     *
+     * @param index the tile's position in the batch.
+     * @return true if it was placed.
+     */
+    public boolean isAccepted( int index ) {
+        return this.outcomes[index] == Outcome.ACCEPTED.ordinal();
+    }
+
+    /**
+     * Get the number of tiles placed.
+     *
+     * @return the number accepted.
+     */
+    public int getAccepted() {
+        int accepted = 0;
+        for ( byte outcome : this.outcomes ) {
+            if ( outcome == Outcome.ACCEPTED.ordinal() ) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Get the number of tiles in the batch.
+     *
+     * @return the size.
+     */
+    public int size() {
+        return this.outcomes.length;
+    }
+
+    /**
+     * Records how long the sender must wait before placing again.
+     *
+     * @param wait the wait in milliseconds.
+     */
+    public void setWait( long wait ) {
+        this.wait = wait;
+    }
+
+    /**
+     * Get how long the sender must wait before placing again.
+     *
+     * @return the wait in milliseconds, or 0 if they may place now.
+     */
+    public long getWait() {
+        return this.wait;
+    }
+
+    @Override
+    public String toString() {
+        return "Results{" + getAccepted() + " of " + size() + " accepted}";
+    }
+}
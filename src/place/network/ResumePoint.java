@@ -0,0 +1,40 @@
+package place.network;
+
+/**
+ * What a reconnecting client says it already has: the server run its board
+ * came from, the last change it saw, how many owner ids it knows, and the
+ * token of the session it is carrying on from.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class ResumePoint {
+
+    /**
+     * Identifies the server run the client's sequence numbers belong to.
+     */
+    final long epoch;
+
+    /**
+     * Sequence number of the last change the client has.
+     */
+    final long seq;
+
+    /**
+     * Number of owner ids the client can already resolve.
+     */
+    final int knownOwners;
+
+    /**
+     * Token the server gave the client's last session, which lets it take
+     * over its name; 0 if it has none.
+     */
+    final long token;
+
+    ResumePoint( long epoch, long seq, int knownOwners, long token ) {
+        this.epoch = epoch;
+        this.seq = seq;
+        this.knownOwners = knownOwners;
+        this.token = token;
+    }
+}
@@ -0,0 +1,225 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single writer of the board, used instead of the history lock when
+ * the server runs with --sequencer=ring.  Threads handling requests put
+ * accepted tiles into the next free slots of a ring buffer allocated at
+ * startup; this thread alone takes them out in order, gives each its
+ * sequence number, applies it to the board and hands it to the broadcast
+ * stage.  Request threads never wait: not for each other, and not for
+ * free slots either.  When the writer has fallen a whole ring behind, a
+ * tile is refused instead, since the thread handing it over may be an
+ * event loop that every one of its connections is waiting on.
+ *
+ * The tiles of one CHANGE_TILES request take consecutive slots, so they
+ * reach the board together and in the order given.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class Sequencer extends Thread {
+
+    /**
+     * The game whose board is written.
+     */
+    private PlaceGame game;
+
+    /**
+     * The tile in each slot.
+     */
+    private PlaceTile[] tiles;
+
+    /**
+     * Slot sequence numbers.  A slot may be filled for position p when it
+     * holds p, and may be taken when it holds p + 1.
+     */
+    private AtomicLongArray sequences;
+
+    /**
+     * Number of slots less one; the number of slots is a power of two.
+     */
+    private int mask;
+
+    /**
+     * Next position to be filled.
+     */
+    private AtomicLong tail;
+
+    /**
+     * Next position to be taken; used by this thread only.
+     */
+    private long head;
+
+    /**
+     * True while this thread is waiting for tiles and must be woken.
+     */
+    private volatile boolean idle;
+
+    /**
+     * False once the sequencer has been told to stop.
+     */
+    private volatile boolean open;
+
+    /**
+     * Create a sequencer with an empty ring.
+     *
+     * @param game the game whose board is written.
+     * @param capacity the least number of slots; rounded up to a power of
+     *                 two.
+     */
+    Sequencer( PlaceGame game, int capacity ) {
+        super( "place-sequencer" );
+        int size = Integer.highestOneBit( Math.max( 2, capacity - 1 ) ) << 1;
+        this.game = game;
+        this.tiles = new PlaceTile[size];
+        this.sequences = new AtomicLongArray( size );
+        for ( int slot = 0; slot < size; slot++ ) {
+            this.sequences.set( slot, slot );
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.open = true;
+        setDaemon( true );
+    }
+
+    /**
+     * Hands an accepted tile to the writer, unless the ring is full.
+     *
+     * @param tile the new tile.
+     * @return false if the ring is full and the tile was not taken.
+     */
+    boolean tryPublish( PlaceTile tile ) {
+        long pos = claim( 1 );
+        if ( pos < 0 ) {
+            return false;
+        }
+        fill( pos, tile );
+        wake();
+        return true;
+    }
+
+    /**
+     * Hands accepted tiles to the writer in consecutive slots, unless the
+     * ring has not room for all of them.
+     *
+     * @param tiles the new tiles, in the order they must be applied; no
+     *              more than the ring holds.
+     * @return false if the ring is too full and no tile was taken.
+     */
+    boolean tryPublish( List< PlaceTile > tiles ) {
+        if ( tiles.isEmpty() ) {
+            return true;
+        }
+        long pos = claim( tiles.size() );
+        if ( pos < 0 ) {
+            return false;
+        }
+        for ( int i = 0; i < tiles.size(); i++ ) {
+            fill( pos + i, tiles.get( i ) );
+        }
+        wake();
+        return true;
+    }
+
+    /**
+     * Claims consecutive slots if the writer has freed them.  Slots are
+     * freed in order, so the last being free means all are.  Only retries
+     * when another thread claimed slots first.
+     *
+     * @return the position of the first slot, or -1 if the ring is full.
+     */
+    private long claim( int count ) {
+        if ( count > this.tiles.length ) {
+            return -1;
+        }
+        while ( true ) {
+            long pos = this.tail.get();
+            long last = pos + count - 1;
+            long free = this.sequences.get( ( int ) last & this.mask );
+            if ( free == last ) {
+                if ( this.tail.compareAndSet( pos, pos + count ) ) {
+                    return pos;
+                }
+            }
+            else if ( free < last ) {
+                // the ring is full; the writer may be asleep with work to do.
+                wake();
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Puts a tile into a claimed slot and lets the writer take it.
+     */
+    private void fill( long pos, PlaceTile tile ) {
+        int slot = ( int ) pos & this.mask;
+        this.tiles[slot] = tile;
+        this.sequences.set( slot, pos + 1 );
+    }
+
+    /**
+     * Wakes the writer if it is waiting for tiles.
+     */
+    private void wake() {
+        if ( this.idle ) {
+            LockSupport.unpark( this );
+        }
+    }
+
+    /**
+     * Get the number of tiles waiting to be applied.
+     *
+     * @return the backlog.
+     */
+    int getBacklog() {
+        return ( int ) ( this.tail.get() - this.head );
+    }
+
+    /**
+     * Applies every tile already handed over, then stops.
+     */
+    void finish() {
+        this.open = false;
+        LockSupport.unpark( this );
+        try {
+            join();
+        } catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies tiles in the order their slots were claimed, waiting when
+     * there are none.
+     */
+    public void run() {
+        while ( true ) {
+            int slot = ( int ) this.head & this.mask;
+            if ( this.sequences.get( slot ) == this.head + 1 ) {
+                PlaceTile tile = this.tiles[slot];
+                this.tiles[slot] = null;
+                this.sequences.set( slot, this.head + this.tiles.length );
+                this.head++;
+                this.game.apply( tile );
+                continue;
+            }
+            if ( !this.open && this.tail.get() == this.head ) {
+                return;
+            }
+            this.idle = true;
+            // checked again, as a tile may have come before idle was set.
+            if ( this.sequences.get( slot ) != this.head + 1 && this.open ) {
+                LockSupport.park( this );
+            }
+            this.idle = false;
+        }
+    }
+}
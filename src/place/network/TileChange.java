@@ -0,0 +1,29 @@
+package place.network;
+
+import place.PlaceTile;
+
+/**
+ * An accepted tile change and the sequence number it was given.  Sequence
+ * numbers count every change the server accepts, in the order they were
+ * applied to the board.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class TileChange {
+
+    /**
+     * Position of the change in the order changes were applied.
+     */
+    final long seq;
+
+    /**
+     * The tile as it was after the change.
+     */
+    final PlaceTile tile;
+
+    TileChange( long seq, PlaceTile tile ) {
+        this.seq = seq;
+        this.tile = tile;
+    }
+}
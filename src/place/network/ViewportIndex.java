@@ -0,0 +1,254 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which clients want to hear about which tiles.  A client that has not
+ * subscribed to a viewport hears about the whole board.  The viewports of
+ * the rest are filed under every bucket of BUCKET x BUCKET tiles they
+ * overlap, so a change is checked only against the viewports filed under
+ * its own bucket.
+ *
+ * Not safe for concurrent use; PlaceGame only uses it with the clients
+ * lock held.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+class ViewportIndex {
+
+    /**
+     * Width and height of a bucket, in tiles.
+     */
+    static final int BUCKET = 64;
+
+    /**
+     * Clients that hear about every tile.
+     */
+    private Set< ClientConnection > everywhere;
+
+    /**
+     * The viewport of every client that has subscribed to one.
+     */
+    private Map< ClientConnection, BoardRegion > viewports;
+
+    /**
+     * Subscribed clients by bucket, row by row; null for a bucket no
+     * viewport overlaps.
+     */
+    private List< ClientConnection >[] buckets;
+
+    /**
+     * Number of buckets across the board.
+     */
+    private int across;
+
+    /**
+     * Create an index with no clients.
+     *
+     * @param dim the board's dimension.
+     */
+    ViewportIndex( int dim ) {
+        this.everywhere = new HashSet<>();
+        this.viewports = new HashMap<>();
+        this.across = ( dim + BUCKET - 1 ) / BUCKET;
+        this.buckets = newBuckets( this.across * this.across );
+    }
+
+    /**
+     * Adds a client that has just logged in; it hears about the whole
+     * board.
+     *
+     * @param conn the client.
+     */
+    void add( ClientConnection conn ) {
+        this.everywhere.add( conn );
+    }
+
+    /**
+     * Removes a client that has gone.
+     *
+     * @param conn the client.
+     */
+    void remove( ClientConnection conn ) {
+        this.everywhere.remove( conn );
+        unfile( conn );
+    }
+
+    /**
+     * Tells whether a client has been added and not removed.
+     *
+     * @param conn the client.
+     * @return true if the client is in the index.
+     */
+    boolean contains( ClientConnection conn ) {
+        return this.everywhere.contains( conn ) || this.viewports.containsKey( conn );
+    }
+
+    /**
+     * Changes the part of the board a client hears about.
+     *
+     * @param conn a client that has been added.
+     * @param viewport the tiles it wants, already clipped to the board, or
+     *                 null for the whole board.
+     * @return the viewport it had, or null if it had the whole board.
+     */
+    BoardRegion subscribe( ClientConnection conn, BoardRegion viewport ) {
+        BoardRegion old = unfile( conn );
+        this.everywhere.remove( conn );
+        if ( viewport == null ) {
+            this.everywhere.add( conn );
+            return old;
+        }
+        this.viewports.put( conn, viewport );
+        file( conn, viewport );
+        return old;
+    }
+
+    /**
+     * Makes room for the buckets of a board that has grown.  Viewports keep
+     * their place; a client sees the new tiles once it subscribes to them.
+     *
+     * @param dim the board's new dimension.
+     */
+    void expand( int dim ) {
+        this.across = ( dim + BUCKET - 1 ) / BUCKET;
+        this.buckets = newBuckets( this.across * this.across );
+        for ( Map.Entry< ClientConnection, BoardRegion > viewport : this.viewports.entrySet() ) {
+            file( viewport.getKey(), viewport.getValue() );
+        }
+    }
+
+    /**
+     * Makes an array of empty buckets.  Java cannot make an array of a
+     * generic type, so it is made raw and used as the typed one.
+     *
+     * @param count the number of buckets.
+     * @return the buckets, all null.
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static List< ClientConnection >[] newBuckets( int count ) {
+        return new List[count];
+    }
+
+    /**
+     * Puts a client's viewport into every bucket it overlaps.
+     */
+    private void file( ClientConnection conn, BoardRegion viewport ) {
+        int last = ( viewport.getCol() + viewport.getCols() - 1 ) / BUCKET;
+        for ( int row = viewport.getRow() / BUCKET; row <= ( viewport.getRow() + viewport.getRows() - 1 ) / BUCKET; row++ ) {
+            for ( int col = viewport.getCol() / BUCKET; col <= last; col++ ) {
+                int bucket = row * this.across + col;
+                if ( this.buckets[bucket] == null ) {
+                    this.buckets[bucket] = new ArrayList<>();
+                }
+                this.buckets[bucket].add( conn );
+            }
+        }
+    }
+
+    /**
+     * Takes a client's viewport out of the buckets.
+     *
+     * @return the viewport, or null if it had none.
+     */
+    private BoardRegion unfile( ClientConnection conn ) {
+        BoardRegion viewport = this.viewports.remove( conn );
+        if ( viewport == null ) {
+            return null;
+        }
+        int last = ( viewport.getCol() + viewport.getCols() - 1 ) / BUCKET;
+        for ( int row = viewport.getRow() / BUCKET; row <= ( viewport.getRow() + viewport.getRows() - 1 ) / BUCKET; row++ ) {
+            for ( int col = viewport.getCol() / BUCKET; col <= last; col++ ) {
+                int bucket = row * this.across + col;
+                this.buckets[bucket].remove( conn );
+                if ( this.buckets[bucket].isEmpty() ) {
+                    this.buckets[bucket] = null;
+                }
+            }
+        }
+        return viewport;
+    }
+
+    /**
+     * Get every client in the index.
+     *
+     * @return a copy holding every client, subscribed or not.
+     */
+    List< ClientConnection > getAll() {
+        List< ClientConnection > all = new ArrayList<>( this.everywhere.size() + this.viewports.size() );
+        all.addAll( this.everywhere );
+        all.addAll( this.viewports.keySet() );
+        return all;
+    }
+
+    /**
+     * Get the clients that hear about the whole board.
+     *
+     * @return the clients; not a copy.
+     */
+    Collection< ClientConnection > getEverywhere() {
+        return this.everywhere;
+    }
+
+    /**
+     * Get a client's viewport.
+     *
+     * @param conn the client.
+     * @return the viewport, or null if it hears about the whole board.
+     */
+    BoardRegion getViewport( ClientConnection conn ) {
+        return this.viewports.get( conn );
+    }
+
+    /**
+     * Finds the subscribed clients whose viewport holds a tile.
+     *
+     * @param row the tile's row.
+     * @param col the tile's column.
+     * @param into where the clients are added.
+     */
+    void watching( int row, int col, Collection< ClientConnection > into ) {
+        List< ClientConnection > bucket = this.buckets[( row / BUCKET ) * this.across + col / BUCKET];
+        if ( bucket == null ) {
+            return;
+        }
+        for ( ClientConnection conn : bucket ) {
+            if ( this.viewports.get( conn ).contains( row, col ) ) {
+                into.add( conn );
+            }
+        }
+    }
+
+    /**
+     * Sorts changed tiles by the subscribed clients that can see them.
+     *
+     * @param tiles the changed tiles.
+     * @return the tiles each subscribed client can see, in the order given;
+     *         clients that can see none are left out.
+     */
+    Map< ClientConnection, List< PlaceTile > > watching( Collection< PlaceTile > tiles ) {
+        Map< ClientConnection, List< PlaceTile > > seen = new IdentityHashMap<>();
+        if ( this.viewports.isEmpty() ) {
+            return seen;
+        }
+        List< ClientConnection > found = new ArrayList<>();
+        for ( PlaceTile tile : tiles ) {
+            watching( tile.getRow(), tile.getCol(), found );
+            for ( ClientConnection conn : found ) {
+                seen.computeIfAbsent( conn, c -> new ArrayList<>() ).add( tile );
+            }
+            found.clear();
+        }
+        return seen;
+    }
+}
@@ -0,0 +1,249 @@
+package place.server;
+
+import place.ChunkedPlaceBoard;
+import place.OwnerDictionary;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Compact snapshot files of a board.  A snapshot records the sequence
+ * number of the last change it includes, so that after loading it only the
+ * later part of the ChangeLog needs replaying.
+ *
+ * The board is written in chunks of CHUNK x CHUNK tiles, each with the
+ * owner names it uses, and chunks holding only untouched white tiles are
+ * left out; a snapshot of a huge, mostly blank board is small, and never
+ * needs more memory than one chunk to write or read.  Snapshots written
+ * before chunks, with every tile in one block, can still be loaded.
+ *
+ * A snapshot is written to a temporary file and renamed into place, so a
+ * crash never leaves a half written snapshot under a real name.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class BoardSnapshot {
+
+    /** Identifies a snapshot file with every tile in one block */
+    private static final int MAGIC = 0x504C534E;
+    /** Identifies a snapshot file written in chunks */
+    private static final int MAGIC_CHUNKED = 0x504C5343;
+    /** Width and height of a chunk, in tiles */
+    private static final int CHUNK = ChunkedPlaceBoard.CHUNK;
+    /** Marks the end of the chunks */
+    private static final int END = -1;
+    /** File name prefix of a snapshot */
+    private static final String PREFIX = "snapshot-";
+    /** File name suffix of a snapshot */
+    private static final String SUFFIX = ".bin";
+    /** Colors by number */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /**
+     * Writes a snapshot of a board.  Tiles changed while it is being written
+     * may or may not be included; replaying the log from seq puts them right.
+     *
+     * @param dir directory holding the snapshots.
+     * @param board the board.
+     * @param seq sequence number of the last change the board includes.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public static void write( File dir, PlaceBoard board, long seq ) throws IOException {
+        int dim = board.DIM;
+        int across = ( dim + CHUNK - 1 ) / CHUNK;
+        ChunkedPlaceBoard sparse = board instanceof ChunkedPlaceBoard ? ( ChunkedPlaceBoard ) board : null;
+        int[] ids = new int[CHUNK * CHUNK];
+        long[] times = new long[CHUNK * CHUNK];
+        byte[] colors = new byte[CHUNK * CHUNK / 2];
+
+        File temp = new File( dir, PREFIX + seq + ".tmp" );
+        try ( FileOutputStream file = new FileOutputStream( temp );
+              DataOutputStream out = new DataOutputStream( new BufferedOutputStream( file, 64 * 1024 ) ) ) {
+            out.writeInt( MAGIC_CHUNKED );
+            out.writeLong( seq );
+            out.writeInt( dim );
+            out.writeInt( CHUNK );
+            for ( int index = 0; index < across * across; index++ ) {
+                int top = index / across * CHUNK;
+                int left = index % across * CHUNK;
+                int rows = Math.min( CHUNK, dim - top );
+                int cols = Math.min( CHUNK, dim - left );
+                if ( sparse != null && sparse.isBlank( top, left, rows, cols ) ) {
+                    continue;
+                }
+                OwnerDictionary owners = new OwnerDictionary();
+                Arrays.fill( colors, ( byte ) 0 );
+                boolean blank = true;
+                for ( int row = 0; row < rows; row++ ) {
+                    for ( int col = 0; col < cols; col++ ) {
+                        int cell = row * cols + col;
+                        PlaceTile tile = board.getTile( top + row, left + col );
+                        colors[cell >> 1] |= tile.getColor().getNumber() << ( ( cell & 1 ) << 2 );
+                        ids[cell] = owners.idOf( tile.getOwner() );
+                        times[cell] = tile.getTime();
+                        blank &= isBlank( tile.getColor().getNumber(), ids[cell], times[cell] );
+                    }
+                }
+                if ( blank ) {
+                    continue;
+                }
+                int cells = rows * cols;
+                out.writeInt( index );
+                out.writeInt( owners.size() );
+                for ( int id = 0; id < owners.size(); id++ ) {
+                    out.writeUTF( owners.nameOf( id ) );
+                }
+                out.write( colors, 0, ( cells + 1 ) / 2 );
+                for ( int cell = 0; cell < cells; cell++ ) {
+                    out.writeInt( ids[cell] );
+                }
+                for ( int cell = 0; cell < cells; cell++ ) {
+                    out.writeLong( times[cell] );
+                }
+            }
+            out.writeInt( END );
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move( temp.toPath(), new File( dir, name( seq ) ).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * Loads the newest snapshot in a directory into a board of all white
+     * tiles.  A chunked board smaller than the snapshot grows to its size.
+     *
+     * @param dir directory holding the snapshots.
+     * @param board the board to fill.
+     * @return the sequence number the snapshot includes, or 0 if there is
+     *         no snapshot.
+     * @throws IOException if the snapshot cannot be read or was taken of a
+     *         board of another size that this board cannot grow to.
+     */
+    public static long load( File dir, PlaceBoard board ) throws IOException {
+        File newest = null;
+        long newestSeq = 0;
+        for ( File file : snapshots( dir ) ) {
+            long seq = seqOf( file );
+            if ( newest == null || seq > newestSeq ) {
+                newest = file;
+                newestSeq = seq;
+            }
+        }
+        if ( newest == null ) {
+            return 0;
+        }
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( newest ), 64 * 1024 ) ) ) {
+            int magic = in.readInt();
+            if ( magic != MAGIC && magic != MAGIC_CHUNKED ) {
+                throw new IOException( newest + " is not a board snapshot" );
+            }
+            long seq = in.readLong();
+            int dim = in.readInt();
+            if ( dim > board.DIM && board instanceof ChunkedPlaceBoard ) {
+                // the board grew while the server ran.
+                board.expand( dim );
+            }
+            if ( dim != board.DIM ) {
+                throw new IOException( newest + " holds a " + dim + "x" + dim + " board, not " + board.DIM + "x" + board.DIM );
+            }
+            if ( magic == MAGIC ) {
+                loadBlock( in, board, 0, 0, dim, dim );
+                return seq;
+            }
+            int chunk = in.readInt();
+            int across = ( dim + chunk - 1 ) / chunk;
+            for ( int index = in.readInt(); index != END; index = in.readInt() ) {
+                if ( index < 0 || index >= across * across ) {
+                    throw new IOException( newest + " holds an unknown chunk " + index );
+                }
+                int top = index / across * chunk;
+                int left = index % across * chunk;
+                loadBlock( in, board, top, left, Math.min( chunk, dim - top ), Math.min( chunk, dim - left ) );
+            }
+            return seq;
+        }
+    }
+
+    /**
+     * Reads a block of tiles, preceded by the owner names it uses, onto the
+     * board.  Untouched tiles are skipped, being white on a new board.
+     */
+    private static void loadBlock( DataInputStream in, PlaceBoard board, int top, int left, int rows, int cols ) throws IOException {
+        String[] names = new String[in.readInt()];
+        for ( int id = 0; id < names.length; id++ ) {
+            names[id] = in.readUTF();
+        }
+        int cells = rows * cols;
+        byte[] colors = new byte[( cells + 1 ) / 2];
+        in.readFully( colors );
+        int[] ids = new int[cells];
+        for ( int cell = 0; cell < cells; cell++ ) {
+            ids[cell] = in.readInt();
+        }
+        for ( int cell = 0; cell < cells; cell++ ) {
+            long time = in.readLong();
+            int color = ( colors[cell >> 1] >> ( ( cell & 1 ) << 2 ) ) & 0xF;
+            if ( !isBlank( color, ids[cell], time ) ) {
+                board.setTile( new PlaceTile( top + cell / cols, left + cell % cols, names[ids[cell]], COLORS[color], time ) );
+            }
+        }
+    }
+
+    /**
+     * Tells whether a tile is as it was on a new board.
+     */
+    private static boolean isBlank( int color, int owner, long time ) {
+        return time == 0 && owner == OwnerDictionary.NO_OWNER && color == PlaceColor.WHITE.getNumber();
+    }
+
+    /**
+     * Deletes every snapshot older than the given one, and any left over
+     * temporary files.
+     *
+     * @param dir directory holding the snapshots.
+     * @param seq sequence number of the snapshot to keep.
+     */
+    public static void deleteOlder( File dir, long seq ) {
+        for ( File file : snapshots( dir ) ) {
+            if ( seqOf( file ) < seq ) {
+                file.delete();
+            }
+        }
+        File[] temps = dir.listFiles( ( d, name ) -> name.startsWith( PREFIX ) && name.endsWith( ".tmp" ) );
+        if ( temps != null ) {
+            for ( File temp : temps ) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Builds the file name of a snapshot.
+     */
+    private static String name( long seq ) {
+        return PREFIX + String.format( "%019d", seq ) + SUFFIX;
+    }
+
+    /**
+     * Lists the snapshots in a directory.
+     */
+    private static File[] snapshots( File dir ) {
+        File[] files = dir.listFiles( ( d, name ) -> name.startsWith( PREFIX ) && name.endsWith( SUFFIX ) );
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Reads the sequence number of a snapshot from its name.
+     */
+    private static long seqOf( File snapshot ) {
+        String name = snapshot.getName();
+        return Long.parseLong( name.substring( PREFIX.length(), name.length() - SUFFIX.length() ) );
+    }
+}
@@ -0,0 +1,173 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a board durable across restarts.  Every accepted change is applied
+ * to the board and appended to a ChangeLog together, the log is synced to
+ * disk every few milliseconds so that many changes share one fsync, and a
+ * snapshot of the whole board is taken now and then so that recovery only
+ * replays the changes made since.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class BoardStore {
+
+    /**
+     * Directory holding the log and snapshots.
+     */
+    private File dir;
+
+    /**
+     * The board being kept.
+     */
+    private PlaceBoard board;
+
+    /**
+     * Log of changes since the last snapshot.
+     */
+    private ChangeLog log;
+
+    /**
+     * Runs the periodic syncs and snapshots.
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Settings chosen at startup.
+     */
+    private ServerConfig config;
+
+    /**
+     * Restores a board from the newest snapshot and the changes logged
+     * after it, then opens the log for new changes.
+     *
+     * @param config the server configuration; names the data directory.
+     * @param board an empty board, filled in with the saved state.
+     * @throws IOException if the saved state cannot be read.
+     */
+    public BoardStore( ServerConfig config, PlaceBoard board ) throws IOException {
+        this.config = config;
+        this.dir = config.getDataDir();
+        this.board = board;
+        if ( !this.dir.isDirectory() && !this.dir.mkdirs() ) {
+            throw new IOException( "Cannot create data directory " + this.dir );
+        }
+
+        long start = System.currentTimeMillis();
+        long snapshotSeq = BoardSnapshot.load( this.dir, board );
+        long lastSeq = ChangeLog.replay( this.dir, snapshotSeq, board );
+        System.out.println( "Recovered board at change " + lastSeq + " (" + ( lastSeq - snapshotSeq )
+                + " replayed) in " + ( System.currentTimeMillis() - start ) + " ms" );
+        this.log = new ChangeLog( this.dir, lastSeq, config.getSegmentSize() * 1024L * 1024L );
+    }
+
+    /**
+     * Starts the periodic syncs and snapshots.
+     */
+    public void start() {
+        this.timer = Executors.newSingleThreadScheduledExecutor( task -> {
+            Thread thread = new Thread( task, "BoardStore" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.timer.scheduleWithFixedDelay( this::sync, this.config.getFsyncInterval(), this.config.getFsyncInterval(), TimeUnit.MILLISECONDS );
+        this.timer.scheduleWithFixedDelay( this::snapshot, this.config.getSnapshotInterval(), this.config.getSnapshotInterval(), TimeUnit.SECONDS );
+    }
+
+    /**
+     * Applies a change to the board and logs it.  Changes reach the log in
+     * the order they reach the board.
+     *
+     * @param tile the new tile.
+     * @return the change's sequence number.
+     * @throws IOException if the change cannot be logged; the board has
+     *         still been changed.
+     */
+    public synchronized long apply( PlaceTile tile ) throws IOException {
+        this.board.setTile( tile );
+        return this.log.append( tile );
+    }
+
+    /**
+     * Grows the board and logs that it grew, so that a restart brings it
+     * back at its new size even before the next snapshot is taken.
+     *
+     * @param dim the board's new dimension.
+     * @throws IOException if the growth cannot be logged; the board has
+     *         still grown.
+     */
+    public synchronized void expand( int dim ) throws IOException {
+        this.board.expand( dim );
+        this.log.appendExpansion( dim );
+    }
+
+    /**
+     * Get the sequence number of the last change logged.
+     *
+     * @return the sequence number, 0 if nothing was ever logged.
+     */
+    public long getLastSeq() {
+        return this.log.getLastSeq();
+    }
+
+    /**
+     * Makes every logged change durable.
+     */
+    private void sync() {
+        try {
+            this.log.sync();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+
+    /**
+     * Writes a snapshot of the board and deletes the log segments and
+     * snapshots it makes redundant.  Changes made while the snapshot is
+     * written land in the new segment, and replaying them over the
+     * snapshot gives the same board whether or not it caught them.
+     */
+    private void snapshot() {
+        try {
+            long seq;
+            synchronized ( this ) {
+                seq = this.log.rotate();
+            }
+            BoardSnapshot.write( this.dir, this.board, seq );
+            this.log.truncateThrough( seq );
+            BoardSnapshot.deleteOlder( this.dir, seq );
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+
+    /**
+     * Stops the periodic work and leaves a snapshot of the final board, so
+     * the next start has nothing to replay.
+     */
+    public void close() {
+        if ( this.timer != null ) {
+            this.timer.shutdown();
+            try {
+                this.timer.awaitTermination( 10, TimeUnit.SECONDS );
+            } catch ( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        snapshot();
+        try {
+            this.log.close();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of accepted tile changes.  Every change gets the
+ * next sequence number and is written as one checksummed record.  Records
+ * are buffered and reach the disk together when sync is called, so many
+ * changes share one fsync.
+ *
+ * The log is split into segment files named after the first sequence
+ * number they hold.  A segment is closed once it grows past its size limit
+ * or when a snapshot is taken, and deleted once a snapshot covers all of
+ * it.
+ *
+ * When the board grows a record saying so is written among the changes,
+ * with the sequence number of the change before it, so a board replayed
+ * from the log grows at the same point.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class ChangeLog {
+
+    /** File name prefix of a segment */
+    private static final String PREFIX = "changes-";
+    /** File name suffix of a segment */
+    private static final String SUFFIX = ".log";
+    /** Colors by number */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+    /** Row of a record that says the board grew to the dimension in its column */
+    private static final int EXPANSION = -1;
+
+    /**
+     * Directory holding the segments.
+     */
+    private File dir;
+
+    /**
+     * Size in bytes after which a segment is closed.
+     */
+    private long segmentBytes;
+
+    /**
+     * Channel of the segment being written, for fsync.
+     */
+    private FileChannel channel;
+
+    /**
+     * Buffered output to the segment being written.
+     */
+    private DataOutputStream out;
+
+    /**
+     * Bytes written to the current segment.
+     */
+    private long written;
+
+    /**
+     * Sequence number of the last record appended.
+     */
+    private long lastSeq;
+
+    /**
+     * Opens a new segment that continues after the given sequence number.
+     *
+     * @param dir directory holding the segments.
+     * @param lastSeq sequence number of the last record already logged.
+     * @param segmentBytes size in bytes after which a segment is closed.
+     * @throws IOException if the segment cannot be created.
+     */
+    public ChangeLog( File dir, long lastSeq, long segmentBytes ) throws IOException {
+        this.dir = dir;
+        this.lastSeq = lastSeq;
+        this.segmentBytes = segmentBytes;
+        openSegment();
+    }
+
+    /**
+     * Starts the segment whose first record will be lastSeq + 1.
+     */
+    private void openSegment() throws IOException {
+        File file = new File( this.dir, PREFIX + String.format( "%019d", this.lastSeq + 1 ) + SUFFIX );
+        this.channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+        this.out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( this.channel ), 64 * 1024 ) );
+        this.written = 0;
+    }
+
+    /**
+     * Appends a change.  It is not durable until the next sync.
+     *
+     * @param tile the tile as it now is on the board.
+     * @return the change's sequence number.
+     * @throws IOException if the log cannot be written.
+     */
+    public synchronized long append( PlaceTile tile ) throws IOException {
+        write( ++this.lastSeq, tile.getRow(), tile.getCol(), tile.getColor().getNumber(), tile.getTime(), tile.getOwner() );
+        return this.lastSeq;
+    }
+
+    /**
+     * Appends a record saying the board has grown.  It takes no sequence
+     * number of its own.  It is not durable until the next sync.
+     *
+     * @param dim the board's new dimension.
+     * @throws IOException if the log cannot be written.
+     */
+    public synchronized void appendExpansion( int dim ) throws IOException {
+        write( this.lastSeq, EXPANSION, dim, 0, 0, null );
+    }
+
+    /**
+     * Writes one checksummed record, starting a new segment if the current
+     * one is full.
+     */
+    private void write( long seq, int row, int col, int color, long time, String owner ) throws IOException {
+        byte[] name = ( owner == null ? "" : owner ).getBytes( StandardCharsets.UTF_8 );
+        ByteBuffer record = ByteBuffer.allocate( 8 + 4 + 4 + 1 + 8 + 2 + name.length + 4 );
+        record.putLong( seq );
+        record.putInt( row );
+        record.putInt( col );
+        record.put( ( byte ) color );
+        record.putLong( time );
+        record.putShort( ( short ) name.length );
+        record.put( name );
+        CRC32 crc = new CRC32();
+        crc.update( record.array(), 0, record.position() );
+        record.putInt( ( int ) crc.getValue() );
+
+        this.out.write( record.array() );
+        this.written += record.capacity();
+        if ( this.written >= this.segmentBytes ) {
+            rotate();
+        }
+    }
+
+    /**
+     * Get the sequence number of the last record appended.
+     *
+     * @return the sequence number, 0 if nothing was ever logged.
+     */
+    public synchronized long getLastSeq() {
+        return this.lastSeq;
+    }
+
+    /**
+     * Makes every appended record durable.
+     *
+     * @throws IOException if the log cannot be written.
+     */
+    public void sync() throws IOException {
+        FileChannel current;
+        synchronized ( this ) {
+            this.out.flush();
+            current = this.channel;
+        }
+        // appends can carry on while the disk catches up.
+        if ( current.isOpen() ) {
+            current.force( false );
+        }
+    }
+
+    /**
+     * Closes the current segment, durably, and starts a new one.
+     *
+     * @return the sequence number of the last record in the closed segment.
+     * @throws IOException if the log cannot be written.
+     */
+    public synchronized long rotate() throws IOException {
+        this.out.flush();
+        this.channel.force( false );
+        this.out.close();
+        openSegment();
+        return this.lastSeq;
+    }
+
+    /**
+     * Deletes the closed segments whose records all have sequence numbers
+     * up to the given one.
+     *
+     * @param seq sequence number covered by a snapshot.
+     */
+    public synchronized void truncateThrough( long seq ) {
+        List< File > segments = segments( this.dir );
+        // a segment ends where the next one starts.
+        for ( int i = 0; i + 1 < segments.size(); i++ ) {
+            if ( firstSeq( segments.get( i + 1 ) ) - 1 <= seq ) {
+                segments.get( i ).delete();
+            }
+        }
+    }
+
+    /**
+     * Syncs and closes the log.
+     *
+     * @throws IOException if the log cannot be written.
+     */
+    public synchronized void close() throws IOException {
+        this.out.flush();
+        this.channel.force( false );
+        this.out.close();
+    }
+
+    /**
+     * Applies every logged change after a sequence number to a board, in
+     * order, growing the board where the log says it grew.  Reading stops at the first torn or corrupt record, which is
+     * what a crash in the middle of a write leaves behind, and the segment
+     * is cut back to the last good record.
+     *
+     * @param dir directory holding the segments.
+     * @param afterSeq sequence number the board already includes.
+     * @param board the board to update.
+     * @return the sequence number of the last change in the log.
+     * @throws IOException if a segment cannot be read.
+     */
+    public static long replay( File dir, long afterSeq, PlaceBoard board ) throws IOException {
+        long lastSeq = afterSeq;
+        for ( File segment : segments( dir ) ) {
+            long good = 0;
+            try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( segment ), 64 * 1024 ) ) ) {
+                while ( true ) {
+                    byte[] head = new byte[8 + 4 + 4 + 1 + 8 + 2];
+                    if ( in.read( head, 0, 1 ) < 1 ) {
+                        break;
+                    }
+                    in.readFully( head, 1, head.length - 1 );
+                    ByteBuffer fields = ByteBuffer.wrap( head );
+                    long seq = fields.getLong();
+                    int row = fields.getInt();
+                    int col = fields.getInt();
+                    int color = fields.get() & 0xF;
+                    long time = fields.getLong();
+                    byte[] owner = new byte[fields.getShort() & 0xFFFF];
+                    in.readFully( owner );
+                    int stored = in.readInt();
+
+                    CRC32 crc = new CRC32();
+                    crc.update( head );
+                    crc.update( owner );
+                    if ( ( int ) crc.getValue() != stored ) {
+                        throw new EOFException( "checksum mismatch" );
+                    }
+                    good += head.length + owner.length + 4;
+
+                    if ( row == EXPANSION ) {
+                        // growing again is harmless if the snapshot is newer.
+                        grow( board, col );
+                    }
+                    else if ( seq > afterSeq ) {
+                        PlaceTile tile = new PlaceTile( row, col, new String( owner, StandardCharsets.UTF_8 ), COLORS[color], time );
+                        if ( board.isValid( tile ) ) {
+                            board.setTile( tile );
+                        }
+                    }
+                    lastSeq = Math.max( lastSeq, seq );
+                }
+            } catch ( EOFException eof ) {
+                // torn tail; keep what was good and ignore anything later.
+                try ( FileChannel channel = FileChannel.open( segment.toPath(), StandardOpenOption.WRITE ) ) {
+                    channel.truncate( good );
+                }
+                break;
+            }
+        }
+        return lastSeq;
+    }
+
+    /**
+     * Grows a board that the log says grew while the server ran.
+     */
+    private static void grow( PlaceBoard board, int dim ) throws IOException {
+        try {
+            board.expand( dim );
+        } catch ( UnsupportedOperationException uoe ) {
+            throw new IOException( "The board grew to " + dim + "x" + dim + " while the server ran; only a chunked board can grow" );
+        }
+    }
+
+    /**
+     * Lists the segments in a directory, oldest first.
+     */
+    private static List< File > segments( File dir ) {
+        List< File > segments = new ArrayList<>();
+        File[] files = dir.listFiles( ( d, name ) -> name.startsWith( PREFIX ) && name.endsWith( SUFFIX ) );
+        if ( files != null ) {
+            for ( File file : files ) {
+                segments.add( file );
+            }
+        }
+        segments.sort( ( a, b ) -> Long.compare( firstSeq( a ), firstSeq( b ) ) );
+        return segments;
+    }
+
+    /**
+     * Reads the first sequence number of a segment from its name.
+     */
+    private static long firstSeq( File segment ) {
+        String name = segment.getName();
+        return Long.parseLong( name.substring( PREFIX.length(), name.length() - SUFFIX.length() ) );
+    }
+}
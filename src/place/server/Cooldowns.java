@@ -0,0 +1,157 @@
+package place.server;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How long each user must wait before placing again.  Every user
+ * has one slot holding the time their cooldown ends, found directly by
+ * their owner id, so a check is a read and starting a cooldown a write,
+ * whatever the number of users.  Nothing has to happen when a cooldown
+ * ends, so no timers are kept: an expired slot simply compares as over.
+ *
+ * A placement claims the cooldown with tryStart, one compare-and-set on
+ * the user's slot, so of two placements racing in on different
+ * connections, or on different server engines, only one gets through.
+ * If the placement is then refused for another reason the claim is given
+ * back with cancel, so it costs the user nothing.
+ *
+ * Slots are allocated in pages as owner ids are handed out and cost eight
+ * bytes a user; a million users take 8 MB.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class Cooldowns {
+
+    /**
+     * Owner ids per page, as a power of two.
+     */
+    private static final int PAGE_BITS = 16;
+
+    /**
+     * Owner ids per page.
+     */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /**
+     * Milliseconds a user waits between placements.
+     */
+    private long length;
+
+    /**
+     * When each user's cooldown ends, in milliseconds of the clock below;
+     * 0 for a user who has never placed.  Replaced, never changed,
+     * when pages are added.
+     */
+    private volatile AtomicLongArray[] pages;
+
+    /**
+     * Start of the monotonic clock, so wall clock changes cannot shorten
+     * or stretch a cooldown.
+     */
+    private long start;
+
+    /**
+     * Create a table in which nobody is cooling down.
+     *
+     * @param length milliseconds a user waits between placements; 0 lets
+     *               everyone place as fast as they like.
+     */
+    public Cooldowns( long length ) {
+        this.length = length;
+        this.pages = new AtomicLongArray[0];
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Get the milliseconds a user waits between placements.
+     *
+     * @return the cooldown length.
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    /**
+     * Starts a user's cooldown if it is not still running from their last
+     * placement.  A CHANGE_TILES batch counts as one placement.  Never
+     * waits.
+     *
+     * @param user the user's owner id.
+     * @return 0 if the cooldown was started and the user may place, else
+     *         the milliseconds left before they may.
+     */
+    public long tryStart( int user ) {
+        if ( this.length == 0 ) {
+            return 0;
+        }
+        AtomicLongArray page = page( user );
+        int slot = user & ( PAGE_SIZE - 1 );
+        long now = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - this.start );
+        while ( true ) {
+            long ends = page.get( slot );
+            if ( ends > now ) {
+                return ends - now;
+            }
+            if ( page.compareAndSet( slot, ends, now + this.length ) ) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a cooldown started by tryStart for a placement that was
+     * then refused, so the user may place again at once.  Only the
+     * placement that started it calls this, straight away, and no other
+     * can start one until it is over, so the slot still holds it.
+     *
+     * @param user the user's owner id.
+     */
+    public void cancel( int user ) {
+        if ( this.length == 0 ) {
+            return;
+        }
+        page( user ).set( user & ( PAGE_SIZE - 1 ), 0 );
+    }
+
+    /**
+     * Get the milliseconds left before a user may place again.
+     *
+     * @param user the user's owner id.
+     * @return the wait, or 0 if they may place now.
+     */
+    public long getWait( int user ) {
+        AtomicLongArray[] pages = this.pages;
+        if ( user >> PAGE_BITS >= pages.length ) {
+            return 0;
+        }
+        long now = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - this.start );
+        return Math.max( 0, pages[user >> PAGE_BITS].get( user & ( PAGE_SIZE - 1 ) ) - now );
+    }
+
+    /**
+     * Finds the page holding a user's slot, adding pages up to it if the
+     * id is new.
+     */
+    private AtomicLongArray page( int user ) {
+        int index = user >> PAGE_BITS;
+        AtomicLongArray[] pages = this.pages;
+        if ( index < pages.length ) {
+            return pages[index];
+        }
+        synchronized ( this ) {
+            pages = this.pages;
+            if ( index >= pages.length ) {
+                AtomicLongArray[] grown = Arrays.copyOf( pages, index + 1 );
+                for ( int i = pages.length; i <= index; i++ ) {
+                    grown[i] = new AtomicLongArray( PAGE_SIZE );
+                }
+                this.pages = grown;
+                pages = grown;
+            }
+            return pages[index];
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package place.server;
 
+import place.PlaceException;
+import place.network.CanvasRegistry;
+import place.network.PlaceGame;
 import java.util.Scanner;
-import java.util.Map;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.ObjectInputStream;
 
 /**
  * Threaded listener for an "Enter" key; shuts down the server. 
- * Additionally, closes the log.txt print stream.
+ * Additionally, closes the server log.
+ *
+ * Also takes admin commands typed at the server:
+ * "expand n [canvas]" grows a canvas's board to n x n while clients stay
+ * connected, and "canvases" lists the canvases and their clients.
  * 
  * @author Ket-Meng Cheng
  * @author Ethan Cantor
@@ -21,28 +24,28 @@ public class PlaceExitListener extends Thread {
     private Scanner s;
 
     /**
-     * PrintWriter stream to be closed upon exiting.
+     * Server log to be closed upon exiting.
      */
-    private PrintWriter pw;
+    private ServerLog log;
 
     /**
      * The variable to determine whether or not critical
      * while loops run or not (for both checking System.in
      * and the ClientServerThread generator).
      */
-    private boolean go;
+    private volatile boolean go;
 
     /**
-     * Map of all input streams to be closed upon receiving
+     * Canvases whose clients are all disconnected upon receiving
      * the enter key.
      */
-    private Map< String, ObjectInputStream > clientsIn;
+    private CanvasRegistry canvases;
 
-    public PlaceExitListener( PrintWriter pw, boolean go, Map< String, ObjectInputStream > clientsIn ) {
+    public PlaceExitListener( ServerLog log, boolean go, CanvasRegistry canvases ) {
         this.s = new Scanner( System.in );
-        this.pw = pw;
+        this.log = log;
         this.go = go;
-        this.clientsIn = clientsIn;
+        this.canvases = canvases;
     }
 
     public boolean getGo() {
@@ -50,7 +53,8 @@ public class PlaceExitListener extends Thread {
     }
 
     /**
-     * Continually checks for a blank enter key press. 
+     * Continually checks for a blank enter key press, and runs any admin
+     * command typed meanwhile.
      * Variable `go` will also shutdown the main thread-generation loop
      * in NetworkServer.
      */
@@ -60,23 +64,54 @@ public class PlaceExitListener extends Thread {
             if ( st.equals( "" ) ) {
                 this.go = false;
             }
+            else {
+                command( st.trim().split( "\\s+" ) );
+            }
         }
-        this.pw.close();
         closeIn();
+        this.log.close();
         System.out.println( "Shutting down..." );
     }
 
     /**
-     * Iterates through all entries and closes input streams.
+     * Runs one admin command, printing what happened.
+     *
+     * @param words the command and its arguments.
      */
-    private void closeIn() {
-        try {
-            for ( String name : this.clientsIn.keySet() ) { 
-                clientsIn.get( name ).close();
-            } 
-        } catch ( IOException ioe ) {
-            System.out.println( ioe );
+    private void command( String[] words ) {
+        if ( words[0].equals( "expand" ) && ( words.length == 2 || words.length == 3 ) ) {
+            PlaceGame game = this.canvases.find( words.length == 3 ? words[2] : "" );
+            if ( game == null ) {
+                System.out.println( "No canvas named " + words[2] );
+                return;
+            }
+            try {
+                long start = System.currentTimeMillis();
+                game.expand( Integer.parseInt( words[1] ) );
+                System.out.println( "Board of " + game.getName() + " expanded to " + words[1] + "x" + words[1] + " in "
+                        + ( System.currentTimeMillis() - start ) + " ms" );
+            } catch ( NumberFormatException nfe ) {
+                System.out.println( "Not a dimension: " + words[1] );
+            } catch ( PlaceException pe ) {
+                System.out.println( pe.getMessage() );
+            }
+        }
+        else if ( words[0].equals( "canvases" ) && words.length == 1 ) {
+            for ( PlaceGame game : this.canvases.getAll() ) {
+                System.out.println( game.getName() + ": " + game.getBoard().DIM + "x" + game.getBoard().DIM
+                        + ", " + game.getClientCount() + " clients" );
+            }
         }
+        else {
+            System.out.println( "Commands: expand n [canvas], canvases, or a blank line to shut down." );
+        }
+    }
+
+    /**
+     * Disconnects every client of every canvas and saves the boards.
+     */
+    private void closeIn() {
+        this.canvases.shutdown();
     }
 
 }
@@ -2,22 +2,33 @@ package place.server;
 
 import place.PlaceException;
 import place.network.NetworkServer;
+import place.network.NioNetworkServer;
 import java.io.IOException;
 
 public class PlaceServer {
 
     /** 
-     * @param args port number, dimensions
+     * @param args dimensions, port number, optional --name=value settings
      */
     public static void main( String[] args ) {
+        ServerConfig config = null;
         // Case in which there aren't enough arguments.
-        if ( args.length != 2 ) {
-            System.out.println( "Usage: java PlaceServer dimensions port_num" );
-            System.exit( 0 ); }
+        try {
+            config = ServerConfig.parse( args );
+        } catch ( PlaceException pe ) {
+            System.out.println( pe.getMessage() );
+            System.out.println( "Usage: java PlaceServer dimensions port_num [--board=tiles|packed|mapped|striped|chunked] [--board-file=path] [--engine=threads|nio] [--loops=n] [--login-timeout=ms] [--login-threads=n] [--queue=n] [--overflow=drop_oldest|coalesce|disconnect] [--tick=ms] [--batch=n] [--sequencer=lock|ring] [--ring=n] [--cooldown=ms] [--history=n] [--board-cache=ms] [--board-cache-changes=n] [--log-level=debug|info|warn|off] [--log-size=mb] [--log-files=n] [--data=dir] [--fsync=ms] [--snapshot=s] [--segment=mb] [--canvases=name[:dim],...] [--canvas-clients=n] [--canvas-rate=n]" );
+            System.exit( 0 );
+        }
 
         try {
-            NetworkServer nc = new NetworkServer( Integer.parseInt( args[1] ), Integer.parseInt( args[0] ) );
-            nc.run();
+            if ( config.getEngine() == ServerConfig.Engine.NIO ) {
+                NioNetworkServer nc = new NioNetworkServer( config );
+                nc.run();
+            } else {
+                NetworkServer nc = new NetworkServer( config );
+                nc.run();
+            }
         } catch ( PlaceException pe ) {
             System.out.println( pe );
             System.exit( 1 );
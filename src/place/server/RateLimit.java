@@ -0,0 +1,94 @@
+package place.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps how many tile changes a canvas accepts a second, so that one busy
+ * canvas cannot take all the time of the threads every canvas shares.
+ * Changes may come in bursts of up to the burst size, then at the rate.
+ *
+ * Like Cooldowns it keeps no timers and never waits: one number, the time
+ * at which everything taken so far would have been paid for at the rate,
+ * is moved forward with a compare-and-set, and a change that would push it
+ * more than a burst ahead of now is refused with the time left to wait.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class RateLimit {
+
+    /**
+     * Nanoseconds one tile change costs at the rate; 0 for no limit.
+     */
+    private long cost;
+
+    /**
+     * Nanoseconds of changes that may be taken ahead of the rate.
+     */
+    private long burst;
+
+    /**
+     * When everything taken so far is paid for, in nanoseconds of the
+     * clock below.
+     */
+    private AtomicLong paid;
+
+    /**
+     * Start of the monotonic clock.
+     */
+    private long start;
+
+    /**
+     * Create a limit with a full burst available.
+     *
+     * @param perSecond tile changes a second; 0 for no limit.
+     * @param burst most tile changes taken at once; a CHANGE_TILES batch
+     *              must fit in it.
+     */
+    public RateLimit( int perSecond, int burst ) {
+        this.cost = perSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos( 1 ) / perSecond;
+        this.burst = this.cost * Math.max( perSecond, burst );
+        this.paid = new AtomicLong();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Takes a number of tile changes if the canvas has room for them now.
+     * Never waits.
+     *
+     * @param tiles the number of tile changes.
+     * @return 0 if they were taken, else the milliseconds to wait before
+     *         they would be.
+     */
+    public long tryTake( int tiles ) {
+        if ( this.cost == 0 ) {
+            return 0;
+        }
+        long now = System.nanoTime() - this.start;
+        while ( true ) {
+            long paid = this.paid.get();
+            long next = Math.max( paid, now ) + this.cost * tiles;
+            if ( next - now > this.burst ) {
+                return Math.max( 1, TimeUnit.NANOSECONDS.toMillis( next - now - this.burst ) );
+            }
+            if ( this.paid.compareAndSet( paid, next ) ) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back tile changes taken with tryTake that were then refused
+     * for another reason, so they do not use up the canvas.
+     *
+     * @param tiles the number of tile changes.
+     */
+    public void give( int tiles ) {
+        if ( this.cost == 0 ) {
+            return;
+        }
+        // may leave paid behind now, which tryTake treats as now.
+        this.paid.addAndGet( -this.cost * tiles );
+    }
+}
@@ -0,0 +1,598 @@
+package place.server;
+
+import place.PlaceException;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Startup settings for the server.  The two positional arguments give the
+ * board dimension and port, and any further arguments are optional settings
+ * in the form "--name=value".
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class ServerConfig implements Cloneable {
+
+    /**
+     * What a canvas name may look like.
+     */
+    private static final Pattern CANVAS_NAME = Pattern.compile( "[A-Za-z0-9_-]{1,32}" );
+
+    /**
+     * The ways the server can store its board.
+     */
+    public enum BoardMode {
+        /** One PlaceTile object per cell */
+        TILES,
+        /** Primitive arrays; see PackedPlaceBoard */
+        PACKED,
+        /** A memory-mapped board file; see MappedPlaceBoard */
+        MAPPED,
+        /** Primitive arrays locked by region for parallel writers; see StripedPlaceBoard */
+        STRIPED,
+        /** Arrays allocated a chunk at a time as tiles are painted; see ChunkedPlaceBoard */
+        CHUNKED
+    }
+
+    /**
+     * The ways the server can carry client connections.
+     */
+    public enum Engine {
+        /** A blocking ClientServerThread per client */
+        THREADS,
+        /** A few non-blocking selector loops shared by every client */
+        NIO
+    }
+
+    /**
+     * How accepted tile changes are put in order and applied to the board.
+     */
+    public enum Sequencing {
+        /** The request thread applies its change holding a shared lock */
+        LOCK,
+        /** Request threads fill a ring buffer that one writer thread drains */
+        RING
+    }
+
+    /**
+     * What happens when a client's outbound queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Throw away the oldest queued tile update */
+        DROP_OLDEST,
+        /** Replace a queued update for the same tile, else drop the oldest */
+        COALESCE,
+        /** Disconnect the client; it can log in again for a fresh board */
+        DISCONNECT
+    }
+
+    /**
+     * The square dimension of the board.
+     */
+    private int dim;
+
+    /**
+     * Port the server listens on.
+     */
+    private int port;
+
+    /**
+     * How the board is stored.
+     */
+    private BoardMode boardMode;
+
+    /**
+     * File holding a memory-mapped board.
+     */
+    private File boardFile;
+
+    /**
+     * Which engine carries client connections.
+     */
+    private Engine engine;
+
+    /**
+     * Number of selector threads used by the NIO engine.
+     */
+    private int eventLoops;
+
+    /**
+     * Milliseconds a new connection has to send LOGIN before it is closed.
+     */
+    private int loginTimeout;
+
+    /**
+     * Threads the thread engine reads LOGIN requests with, apart from the
+     * thread that accepts connections.
+     */
+    private int loginThreads;
+
+    /**
+     * Frames each client may have waiting before the overflow policy applies.
+     */
+    private int queueCapacity;
+
+    /**
+     * What happens when a client's outbound queue is full.
+     */
+    private OverflowPolicy overflowPolicy;
+
+    /**
+     * Milliseconds of tile changes coalesced into one broadcast; 0 sends
+     * each change as it is accepted.
+     */
+    private int tick;
+
+    /**
+     * How accepted tile changes reach the board.
+     */
+    private Sequencing sequencing;
+
+    /**
+     * Slots in the sequencer's ring buffer.
+     */
+    private int ringSize;
+
+    /**
+     * Most tiles a client may place with one CHANGE_TILES request.
+     */
+    private int batchLimit;
+
+    /**
+     * Milliseconds a user must wait between placements; 0 for none.
+     */
+    private int cooldown;
+
+    /**
+     * Number of recent changes kept for clients that reconnect.
+     */
+    private int history;
+
+    /**
+     * Milliseconds the encoded board shared by joining clients is used for
+     * once the board has changed.
+     */
+    private int boardCacheInterval;
+
+    /**
+     * Number of changes the shared encoded board may fall behind before
+     * it is encoded again.
+     */
+    private int boardCacheChanges;
+
+    /**
+     * Lowest level of log entry written to log.txt.
+     */
+    private ServerLog.Level logLevel;
+
+    /**
+     * Megabytes log.txt may grow to before it is rotated.
+     */
+    private int logSize;
+
+    /**
+     * Number of rotated log files kept.
+     */
+    private int logFiles;
+
+    /**
+     * Directory for the change log and snapshots, or null to keep the
+     * board in memory only.
+     */
+    private File dataDir;
+
+    /**
+     * Milliseconds between syncs of the change log to disk.
+     */
+    private int fsyncInterval;
+
+    /**
+     * Seconds between board snapshots.
+     */
+    private int snapshotInterval;
+
+    /**
+     * Megabytes a change log segment may grow to before a new one starts.
+     */
+    private int segmentSize;
+
+    /**
+     * Dimension of every canvas the server hosts, by name, in the order
+     * given; the first is where clients that name no canvas play.
+     */
+    private Map< String, Integer > canvases;
+
+    /**
+     * Most clients logged in to one canvas at once; 0 for no limit.
+     */
+    private int canvasClients;
+
+    /**
+     * Most tile changes one canvas accepts a second; 0 for no limit.
+     */
+    private int canvasRate;
+
+    /**
+     * Create a configuration with default settings.
+     *
+     * @param dim the square dimension of the board
+     * @param port port the server listens on
+     */
+    public ServerConfig( int dim, int port ) {
+        this.dim = dim;
+        this.port = port;
+        this.boardMode = BoardMode.TILES;
+        this.engine = Engine.THREADS;
+        this.eventLoops = Runtime.getRuntime().availableProcessors();
+        this.loginTimeout = 5000;
+        this.loginThreads = 256;
+        this.queueCapacity = 4096;
+        this.overflowPolicy = OverflowPolicy.DISCONNECT;
+        this.tick = 0;
+        this.sequencing = Sequencing.LOCK;
+        this.ringSize = 65536;
+        this.batchLimit = 1024;
+        this.cooldown = 0;
+        this.history = 65536;
+        this.boardCacheInterval = 1000;
+        this.boardCacheChanges = 10000;
+        this.logLevel = ServerLog.Level.INFO;
+        this.logSize = 10;
+        this.logFiles = 5;
+        this.dataDir = null;
+        this.fsyncInterval = 100;
+        this.snapshotInterval = 60;
+        this.segmentSize = 64;
+        this.canvases = new LinkedHashMap<>();
+        this.canvases.put( "main", dim );
+        this.canvasClients = 0;
+        this.canvasRate = 0;
+    }
+
+    /**
+     * Builds a configuration from the command line.
+     *
+     * @param args dimensions, port number, then any "--name=value" settings.
+     * @return the configuration.
+     * @throws PlaceException if an argument is missing or malformed.
+     */
+    public static ServerConfig parse( String[] args ) throws PlaceException {
+        if ( args.length < 2 ) {
+            throw new PlaceException( "Expected dimensions and port number." );
+        }
+        Map< String, String > named = new HashMap<>();
+        for ( int i = 2; i < args.length; i++ ) {
+            if ( !args[i].startsWith( "--" ) || !args[i].contains( "=" ) ) {
+                throw new PlaceException( "Setting '" + args[i] + "' should look like --name=value." );
+            }
+            int eq = args[i].indexOf( '=' );
+            named.put( args[i].substring( 2, eq ), args[i].substring( eq + 1 ) );
+        }
+
+        try {
+            ServerConfig config = new ServerConfig( Integer.parseInt( args[0] ), Integer.parseInt( args[1] ) );
+            for ( Map.Entry< String, String > setting : named.entrySet() ) {
+                config.set( setting.getKey(), setting.getValue() );
+            }
+            if ( config.boardMode == BoardMode.MAPPED && config.boardFile == null ) {
+                throw new PlaceException( "--board=mapped needs --board-file=path." );
+            }
+            return config;
+        } catch ( IllegalArgumentException iae ) {
+            throw new PlaceException( iae.getMessage(), iae );
+        }
+    }
+
+    /**
+     * Applies a single named setting.
+     *
+     * @param name the setting name, without the leading "--".
+     * @param value the setting value.
+     * @throws PlaceException if the setting is unknown.
+     */
+    private void set( String name, String value ) throws PlaceException {
+        switch ( name ) {
+            case "board":
+                this.boardMode = BoardMode.valueOf( value.toUpperCase() );
+                break;
+            case "board-file":
+                this.boardFile = new File( value );
+                this.boardMode = BoardMode.MAPPED;
+                break;
+            case "engine":
+                this.engine = Engine.valueOf( value.toUpperCase() );
+                break;
+            case "loops":
+                this.eventLoops = positive( name, value );
+                break;
+            case "login-timeout":
+                this.loginTimeout = positive( name, value );
+                break;
+            case "login-threads":
+                this.loginThreads = positive( name, value );
+                break;
+            case "queue":
+                this.queueCapacity = positive( name, value );
+                break;
+            case "overflow":
+                this.overflowPolicy = OverflowPolicy.valueOf( value.toUpperCase().replace( '-', '_' ) );
+                break;
+            case "tick":
+                this.tick = Integer.parseInt( value );
+                if ( this.tick < 0 ) {
+                    throw new PlaceException( "--tick cannot be negative." );
+                }
+                break;
+            case "sequencer":
+                this.sequencing = Sequencing.valueOf( value.toUpperCase() );
+                break;
+            case "ring":
+                this.ringSize = positive( name, value );
+                break;
+            case "batch":
+                this.batchLimit = positive( name, value );
+                break;
+            case "cooldown":
+                this.cooldown = Integer.parseInt( value );
+                if ( this.cooldown < 0 ) {
+                    throw new PlaceException( "--cooldown cannot be negative." );
+                }
+                break;
+            case "history":
+                this.history = positive( name, value );
+                break;
+            case "board-cache":
+                this.boardCacheInterval = Integer.parseInt( value );
+                if ( this.boardCacheInterval < 0 ) {
+                    throw new PlaceException( "--board-cache cannot be negative." );
+                }
+                break;
+            case "board-cache-changes":
+                this.boardCacheChanges = positive( name, value );
+                break;
+            case "log-level":
+                this.logLevel = ServerLog.Level.valueOf( value.toUpperCase() );
+                break;
+            case "log-size":
+                this.logSize = positive( name, value );
+                break;
+            case "log-files":
+                this.logFiles = Integer.parseInt( value );
+                if ( this.logFiles < 0 ) {
+                    throw new PlaceException( "--log-files cannot be negative." );
+                }
+                break;
+            case "data":
+                this.dataDir = new File( value );
+                break;
+            case "fsync":
+                this.fsyncInterval = positive( name, value );
+                break;
+            case "snapshot":
+                this.snapshotInterval = positive( name, value );
+                break;
+            case "segment":
+                this.segmentSize = positive( name, value );
+                break;
+            case "canvases":
+                this.canvases = canvases( value );
+                break;
+            case "canvas-clients":
+                this.canvasClients = Integer.parseInt( value );
+                if ( this.canvasClients < 0 ) {
+                    throw new PlaceException( "--canvas-clients cannot be negative." );
+                }
+                break;
+            case "canvas-rate":
+                this.canvasRate = Integer.parseInt( value );
+                if ( this.canvasRate < 0 ) {
+                    throw new PlaceException( "--canvas-rate cannot be negative." );
+                }
+                break;
+            default:
+                throw new PlaceException( "Unknown setting --" + name );
+        }
+    }
+
+    /**
+     * Parses a list of canvases, each a name with an optional dimension
+     * after a colon; a canvas without one has the board's dimension.
+     *
+     * @param value the list, separated by commas.
+     * @return the dimension of every canvas by name, in order.
+     * @throws PlaceException if a name or dimension is malformed, or a
+     *         name is given twice.
+     */
+    private Map< String, Integer > canvases( String value ) throws PlaceException {
+        Map< String, Integer > canvases = new LinkedHashMap<>();
+        for ( String canvas : value.split( "," ) ) {
+            int colon = canvas.indexOf( ':' );
+            String name = colon < 0 ? canvas : canvas.substring( 0, colon );
+            if ( !CANVAS_NAME.matcher( name ).matches() ) {
+                throw new PlaceException( "Canvas name '" + name + "' should be 1 to 32 letters, digits, '-' or '_'." );
+            }
+            int dim = colon < 0 ? this.dim : positive( "canvases", canvas.substring( colon + 1 ) );
+            if ( canvases.put( name, dim ) != null ) {
+                throw new PlaceException( "Canvas " + name + " is listed twice." );
+            }
+        }
+        return canvases;
+    }
+
+    /**
+     * Builds the settings of one canvas: these settings, with the canvas's
+     * dimension, and for every canvas but the first its own subdirectory
+     * of the data directory and its own board file beside the given one.
+     *
+     * @param name the canvas name.
+     * @return the canvas settings.
+     */
+    public ServerConfig forCanvas( String name ) {
+        try {
+            ServerConfig canvas = ( ServerConfig ) clone();
+            canvas.dim = this.canvases.get( name );
+            if ( !name.equals( getDefaultCanvas() ) ) {
+                if ( this.dataDir != null ) {
+                    canvas.dataDir = new File( this.dataDir, name );
+                }
+                if ( this.boardFile != null ) {
+                    canvas.boardFile = new File( this.boardFile.getPath() + "." + name );
+                }
+            }
+            return canvas;
+        } catch ( CloneNotSupportedException cnse ) {
+            throw new AssertionError( cnse );
+        }
+    }
+
+    /**
+     * Parses a setting that must be a positive whole number.
+     *
+     * @param name the setting name, for the error message.
+     * @param value the setting value.
+     * @return the number.
+     * @throws PlaceException if the value is not a positive number.
+     */
+    private static int positive( String name, String value ) throws PlaceException {
+        int number = Integer.parseInt( value );
+        if ( number <= 0 ) {
+            throw new PlaceException( "--" + name + " must be positive." );
+        }
+        return number;
+    }
+
+    public int getDim() {
+        return this.dim;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public BoardMode getBoardMode() {
+        return this.boardMode;
+    }
+
+    public File getBoardFile() {
+        return this.boardFile;
+    }
+
+    public Engine getEngine() {
+        return this.engine;
+    }
+
+    public int getEventLoops() {
+        return this.eventLoops;
+    }
+
+    public int getLoginTimeout() {
+        return this.loginTimeout;
+    }
+
+    public int getLoginThreads() {
+        return this.loginThreads;
+    }
+
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    public int getTick() {
+        return this.tick;
+    }
+
+    public Sequencing getSequencing() {
+        return this.sequencing;
+    }
+
+    public int getRingSize() {
+        return this.ringSize;
+    }
+
+    public int getBatchLimit() {
+        return this.batchLimit;
+    }
+
+    public ServerLog.Level getLogLevel() {
+        return this.logLevel;
+    }
+
+    public int getLogSize() {
+        return this.logSize;
+    }
+
+    public int getLogFiles() {
+        return this.logFiles;
+    }
+
+    public int getCooldown() {
+        return this.cooldown;
+    }
+
+    public int getHistory() {
+        return this.history;
+    }
+
+    public int getBoardCacheInterval() {
+        return this.boardCacheInterval;
+    }
+
+    public int getBoardCacheChanges() {
+        return this.boardCacheChanges;
+    }
+
+    public File getDataDir() {
+        return this.dataDir;
+    }
+
+    public int getFsyncInterval() {
+        return this.fsyncInterval;
+    }
+
+    public int getSnapshotInterval() {
+        return this.snapshotInterval;
+    }
+
+    public int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    /**
+     * Get the names of the canvases the server hosts.
+     *
+     * @return the names, the default canvas first.
+     */
+    public Iterable< String > getCanvases() {
+        return this.canvases.keySet();
+    }
+
+    /**
+     * Get the canvas that clients naming no canvas play on.
+     *
+     * @return the name of the first canvas.
+     */
+    public String getDefaultCanvas() {
+        return this.canvases.keySet().iterator().next();
+    }
+
+    public int getCanvasCount() {
+        return this.canvases.size();
+    }
+
+    public int getCanvasClients() {
+        return this.canvasClients;
+    }
+
+    public int getCanvasRate() {
+        return this.canvasRate;
+    }
+}
@@ -0,0 +1,380 @@
+package place.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The server's log file, written by a thread of its own.  Threads that log
+ * only put the time, level and message into the next free slot of a ring
+ * buffer and carry on; the writer takes entries out in order, formats them
+ * and writes them.  A thread never waits for the disk or for another
+ * thread that is logging: if the buffer is full the entry is dropped and
+ * counted, and the count is written once there is room.
+ *
+ * When the file grows past its size limit it is renamed log.txt.1, older
+ * files move up one number, and the oldest is deleted.
+ *
+ * @author Ket-Meng Cheng
+ * @author Ethan Cantor
+ */
+public class ServerLog {
+
+    /**
+     * How important an entry is.  Entries below the level chosen at startup
+     * are thrown away by the thread logging them.
+     */
+    public enum Level {
+        /** Every tile change; a great deal of output */
+        DEBUG,
+        /** Logins, batches and statistics */
+        INFO,
+        /** Refused requests, slow clients and failures */
+        WARN,
+        /** Used as a threshold only: nothing is logged */
+        OFF
+    }
+
+    /**
+     * Number of entries the buffer holds; a power of two.
+     */
+    private static final int CAPACITY = 1 << 16;
+
+    /**
+     * Name of the current log file.
+     */
+    private static final String FILE = "log.txt";
+
+    /**
+     * Lowest level written.
+     */
+    private Level threshold;
+
+    /**
+     * Bytes the current file may grow to before it is rotated.
+     */
+    private long maxSize;
+
+    /**
+     * Number of old files kept besides the current one.
+     */
+    private int files;
+
+    /**
+     * Slot sequence numbers.  A slot may be filled for position p when it
+     * holds p, and may be read when it holds p + 1.
+     */
+    private AtomicLongArray sequences;
+
+    /**
+     * When each entry was made.
+     */
+    private long[] times;
+
+    /**
+     * Level of each entry.
+     */
+    private Level[] levels;
+
+    /**
+     * Message of each entry.
+     */
+    private String[] messages;
+
+    /**
+     * Something to be turned into text after each message, by the writer
+     * rather than the thread logging; null for none.
+     */
+    private Object[] details;
+
+    /**
+     * Next position to be filled.
+     */
+    private AtomicLong tail;
+
+    /**
+     * Next position to be written; used by the writer only.
+     */
+    private long head;
+
+    /**
+     * Entries thrown away because the buffer was full.
+     */
+    private AtomicLong dropped;
+
+    /**
+     * True while the writer is waiting for entries and must be woken.
+     */
+    private volatile boolean idle;
+
+    /**
+     * False once the log has been closed.
+     */
+    private volatile boolean open;
+
+    /**
+     * The thread that writes entries to the file.
+     */
+    private Thread writer;
+
+    /**
+     * The current file, written by the writer only.
+     */
+    private Writer out;
+
+    /**
+     * Bytes in the current file.
+     */
+    private long size;
+
+    /**
+     * Formats timestamps; used by the writer only.
+     */
+    private DateFormat format;
+
+    /**
+     * Second the cached timestamp is for.
+     */
+    private long stampSecond;
+
+    /**
+     * The formatted timestamp of stampSecond, so entries made in the same
+     * second share one formatting.
+     */
+    private String stamp;
+
+    /**
+     * Opens log.txt in the working directory, replacing an old one, and
+     * starts the writer.
+     *
+     * @param config the server configuration; gives the level and rotation.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ServerLog( ServerConfig config ) throws IOException {
+        this.threshold = config.getLogLevel();
+        this.maxSize = config.getLogSize() * 1024L * 1024L;
+        this.files = config.getLogFiles();
+        this.sequences = new AtomicLongArray( CAPACITY );
+        for ( int slot = 0; slot < CAPACITY; slot++ ) {
+            this.sequences.set( slot, slot );
+        }
+        this.times = new long[CAPACITY];
+        this.levels = new Level[CAPACITY];
+        this.messages = new String[CAPACITY];
+        this.details = new Object[CAPACITY];
+        this.tail = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.format = new SimpleDateFormat( "yyyy/MM/dd HH:mm:ss" );
+        this.stampSecond = -1;
+        this.out = new BufferedWriter( new FileWriter( FILE ), 1 << 16 );
+        this.open = true;
+        this.writer = new Thread( this::write, "log writer" );
+        this.writer.setDaemon( true );
+        this.writer.start();
+    }
+
+    /**
+     * Tells whether entries of a level are written, so a caller can skip
+     * building a message nobody will read.
+     *
+     * @param level the level.
+     * @return true if entries of that level are written.
+     */
+    public boolean isLoggable( Level level ) {
+        return level.compareTo( this.threshold ) >= 0 && level != Level.OFF;
+    }
+
+    /**
+     * Adds an entry to the log.  Never waits.
+     *
+     * @param level how important the entry is.
+     * @param msg the message.
+     */
+    public void log( Level level, String msg ) {
+        log( level, msg, null );
+    }
+
+    /**
+     * Adds an entry to the log whose message ends with an object, which the
+     * writer turns into text later.  The object must not be changed after
+     * it is logged.  Never waits.
+     *
+     * @param level how important the entry is.
+     * @param msg the start of the message.
+     * @param detail the rest of the message, or null.
+     */
+    public void log( Level level, String msg, Object detail ) {
+        if ( !isLoggable( level ) || !this.open ) {
+            return;
+        }
+        long pos = this.tail.get();
+        int slot;
+        while ( true ) {
+            slot = ( int ) pos & ( CAPACITY - 1 );
+            long behind = this.sequences.get( slot ) - pos;
+            if ( behind == 0 ) {
+                if ( this.tail.compareAndSet( pos, pos + 1 ) ) {
+                    break;
+                }
+                pos = this.tail.get();
+            }
+            else if ( behind < 0 ) {
+                // the writer has not yet taken the entry a lap ago.
+                this.dropped.incrementAndGet();
+                return;
+            }
+            else {
+                pos = this.tail.get();
+            }
+        }
+        this.times[slot] = System.currentTimeMillis();
+        this.levels[slot] = level;
+        this.messages[slot] = msg;
+        this.details[slot] = detail;
+        // publishes the fields above to the writer.
+        this.sequences.set( slot, pos + 1 );
+        if ( this.idle ) {
+            LockSupport.unpark( this.writer );
+        }
+    }
+
+    /**
+     * Get the number of entries thrown away because the writer fell behind.
+     *
+     * @return the number dropped.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Writes every entry already made, then closes the file.
+     */
+    public void close() {
+        this.open = false;
+        LockSupport.unpark( this.writer );
+        try {
+            this.writer.join();
+        } catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Main loop of the writer: writes entries as they come, flushing the
+     * file whenever the buffer runs dry.
+     */
+    private void write() {
+        long reported = 0;
+        try {
+            while ( true ) {
+                boolean wrote = false;
+                while ( writeNext() ) {
+                    wrote = true;
+                }
+                long lost = this.dropped.get();
+                if ( lost != reported ) {
+                    writeEntry( System.currentTimeMillis(), Level.WARN, ( lost - reported )
+                            + " log entries dropped; the log could not keep up.", null );
+                    reported = lost;
+                    wrote = true;
+                }
+                if ( wrote ) {
+                    this.out.flush();
+                }
+                if ( !this.open && !writeNext() ) {
+                    break;
+                }
+                this.idle = true;
+                // checked again, as an entry may have come before idle was set.
+                if ( !readable() && this.open ) {
+                    LockSupport.park( this );
+                }
+                this.idle = false;
+            }
+        } catch ( IOException ioe ) {
+            System.out.println( "Could not write log: " + ioe );
+        }
+        try {
+            this.out.close();
+        } catch ( IOException ioe ) {
+            System.out.println( ioe );
+        }
+    }
+
+    /**
+     * Tells whether the next entry has been filled in.
+     */
+    private boolean readable() {
+        return this.sequences.get( ( int ) this.head & ( CAPACITY - 1 ) ) == this.head + 1;
+    }
+
+    /**
+     * Writes the next entry if it has been filled in, and frees its slot.
+     *
+     * @return true if an entry was written.
+     */
+    private boolean writeNext() throws IOException {
+        if ( !readable() ) {
+            return false;
+        }
+        int slot = ( int ) this.head & ( CAPACITY - 1 );
+        long time = this.times[slot];
+        Level level = this.levels[slot];
+        String msg = this.messages[slot];
+        Object detail = this.details[slot];
+        this.messages[slot] = null;
+        this.details[slot] = null;
+        this.sequences.set( slot, this.head + CAPACITY );
+        this.head++;
+        writeEntry( time, level, msg, detail );
+        return true;
+    }
+
+    /**
+     * Writes one line to the file, rotating it first if it is full.
+     */
+    private void writeEntry( long time, Level level, String msg, Object detail ) throws IOException {
+        if ( time / 1000 != this.stampSecond ) {
+            this.stampSecond = time / 1000;
+            this.stamp = "[" + this.format.format( new Date( this.stampSecond * 1000 ) ) + "] ";
+        }
+        String line = detail == null ? msg : msg + detail;
+        if ( this.size > 0 && this.size + line.length() > this.maxSize ) {
+            rotate();
+        }
+        this.out.write( this.stamp );
+        this.out.write( level.name() );
+        this.out.write( ' ' );
+        this.out.write( line );
+        this.out.write( System.lineSeparator() );
+        this.size += this.stamp.length() + level.name().length() + 1 + line.length() + System.lineSeparator().length();
+    }
+
+    /**
+     * Moves every log file up one number, replacing the oldest, and starts
+     * a new log.txt.
+     */
+    private void rotate() throws IOException {
+        this.out.close();
+        for ( int number = this.files - 1; number >= 0; number-- ) {
+            File from = new File( number == 0 ? FILE : FILE + "." + number );
+            if ( from.exists() ) {
+                Files.move( from.toPath(), new File( FILE + "." + ( number + 1 ) ).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        this.out = new BufferedWriter( new FileWriter( FILE ), 1 << 16 );
+        this.size = 0;
+    }
+}